@@ -10,10 +10,12 @@ import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Result;
 
 import com.google.common.base.Function;
 import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -31,13 +33,20 @@ public static final Pattern pTab = Pattern.compile("\t");
 
 // private Map<String, AnnotationSet> mAnnotationSets;
 
+/**
+ * Annotation set cells from the row which have not been decoded yet, by annotation set name. A set moves into
+ * mAnnotationSets the first time it is asked for.
+ */
+private Map<String, KeyValue> mEncodedAnnotationSets;
 
+private int mDecodedCount = 0;
 
 private String mId;
 
 private ReconcileDocument() {
   mMetaData = Maps.newHashMap();
   mAnnotationSets = Maps.newHashMap();
+  mEncodedAnnotationSets = Maps.newHashMap();
 
 }
 public ReconcileDocument(Result row) {
@@ -48,7 +57,7 @@ public ReconcileDocument(Result row) {
       mText = "";
     }
     getMetaData(row);
-    preloadAnnotationSets(row);
+    collectAnnotationSets(row);
     mId = new String(row.getRow(), HConstants.UTF8_ENCODING);
   }
   catch (UnsupportedEncodingException e) {
@@ -125,6 +134,10 @@ public static Set<String> parse(String valStr)
 }
 
 
+/**
+ * Get the named annotation set. Sets read from the row are decoded on the first request and kept for subsequent
+ * calls.
+ */
 @Override
 public AnnotationSet getAnnotationSet(String annotationName)
 {
@@ -132,20 +145,37 @@ public AnnotationSet getAnnotationSet(String annotationName)
   if (mAnnotationSets.containsKey(annotationName)) {
     as = mAnnotationSets.get(annotationName);
   }
+  else if (mEncodedAnnotationSets.containsKey(annotationName)) {
+    as = DocSchema.getAnnotationSet(mEncodedAnnotationSets.remove(annotationName));
+    mAnnotationSets.put(annotationName, as);
+    mDecodedCount++;
+  }
   if (as == null) {
     as = new AnnotationSet(annotationName);
   }
   return as;
 }
 
-private void preloadAnnotationSets(Result row)
-{
-  Map<byte[], byte[]> m = row.getFamilyMap(DocSchema.annotationsCF.getBytes());
-  for (byte[] annotationName : m.keySet()) {
+/**
+ * Remember the annotation cells of the row without decoding them
+ *
+ * @param row
+ */
+private void collectAnnotationSets(Result row)
+{
+  KeyValue[] kvs = row.raw();
+  if (kvs == null) return;
+  byte[] family = DocSchema.annotationsCF.getBytes();
+  for (KeyValue kv : kvs) {
+    if (!kv.matchingFamily(family)) {
+      continue;
+    }
     try {
-      String name = new String(annotationName, HConstants.UTF8_ENCODING);
-      AnnotationSet as = DocSchema.getAnnotationSet(row, name);
-      mAnnotationSets.put(name, as);
+      String name = new String(kv.getQualifier(), HConstants.UTF8_ENCODING);
+      // keep the first (newest) version of each qualifier, as Result.getValue would
+      if (!mEncodedAnnotationSets.containsKey(name)) {
+        mEncodedAnnotationSets.put(name, kv);
+      }
     }
     catch (UnsupportedEncodingException e) {
       e.printStackTrace();
@@ -155,6 +185,22 @@ private void preloadAnnotationSets(Result row)
 
 }
 
+/**
+ * @return the number of annotation sets from the row which have been decoded so far
+ */
+public int getDecodedAnnotationSetCount()
+{
+  return mDecodedCount;
+}
+
+/**
+ * @return the number of annotation sets from the row which have not been needed (and so never decoded)
+ */
+public int getSkippedAnnotationSetCount()
+{
+  return mEncodedAnnotationSets.size();
+}
+
 @Override
 public String getAnnotText(Annotation a)
 {
@@ -173,6 +219,7 @@ public void deleteAnnotation(String name)
 {
   String canName = getCannonicalAnnotationSetName(name);
   mAnnotationSets.remove(canName);
+  mEncodedAnnotationSets.remove(canName);
 }
 
 @Override
@@ -253,7 +300,8 @@ public File getAnnotationSetFile(String annotationSetName)
 @Override
 public Set<String> getAnnotationSetNames()
 {
-  return mAnnotationSets.keySet();
+  // a copy: getAnnotationSet moves names between the two maps while callers iterate
+  return ImmutableSet.copyOf(Sets.union(mAnnotationSets.keySet(), mEncodedAnnotationSets.keySet()));
 }
 
 @Override
@@ -612,6 +660,7 @@ public void addAnnotationSet(AnnotationSet set, String annotationSetName, boolea
 {
   String annSetName = getCannonicalAnnotationSetName(annotationSetName);
   mAnnotationSets.put(annSetName, set);
+  mEncodedAnnotationSets.remove(annSetName);
 }
 
 public void addAnnotationSet(AnnotationSet set, String annotationSetName)
@@ -0,0 +1,150 @@
+package reconcile.hbase.filter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.filter.FilterBase;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Region server side filter for rows too large to ship to a mapper: once the bytes of a row, or the value of one of
+ * its columns, exceed the limits the rest of the row is dropped, and the row is returned as a single marker column
+ * holding the bytes seen so far, so the client learns the key without receiving the data. See
+ * {@link #isOversized(Result)}.
+ * <p>
+ * The remaining columns are skipped one by one rather than seeking to the next row, so filters combined with this one
+ * (e.g. the source filter, on a family which sorts after the large ones) still see them and can reject the row.
+ * <p>
+ * The filter needs whole rows, so it must not be used with a scan batch. It only depends on HBase, so the jar holding
+ * it can be put on the region server classpath by itself.
+ */
+public class OversizedRowFilter extends FilterBase {
+
+/**
+ * Family of the marker column returned for an oversized row; not a family of any table
+ */
+public static final byte[] MARKER_FAMILY = Bytes.toBytes("_oversized");
+
+public static final byte[] MARKER_QUALIFIER = Bytes.toBytes("bytes");
+
+private long maxRowBytes;
+
+private long maxColumnBytes;
+
+// state of the current row
+private byte[] row = null;
+
+private long rowBytes = 0;
+
+private boolean oversized = false;
+
+/**
+ * For deserialization
+ */
+public OversizedRowFilter() {
+}
+
+/**
+ * @param maxRowBytes
+ *          largest row passed whole, or 0 for no limit
+ * @param maxColumnBytes
+ *          largest column value passed, or 0 for no limit
+ */
+public OversizedRowFilter(long maxRowBytes, long maxColumnBytes) {
+  this.maxRowBytes = maxRowBytes;
+  this.maxColumnBytes = maxColumnBytes;
+}
+
+/**
+ * @param row
+ * @return whether the row was replaced by the marker of an oversized row
+ */
+public static boolean isOversized(Result row)
+{
+  return row.getValue(MARKER_FAMILY, MARKER_QUALIFIER) != null;
+}
+
+/**
+ * @param row
+ *          an oversized row
+ * @return bytes of the row seen before it was skipped
+ */
+public static long getBytesSeen(Result row)
+{
+  return Bytes.toLong(row.getValue(MARKER_FAMILY, MARKER_QUALIFIER));
+}
+
+public long getMaxRowBytes()
+{
+  return maxRowBytes;
+}
+
+public long getMaxColumnBytes()
+{
+  return maxColumnBytes;
+}
+
+@Override
+public void reset()
+{
+  row = null;
+  rowBytes = 0;
+  oversized = false;
+}
+
+@Override
+public boolean filterRowKey(byte[] buffer, int offset, int length)
+{
+  row = Arrays.copyOfRange(buffer, offset, offset + length);
+  return false;
+}
+
+@Override
+public ReturnCode filterKeyValue(KeyValue kv)
+{
+  if (oversized) return ReturnCode.SKIP;
+  if (row == null) {
+    row = kv.getRow();
+  }
+  rowBytes += kv.getLength();
+  if ((maxRowBytes > 0 && rowBytes > maxRowBytes) || (maxColumnBytes > 0 && kv.getValueLength() > maxColumnBytes)) {
+    oversized = true;
+    return ReturnCode.SKIP;
+  }
+  return ReturnCode.INCLUDE;
+}
+
+@Override
+public boolean hasFilterRow()
+{
+  return true;
+}
+
+@Override
+public void filterRow(List<KeyValue> kvs)
+{
+  if (!oversized || row == null) return;
+  kvs.clear();
+  kvs.add(new KeyValue(row, MARKER_FAMILY, MARKER_QUALIFIER, Bytes.toBytes(rowBytes)));
+}
+
+public void write(DataOutput out)
+    throws IOException
+{
+  out.writeLong(maxRowBytes);
+  out.writeLong(maxColumnBytes);
+}
+
+public void readFields(DataInput in)
+    throws IOException
+{
+  maxRowBytes = in.readLong();
+  maxColumnBytes = in.readLong();
+}
+
+}
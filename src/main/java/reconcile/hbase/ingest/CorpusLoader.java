@@ -22,8 +22,6 @@ import static reconcile.hbase.table.DocSchema.textRaw;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.hadoop.hbase.client.Put;
@@ -31,7 +29,6 @@ import org.apache.hadoop.hbase.client.Put;
 import gov.llnl.text.util.Timer;
 
 import reconcile.data.AnnotationSet;
-import reconcile.data.AnnotationWriterBytespan;
 import reconcile.data.Corpus;
 import reconcile.data.CorpusFile;
 import reconcile.data.Document;
@@ -64,8 +61,8 @@ public static void main(String[] args)
     File inputDir = new File(args[1]);
 
     DocSchema docTable = new DocSchema(source, true);
+    docTable.enableBufferedWrites(DocSchema.DEFAULT_WRITE_BUFFER_SIZE, DocSchema.DEFAULT_MAX_IN_FLIGHT_BYTES);
 
-    AnnotationWriterBytespan writer = new AnnotationWriterBytespan();
     Timer t = new Timer(1);
     Corpus corpus = new CorpusFile(inputDir);
     for (Document d : corpus) {
@@ -79,11 +76,7 @@ public static void main(String[] args)
 
       for (String anSetName : d.getAnnotationSetNames()) {
         AnnotationSet anSet = d.getAnnotationSet(anSetName);
-        StringWriter sw = new StringWriter();
-        PrintWriter out = new PrintWriter(sw);
-        writer.write(anSet, out);
-        out.flush();
-        mut.add(annotationsCF.getBytes(), anSetName.getBytes(), sw.toString().getBytes());
+        mut.add(annotationsCF.getBytes(), anSetName.getBytes(), DocSchema.toBytes(anSet));
       }
       for (String key : d.getMetaDataKeys()) {
         String val = d.getMetaData(key);
@@ -91,12 +84,10 @@ public static void main(String[] args)
       }
 
       docTable.put(mut);
-      if (t.getCount() % 100 == 0) {
-        docTable.flushCommits();
-      }
 
     }
     docTable.flushCommits();
+    System.out.println(docTable.getWriter().getStatistics());
     docTable.close();
   }
   catch (Exception e) {
@@ -56,6 +56,7 @@ public static void main(String[] args)
     File inputDir = new File(args[1]);
 
     DocSchema loader = new DocSchema(sourceName, true);
+    loader.enableBufferedWrites(DocSchema.DEFAULT_WRITE_BUFFER_SIZE, DocSchema.DEFAULT_MAX_IN_FLIGHT_BYTES);
 
     Timer t = new Timer(1);
     for (File f : RecursiveFileIterable.iterate(inputDir, new ExtensionFileFilter("txt"))) {
@@ -75,15 +76,9 @@ public static void main(String[] args)
         // And add the mutations
       loader.put(mut);
 
-        if (t.getCount() % 100 == 0) {
-        loader.flushCommits();
-        }
-
       }
     loader.flushCommits();
-
-
-    loader.flushCommits();
+    System.out.println(loader.getWriter().getStatistics());
     loader.close();
   }
   catch (TableExistsException e) {
@@ -7,10 +7,13 @@ import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Set;
 
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 
+import com.google.common.collect.ImmutableSet;
+
 import reconcile.data.Annotation;
 import reconcile.data.AnnotationSet;
 import reconcile.general.Constants;
@@ -36,6 +39,19 @@ public PrintNPs()
 
 }
 
+@Override
+public Set<String> getInputColumns()
+{
+  return ImmutableSet.of(textCF + ":" + textRaw, DocSchema.annotationsCF + ":" + Constants.PARSE,
+      DocSchema.annotationsCF + ":" + Constants.DEP);
+}
+
+@Override
+public Set<String> getOutputColumns()
+{
+  return ImmutableSet.of();
+}
+
 @Override
 public void setup(Context context)
 {
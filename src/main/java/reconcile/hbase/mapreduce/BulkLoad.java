@@ -0,0 +1,109 @@
+package reconcile.hbase.mapreduce;
+
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.mapreduce.HFileOutputFormat;
+import org.apache.hadoop.hbase.mapreduce.LoadIncrementalHFiles;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import reconcile.hbase.table.DocSchema;
+
+/**
+ * Bulk load output for the jobs which write to the doc table. Instead of sending each put through the region servers
+ * (write ahead log, memstore, flushes and the compactions they trigger), the mappers hand their puts to the task
+ * output, the reducers sort them into HFiles, one reducer per region of the table as it is when the job starts, and
+ * the HFiles are then moved into the regions.
+ * <p>
+ * Usage: {@link #configure(Job, String, Path)} once the mapper and input are set up, in place of a table reducer, and
+ * {@link #load(Configuration, String)} after the job succeeds. Mappers must write through a {@link DocSchema} set up
+ * with {@link DocSchema#configureWrites(org.apache.hadoop.mapreduce.TaskInputOutputContext)}, as {@link DocMapper}
+ * does. Deletes are not bulk loaded, they still go straight to the table.
+ */
+public class BulkLoad {
+
+private static final Log LOG = LogFactory.getLog(BulkLoad.class);
+
+/**
+ * Configuration key for the HDFS directory the HFiles are written to
+ */
+public static final String DIR_CONF = "reconcile.hbase.mapreduce.BulkLoad.dir";
+
+/**
+ * Set the job up to write HFiles for the table to the given directory, which must not exist yet. Replaces any
+ * reducer, partitioner and output format already set.
+ *
+ * @param job
+ * @param tableName
+ * @param dir
+ * @throws IOException
+ */
+public static void configure(Job job, String tableName, Path dir)
+    throws IOException
+{
+  Configuration conf = job.getConfiguration();
+  FileSystem fs = dir.getFileSystem(conf);
+  if (fs.exists(dir)) throw new IOException("bulk load directory (" + dir + ") already exists");
+
+  conf.set(DIR_CONF, dir.toString());
+  conf.setBoolean(DocSchema.OUTPUT_WRITES_CONF, true);
+  job.setMapOutputKeyClass(ImmutableBytesWritable.class);
+  job.setMapOutputValueClass(Put.class);
+
+  // total order partitioned on the current region start keys, with a reducer which sorts each row's puts into
+  // KeyValues
+  HTable table = new HTable(conf, tableName);
+  try {
+    HFileOutputFormat.configureIncrementalLoad(job, table);
+  }
+  finally {
+    table.close();
+  }
+  FileOutputFormat.setOutputPath(job, dir);
+  LOG.info("Writing HFiles for table (" + tableName + ") to (" + dir + ") with reducers(" + job.getNumReduceTasks()
+      + ")");
+}
+
+/**
+ * @param conf
+ * @return whether the job was set up by {@link #configure(Job, String, Path)}
+ */
+public static boolean isEnabled(Configuration conf)
+{
+  return conf.get(DIR_CONF) != null;
+}
+
+/**
+ * Move the HFiles written by a successful job into the regions of the table. Files which span a region boundary,
+ * e.g. of a region split while the job ran, are split first.
+ *
+ * @param conf
+ * @param tableName
+ * @throws IOException
+ */
+public static void load(Configuration conf, String tableName)
+    throws IOException
+{
+  if (!isEnabled(conf)) return;
+  Path dir = new Path(conf.get(DIR_CONF));
+  LOG.info("Bulk loading (" + dir + ") into table (" + tableName + ")");
+  long start = System.currentTimeMillis();
+  HTable table = new HTable(conf, tableName);
+  try {
+    new LoadIncrementalHFiles(conf).doBulkLoad(dir, table);
+  }
+  finally {
+    table.close();
+  }
+  LOG.info("Bulk load finished in (" + (System.currentTimeMillis() - start) + ") ms");
+}
+
+}
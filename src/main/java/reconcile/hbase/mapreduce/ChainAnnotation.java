@@ -20,15 +20,37 @@ package reconcile.hbase.mapreduce;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
@@ -36,11 +58,13 @@ import org.apache.hadoop.util.ToolRunner;
 import com.google.common.base.Joiner;
 
 import reconcile.hbase.mapreduce.ChainableAnnotationJob.AnnotateMapper;
+import reconcile.hbase.table.DocSchema;
 
 
 /**
  * Annotation M/R Job which is given a list of AnnotateMappers to perform the mapping operation.
- * The mapping jobs will be performed on each row in the order specified.
+ * The mapping jobs will be performed on each row in the order specified, except that mappers which declare
+ * their input and output columns and do not depend on each other may run concurrently.
  *
  * @author cottom1
  *
@@ -51,6 +75,28 @@ private static final Log LOG = LogFactory.getLog(ChainAnnotation.class);
 
 public static final String JOB_ARG_SEPARATOR=";";
 public static final String JOB_ARG="-job=";
+/**
+ * Command-line option to set the number of threads used to run independent mappers of the chain concurrently
+ */
+public static final String THREADS_ARG="-chainThreads=";
+/**
+ * Command-line option to skip, on each row, the mappers whose output columns are already present
+ */
+public static final String INCREMENTAL_ARG="-incremental";
+/**
+ * Command-line option for incremental mode: outputs written before the given time are computed again
+ */
+public static final String INCREMENTAL_SINCE_ARG="-incrementalSince=";
+
+/**
+ * Prefix of the meta column recording the version of each mapper which annotated the row
+ */
+public static final String VERSION_PREFIX="version.";
+
+/**
+ * Number of rows sampled to estimate the bytes per row saved by scanning only the columns the chain reads
+ */
+private static final int PROJECTION_SAMPLE_ROWS=100;
 
 
 
@@ -77,6 +123,7 @@ private Configuration conf;
 public void init(JobConfig jobConfig, Job job, Scan scan)
 {
 	StringBuffer mapperArg = new StringBuffer();
+	List<AnnotateMapper> chained = new ArrayList<AnnotateMapper>();
 
 	for (String arg : jobConfig.getArgs())
 	{
@@ -98,6 +145,7 @@ public void init(JobConfig jobConfig, Job job, Scan scan)
 						mapperArg.append(",");
 					}
 					mapperArg.append(chainJob.getMapperClass().getName());
+					chained.add(chainJob.getMapperClass().newInstance());
 				}
 				catch (ClassNotFoundException e) {
 					throw new RuntimeException(e);
@@ -112,12 +160,205 @@ public void init(JobConfig jobConfig, Job job, Scan scan)
 		}
 	}
 
+	projectScan(jobConfig, scan, chained);
+
+	String threads = jobConfig.getFirstArg(THREADS_ARG);
+	if (threads != null) {
+		job.getConfiguration().setInt(ChainMapper.THREADS_CONF, Integer.parseInt(threads));
+	}
+
+	if (Arrays.asList(jobConfig.getArgs()).contains(INCREMENTAL_ARG)) {
+		job.getConfiguration().setBoolean(ChainMapper.INCREMENTAL_CONF, true);
+		String since = jobConfig.getFirstArg(INCREMENTAL_SINCE_ARG);
+		Long sinceTime = since == null ? null : JobConfig.getTimeArg(since);
+		if (sinceTime != null) {
+			job.getConfiguration().setLong(ChainMapper.INCREMENTAL_SINCE_CONF, sinceTime.longValue());
+		}
+		initIncrementalScan(scan, chained, sinceTime == null);
+	}
+
 	// Set the mappers arg to be retrieved in ChainMapper
 	String mappers = mapperArg.toString();
 	LOG.info("Setting conf "+ChainMapper.MAPPER_NAME_CONF+" ("+mappers+")");
 	job.getConfiguration().set(ChainMapper.MAPPER_NAME_CONF, mappers);
 }
 
+/**
+ * If every chained mapper declares the columns it reads, scan only those instead of the families requested by the
+ * jobs' init, leaving out columns written by an earlier mapper of the chain.  Filters set up by a job's init must
+ * only test columns its mapper declares.
+ */
+private void projectScan(JobConfig jobConfig, Scan scan, List<AnnotateMapper> chained)
+{
+	Set<String> columns = getInputColumns(chained);
+	if (columns == null || columns.isEmpty()) {
+		LOG.info("Not every chained mapper declares its input columns, scanning the requested families");
+		return;
+	}
+	Map<byte[], NavigableSet<byte[]>> requested = new TreeMap<byte[], NavigableSet<byte[]>>(Bytes.BYTES_COMPARATOR);
+	requested.putAll(scan.getFamilyMap());
+
+	scan.setFamilyMap(new TreeMap<byte[], NavigableSet<byte[]>>(Bytes.BYTES_COMPARATOR));
+	JobConfig.addColumns(scan, columns);
+	LOG.info("Scanning only the columns read by the chain ("+Joiner.on(",").join(columns)+")");
+
+	if (jobConfig.getTableName() == null) return;
+	try {
+		DocSchema table = new DocSchema(jobConfig.getTableName());
+		try {
+			Scan before = new Scan(scan);
+			before.setFamilyMap(requested);
+			long beforeBytes = JobConfig.sampleBytesPerRow(table, before, PROJECTION_SAMPLE_ROWS);
+			long afterBytes = JobConfig.sampleBytesPerRow(table, new Scan(scan), PROJECTION_SAMPLE_ROWS);
+			LOG.info("Column projection: sampled bytes per row ("+beforeBytes+") -> ("+afterBytes+"), saving ("
+					+(beforeBytes-afterBytes)+") per row");
+		}
+		finally {
+			table.close();
+		}
+	}
+	catch (IOException e) {
+		LOG.warn("Unable to sample the bytes per row saved by the column projection: "+e.getMessage());
+	}
+}
+
+/**
+ * @return union of the columns read by the chained mappers, less those written by an earlier mapper in the chain,
+ *         or null if a mapper does not declare its inputs
+ */
+static Set<String> getInputColumns(List<AnnotateMapper> chained)
+{
+	Set<String> columns = new TreeSet<String>();
+	Set<String> produced = new HashSet<String>();
+	for (AnnotateMapper mapper : chained) {
+		Set<String> inputs = mapper.getInputColumns();
+		if (inputs == null) return null;
+		for (String column : inputs) {
+			if (!isProduced(column, produced)) {
+				columns.add(column);
+			}
+		}
+		if (mapper.getOutputColumns() != null) {
+			produced.addAll(mapper.getOutputColumns());
+		}
+	}
+	return columns;
+}
+
+/**
+ * @return the columns read by the chained mappers which an earlier mapper in the chain writes, and so are left out
+ *         of the scan by {@link #getInputColumns(List)}
+ */
+static Set<String> getChainedInputColumns(List<AnnotateMapper> chained)
+{
+	Set<String> columns = new TreeSet<String>();
+	Set<String> produced = new HashSet<String>();
+	for (AnnotateMapper mapper : chained) {
+		Set<String> inputs = mapper.getInputColumns();
+		if (inputs != null) {
+			for (String column : inputs) {
+				if (isProduced(column, produced)) {
+					columns.add(column);
+				}
+			}
+		}
+		if (mapper.getOutputColumns() != null) {
+			produced.addAll(mapper.getOutputColumns());
+		}
+	}
+	return columns;
+}
+
+/**
+ * @return whether the column is written by one of the given columns: a single column by itself or its whole family,
+ *         a whole family only by the whole family
+ */
+private static boolean isProduced(String column, Set<String> produced)
+{
+	String[] fq = splitColumn(column);
+	for (String output : produced) {
+		String[] out = splitColumn(output);
+		if (fq[0].equals(out[0]) && (out[1].length() == 0 || out[1].equals(fq[1]))) return true;
+	}
+	return false;
+}
+
+/**
+ * Add the output (and version) columns of the chained mappers to the scan, so ChainMapper can see which are present,
+ * and, if possible, filter the scan down to rows missing at least one of them.  That is not possible if a mapper
+ * does not declare its outputs exactly, or if outputs older than a given time are to be recomputed; ChainMapper
+ * still skips the mappers which are up to date.
+ * <p>
+ * A skipped mapper does not add its outputs to the row, so the columns a mapper reads from an earlier one's output
+ * are scanned again.
+ */
+static void initIncrementalScan(Scan scan, List<AnnotateMapper> chained, boolean filterRows)
+{
+	for (String column : getChainedInputColumns(chained)) {
+		String[] fq = splitColumn(column);
+		addColumn(scan, fq[0], fq[1]);
+	}
+	FilterList missing = new FilterList(FilterList.Operator.MUST_PASS_ONE);
+	for (AnnotateMapper mapper : chained) {
+		if (mapper.getVersion() != null) {
+			// the version column records that the mapper ran on the row, whether or not it wrote anything
+			addColumn(scan, DocSchema.metaCF, versionColumn(mapper));
+			// passes rows without the column, or annotated by another version
+			SingleColumnValueFilter filter = new SingleColumnValueFilter(DocSchema.metaCF.getBytes(), versionColumn(
+					mapper).getBytes(), CompareOp.NOT_EQUAL, mapper.getVersion().getBytes());
+			filter.setFilterIfMissing(false);
+			missing.addFilter(filter);
+			continue;
+		}
+		Set<String> outputs = mapper.getOutputColumns();
+		if (outputs == null) {
+			filterRows = false;
+			continue;
+		}
+		for (String column : outputs) {
+			String[] fq = splitColumn(column);
+			if (fq[1].length() == 0) {
+				filterRows = false;
+				continue;
+			}
+			addColumn(scan, fq[0], fq[1]);
+			// passes rows without the column
+			SingleColumnValueFilter filter = new SingleColumnValueFilter(fq[0].getBytes(), fq[1].getBytes(),
+					CompareOp.EQUAL, new byte[0]);
+			filter.setFilterIfMissing(false);
+			missing.addFilter(filter);
+		}
+	}
+	if (filterRows && !missing.getFilters().isEmpty()) {
+		LOG.info("Incremental: scanning only rows missing one of the chain's outputs");
+		JobConfig.addFilter(scan, missing);
+	}
+	else {
+		LOG.info("Incremental: scanning all rows, skipping up to date mappers on each row");
+	}
+}
+
+/**
+ * Add a column, or the whole family for an empty qualifier, to the scan without narrowing it: nothing is added to a
+ * scan for all columns, or for a family already requested whole.
+ */
+static void addColumn(Scan scan, String family, String qualifier)
+{
+	if (!scan.hasFamilies()) return;
+	byte[] familyBytes = family.getBytes();
+	if (qualifier.length() == 0) {
+		scan.addFamily(familyBytes);
+		return;
+	}
+	if (scan.getFamilyMap().containsKey(familyBytes) && scan.getFamilyMap().get(familyBytes) == null) return;
+	scan.addColumn(familyBytes, qualifier.getBytes());
+}
+
+static String versionColumn(AnnotateMapper mapper)
+{
+	return VERSION_PREFIX+mapper.contextHeader();
+}
+
 
 @Override
 public int run(String[] args)
@@ -129,6 +370,17 @@ public int run(String[] args)
 
   JobConfig jobConfig = new JobConfig(args);
 
+  if (Arrays.asList(args).contains(LocalAnnotationRunner.LOCAL_ARG)) {
+    try {
+      new LocalAnnotationRunner().run(this, args);
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return 1;
+    }
+    return 0;
+  }
+
   try {
 
     LOG.info("Before map/reduce startup");
@@ -143,6 +395,8 @@ public int run(String[] args)
 
     LOG.info("Started (" + Joiner.on(",").join(args) + ")");
     job.waitForCompletion(true);
+    jobConfig.cleanupInput(job);
+    jobConfig.completeBulkLoad(LOG, job);
     LOG.info("After map/reduce completion");
 
   }
@@ -159,8 +413,33 @@ public static class ChainMapper extends AnnotateMapper
 {
 	private static String MAPPER_NAME_CONF = "trinidad.hbase.mapreduce.JobConfig.ChainMapper.mappers";
 
+	/**
+	 * Number of threads used to run independent mappers of the chain concurrently on a row [default is the
+	 * number of processors]
+	 */
+	public static final String THREADS_CONF = "trinidad.hbase.mapreduce.JobConfig.ChainMapper.threads";
+
+	/**
+	 * Skip the mappers whose outputs are already present in the row
+	 */
+	public static final String INCREMENTAL_CONF = "trinidad.hbase.mapreduce.JobConfig.ChainMapper.incremental";
+
+	/**
+	 * In incremental mode, outputs written before this time are not up to date
+	 */
+	public static final String INCREMENTAL_SINCE_CONF = "trinidad.hbase.mapreduce.JobConfig.ChainMapper.incrementalSince";
+
 	ArrayList<AnnotateMapper> mappers = new ArrayList<AnnotateMapper>();
 
+	// the mappers of a stage only depend on mappers of earlier stages, so may run concurrently
+	ArrayList<List<AnnotateMapper>> stages = new ArrayList<List<AnnotateMapper>>();
+
+	ExecutorService executor;
+
+	boolean incremental;
+
+	long since;
+
 	@Override
 	public void setup(Context context) throws IOException, InterruptedException
 	{
@@ -178,6 +457,8 @@ public static class ChainMapper extends AnnotateMapper
 				Class<?> classType = Class.forName(name);
 				AnnotateMapper mapper = (AnnotateMapper) classType.newInstance();
 				mapper.setup(context);
+				mapper.collectAdditions(true);
+				mapper.deferWrites(true);
 				mappers.add(mapper);
 				context.getCounter(contextHeader(), "mapper initialized").increment(1);
 			}
@@ -194,6 +475,47 @@ public static class ChainMapper extends AnnotateMapper
 				e.printStackTrace();
 			}
 		}
+
+		incremental = context.getConfiguration().getBoolean(INCREMENTAL_CONF, false);
+		since = context.getConfiguration().getLong(INCREMENTAL_SINCE_CONF, 0);
+
+		stages = buildStages(mappers);
+		int widest = 0;
+		for (int i=0; i<stages.size(); ++i) {
+			StringBuffer names = new StringBuffer();
+			for (AnnotateMapper mapper : stages.get(i)) {
+				names.append(mapper.contextHeader()).append(" ");
+			}
+			LOG.info("Chain stage ("+i+") mappers("+names.toString().trim()+")");
+			widest = Math.max(widest, stages.get(i).size());
+		}
+		int threads = Math.min(widest, context.getConfiguration().getInt(THREADS_CONF,
+				Runtime.getRuntime().availableProcessors()));
+		if (threads > 1) {
+			LOG.info("Running independent mappers on threads("+threads+")");
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				public Thread newThread(Runnable r)
+				{
+					Thread thread = new Thread(r, "chain mapper");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+
+	@Override
+	public void cleanup(Context context) throws IOException, InterruptedException
+	{
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		for (AnnotateMapper mapper : mappers) {
+			// whatever a mapper writes in cleanup goes straight to the table
+			mapper.deferWrites(false);
+			mapper.cleanup(context);
+		}
+		super.cleanup(context);
 	}
 
 	@Override
@@ -201,10 +523,25 @@ public static class ChainMapper extends AnnotateMapper
 	    throws IOException, InterruptedException
 	{
 		context.getCounter(contextHeader(), "row started").increment(1);
-		for (AnnotateMapper mapper : mappers)
+		Result row = value;
+		List<AnnotateMapper> ran = new ArrayList<AnnotateMapper>(mappers.size());
+		for (List<AnnotateMapper> stage : stages)
 		{
+			if (incremental) {
+				stage = outOfDate(stage, row, context);
+			}
+			ran.addAll(stage);
+			List<KeyValue> added = new ArrayList<KeyValue>();
 			try {
-				mapper.map(key, value, context);
+				if (executor == null || stage.size() == 1) {
+					for (AnnotateMapper mapper : stage) {
+						mapper.map(key, row, context);
+						added.addAll(mapper.takeAdditions());
+					}
+				}
+				else {
+					mapConcurrently(stage, key, row, context, added);
+				}
 			}
 			catch (IOException e) {
 				context.getCounter(contextHeader(), "row process error").increment(1);
@@ -214,9 +551,227 @@ public static class ChainMapper extends AnnotateMapper
 				context.getCounter(contextHeader(), "row process error").increment(1);
 				throw e;
 			}
+			// later stages see the columns added by this one
+			row = merge(row, added);
 		}
+		writeRow(key, ran, context);
 		context.getCounter(contextHeader(), "row completed").increment(1);
 	}
+
+	private List<AnnotateMapper> outOfDate(List<AnnotateMapper> stage, Result row, Context context)
+	{
+		List<AnnotateMapper> run = new ArrayList<AnnotateMapper>(stage.size());
+		for (AnnotateMapper mapper : stage) {
+			if (isUpToDate(mapper, row)) {
+				context.getCounter(contextHeader(), "skip -- up to date: "+mapper.contextHeader()).increment(1);
+			}
+			else {
+				run.add(mapper);
+			}
+		}
+		return run;
+	}
+
+	/**
+	 * @return true if a versioned mapper's current version ran on the row since the incremental time, whether or not
+	 * it wrote anything, or if every column an unversioned mapper writes is in the row, written since then
+	 */
+	boolean isUpToDate(AnnotateMapper mapper, Result row)
+	{
+		String version = mapper.getVersion();
+		if (version != null) {
+			KeyValue kv = row.getColumnLatest(DocSchema.metaCF.getBytes(), versionColumn(mapper).getBytes());
+			return kv != null && kv.getTimestamp() >= since && version.equals(Bytes.toString(kv.getValue()));
+		}
+		Set<String> outputs = mapper.getOutputColumns();
+		if (outputs == null || outputs.isEmpty()) return false;
+		for (String column : outputs) {
+			String[] fq = splitColumn(column);
+			if (fq[1].length() == 0) return false;
+			KeyValue kv = row.getColumnLatest(fq[0].getBytes(), fq[1].getBytes());
+			if (kv == null || kv.getValueLength() == 0 || kv.getTimestamp() < since) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Write everything the chained mappers wrote for the row as a single put, with the version of each versioned
+	 * mapper which ran on the row, even if it wrote nothing.  Puts for any other row are written as they are.  The
+	 * puts and bytes each mapper wrote are counted under its name.
+	 */
+	private void writeRow(ImmutableBytesWritable key, List<AnnotateMapper> ran, Context context)
+		throws IOException
+	{
+		byte[] row = Arrays.copyOfRange(key.get(), key.getOffset(), key.getOffset()+key.getLength());
+		Put merged = null;
+		boolean wrote = false;
+		boolean writeToWAL = false;
+		for (AnnotateMapper mapper : mappers) {
+			List<Put> puts = mapper.takeWrites();
+			if (!puts.isEmpty()) {
+				long bytes = 0;
+				for (Put put : puts) {
+					for (List<KeyValue> kvs : put.getFamilyMap().values()) {
+						for (KeyValue kv : kvs) {
+							bytes += kv.getLength();
+						}
+					}
+				}
+				context.getCounter(mapper.contextHeader(), "puts written").increment(puts.size());
+				context.getCounter(mapper.contextHeader(), "bytes written").increment(bytes);
+			}
+			for (Put put : puts) {
+				if (!Bytes.equals(row, put.getRow())) {
+					docTable.put(put);
+					continue;
+				}
+				if (merged == null) {
+					merged = new Put(row);
+				}
+				wrote = true;
+				writeToWAL |= put.getWriteToWAL();
+				for (List<KeyValue> kvs : put.getFamilyMap().values()) {
+					for (KeyValue kv : kvs) {
+						merged.add(kv);
+					}
+				}
+			}
+			if (mapper.getVersion() != null && ran.contains(mapper)) {
+				if (merged == null) {
+					merged = new Put(row);
+				}
+				DocSchema.add(merged, DocSchema.metaCF, versionColumn(mapper), mapper.getVersion());
+			}
+		}
+		if (merged != null) {
+			// only versions recorded: the default, to the log
+			merged.setWriteToWAL(writeToWAL || !wrote);
+			docTable.put(merged);
+			context.getCounter(contextHeader(), "row put").increment(1);
+		}
+	}
+
+	/**
+	 * Run the mappers of a stage on the pool, each on its own copy of the row, and collect their additions in
+	 * chain order.  Waits for every mapper before reporting the first failure.
+	 */
+	private void mapConcurrently(List<AnnotateMapper> stage, final ImmutableBytesWritable key, Result row,
+			final Context context, List<KeyValue> added)
+		throws IOException, InterruptedException
+	{
+		List<Future<List<KeyValue>>> results = new ArrayList<Future<List<KeyValue>>>(stage.size());
+		for (final AnnotateMapper mapper : stage) {
+			final Result copy = new Result(row.raw());
+			results.add(executor.submit(new Callable<List<KeyValue>>() {
+				public List<KeyValue> call() throws Exception
+				{
+					mapper.map(key, copy, context);
+					return mapper.takeAdditions();
+				}
+			}));
+		}
+
+		Throwable failure = null;
+		for (Future<List<KeyValue>> result : results) {
+			try {
+				added.addAll(result.get());
+			}
+			catch (ExecutionException e) {
+				if (failure == null) {
+					failure = e.getCause();
+				}
+			}
+		}
+		if (failure instanceof IOException) throw (IOException) failure;
+		if (failure instanceof InterruptedException) throw (InterruptedException) failure;
+		if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+		if (failure instanceof Error) throw (Error) failure;
+		if (failure != null) throw new IOException(failure);
+	}
+
+	/**
+	 * @return the row with the added columns, replacing any earlier values of the same columns
+	 */
+	static Result merge(Result row, List<KeyValue> added)
+	{
+		if (added.isEmpty()) return row;
+		Map<String, KeyValue> latest = new HashMap<String, KeyValue>();
+		for (KeyValue kv : added) {
+			latest.put(Bytes.toString(kv.getFamily())+":"+Bytes.toString(kv.getQualifier()), kv);
+		}
+		List<KeyValue> kvs = new ArrayList<KeyValue>();
+		if (row.raw() != null) {
+			for (KeyValue kv : row.raw()) {
+				if (!latest.containsKey(Bytes.toString(kv.getFamily())+":"+Bytes.toString(kv.getQualifier()))) {
+					kvs.add(kv);
+				}
+			}
+		}
+		kvs.addAll(latest.values());
+		Collections.sort(kvs, KeyValue.COMPARATOR);
+		return new Result(kvs.toArray(new KeyValue[kvs.size()]));
+	}
+
+	/**
+	 * Group the chained mappers into stages.  A mapper depends on an earlier mapper of the chain if it reads a
+	 * column the earlier one writes, or writes a column the earlier one reads or writes, or if either has not
+	 * declared its columns.  Each mapper goes in the stage after the last stage it depends on.
+	 */
+	static ArrayList<List<AnnotateMapper>> buildStages(List<AnnotateMapper> mappers)
+	{
+		ArrayList<List<AnnotateMapper>> stages = new ArrayList<List<AnnotateMapper>>();
+		int[] stageOf = new int[mappers.size()];
+		for (int i=0; i<mappers.size(); ++i) {
+			int stage = 0;
+			for (int j=0; j<i; ++j) {
+				if (dependsOn(mappers.get(i), mappers.get(j))) {
+					stage = Math.max(stage, stageOf[j]+1);
+				}
+			}
+			stageOf[i] = stage;
+			if (stage == stages.size()) {
+				stages.add(new ArrayList<AnnotateMapper>());
+			}
+			stages.get(stage).add(mappers.get(i));
+		}
+		return stages;
+	}
+
+	static boolean dependsOn(AnnotateMapper later, AnnotateMapper earlier)
+	{
+		Set<String> laterIn = later.getInputColumns();
+		Set<String> laterOut = later.getOutputColumns();
+		Set<String> earlierIn = earlier.getInputColumns();
+		Set<String> earlierOut = earlier.getOutputColumns();
+		if (laterIn == null || laterOut == null || earlierIn == null || earlierOut == null) return true;
+		return overlaps(laterIn, earlierOut) || overlaps(laterOut, earlierOut) || overlaps(laterOut, earlierIn);
+	}
+}
+
+/**
+ * @return true if a column of one set is the same as, or in the family of, a column of the other.  Columns are
+ * "family:qualifier", or "family:" for a whole family.
+ */
+static boolean overlaps(Set<String> columns, Set<String> others)
+{
+	for (String column : columns) {
+		for (String other : others) {
+			String[] a = splitColumn(column);
+			String[] b = splitColumn(other);
+			if (a[0].equals(b[0]) && (a[1].length() == 0 || b[1].length() == 0 || a[1].equals(b[1]))) return true;
+		}
+	}
+	return false;
+}
+
+/**
+ * @return family and qualifier of a column, the qualifier empty for a whole family
+ */
+static String[] splitColumn(String column)
+{
+	int index = column.indexOf(':');
+	if (index < 0) return new String[] { column, "" };
+	return new String[] { column.substring(0, index), column.substring(index+1) };
 }
 
 }
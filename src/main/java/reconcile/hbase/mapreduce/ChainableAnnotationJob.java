@@ -12,10 +12,12 @@
  */
 package reconcile.hbase.mapreduce;
 
-import static reconcile.hbase.mapreduce.annotation.AnnotationUtils.getAnnotationStr;
-
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.NavigableMap;
+import java.util.Set;
 import java.util.TreeMap;
 
 import org.apache.commons.logging.Log;
@@ -23,6 +25,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.Scan;
@@ -47,6 +50,9 @@ public abstract class ChainableAnnotationJob extends Configured implements Tool
 	 */
 	public static abstract class AnnotateMapper extends DocMapper<Put>
 	{
+		// columns added to the Result, collected only while run by a ChainMapper
+		private List<KeyValue> additions;
+
 		/*
 		 * Simply overridden to make map public
 		 */
@@ -57,8 +63,82 @@ public abstract class ChainableAnnotationJob extends Configured implements Tool
 			super.map(key, value, context);
 		}
 
+		/**
+		 * Columns this mapper reads, as "family:qualifier", or "family:" for the whole family.  Must not depend
+		 * on setup.  The default, null, means unknown, and a ChainMapper then runs this mapper only after every
+		 * mapper before it in the chain.
+		 * <p>
+		 * A mapper which declares its columns may be run at the same time as others of the chain, on the same
+		 * Context, so as for {@link DocMapper#isThreadSafe()} it must write through docTable and not call
+		 * context.write.
+		 *
+		 * @return
+		 */
+		public Set<String> getInputColumns()
+		{
+			return null;
+		}
+
+		/**
+		 * Columns this mapper writes, in the same form as {@link #getInputColumns()}.  The default, null, means
+		 * unknown, and a ChainMapper then runs every later mapper in the chain after this one.
+		 *
+		 * @return
+		 */
+		public Set<String> getOutputColumns()
+		{
+			return null;
+		}
+
+		/**
+		 * Version of this mapper's output, e.g. of its model.  If not null, it is stored with each row the mapper
+		 * runs on (in a chain), whether or not it writes anything, as meta:version.&lt;mapper name&gt;, and an
+		 * incremental chain annotates only rows which do not hold this version.
+		 *
+		 * @return
+		 */
+		public String getVersion()
+		{
+			return null;
+		}
+
+		void collectAdditions(boolean collect)
+		{
+			additions = collect ? new ArrayList<KeyValue>() : null;
+		}
+
+		/**
+		 * @return the columns added to the Result since the last call
+		 */
+		List<KeyValue> takeAdditions()
+		{
+			List<KeyValue> added = additions;
+			additions = new ArrayList<KeyValue>();
+			return added;
+		}
+
+		/**
+		 * Hold back the puts written through docTable, for a ChainMapper to merge the puts of all its mappers
+		 * for a row and write them once, after the last mapper has run
+		 */
+		void deferWrites(boolean defer)
+		{
+			docTable.deferPuts(defer);
+		}
+
+		/**
+		 * @return the puts written since the last call
+		 */
+		List<Put> takeWrites()
+		{
+			return docTable.takeDeferredPuts();
+		}
+
 		protected void addToResult(Result value, String colFamily, String colQual, byte[] data)
 		{
+			if (additions != null && value.getRow() != null) {
+				additions.add(new KeyValue(value.getRow(), colFamily.getBytes(), colQual.getBytes(), data));
+			}
 			// Add entry to result for downstream processing
 			NavigableMap<byte[], NavigableMap<byte[],byte[]>> values = value.getNoVersionMap();
 			NavigableMap<byte[], byte[]> familyMap = values.get(colFamily.getBytes());
@@ -87,8 +167,7 @@ public abstract class ChainableAnnotationJob extends Configured implements Tool
 
 		protected void addAnnotation(Result value, Put put, AnnotationSet set, String name)
 		{
-			String data = getAnnotationStr(set);
-			addField(value, put, DocSchema.annotationsCF, name, data.getBytes());
+			addField(value, put, DocSchema.annotationsCF, name, DocSchema.toBytes(set));
 		}
 	}
 
@@ -97,7 +176,8 @@ public abstract class ChainableAnnotationJob extends Configured implements Tool
  * <ul>
  * <li>scan (start, stop, filter)
  * <li>parameters that the child map jobs might need
- * <li>scanner caching (default is pushed to 1 to compute-bound tasks; I/O bound tasks could go to 10000)
+ * <li>scanner caching (default is pushed to 1 to compute-bound tasks; I/O bound tasks could go to 10000), unless
+ * given on the command line with JobConfig's -scanProfile= or -caching=
  * </ul>
  * 
  * @param args
@@ -141,6 +221,16 @@ private Configuration conf;
 	  Scan scan = new Scan();
 
 	  int status = 0;
+	  if (Arrays.asList(args).contains(LocalAnnotationRunner.LOCAL_ARG)) {
+	  	try {
+	  		new LocalAnnotationRunner().run(this, args);
+	  	}
+	  	catch (Exception e) {
+	  		e.printStackTrace();
+	  		status = 1;
+	  	}
+	  	return status;
+	  }
 	  try {
 
 	    LOG.info("Before map/reduce startup");
@@ -154,8 +244,10 @@ private Configuration conf;
 
 	    LOG.info("Started ");
 	    job.waitForCompletion(true);
+	    jobConfig.cleanupInput(job);
 	    if (!job.isSuccessful())
 	    	status = 1;
+	    jobConfig.completeBulkLoad(LOG, job);
 	    LOG.info("After map/reduce completion");
 	    
 	    finish();
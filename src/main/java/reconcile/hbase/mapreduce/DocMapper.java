@@ -11,13 +11,26 @@
  * Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
  */package reconcile.hbase.mapreduce;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.mapreduce.TableMapper;
+import org.apache.hadoop.hbase.util.Bytes;
 
+import reconcile.hbase.filter.OversizedRowFilter;
 import reconcile.hbase.table.DocSchema;
 
 /**
@@ -30,10 +43,36 @@ import reconcile.hbase.table.DocSchema;
  */
 public abstract class DocMapper<ReducerType> extends TableMapper<ImmutableBytesWritable, ReducerType>
 {
+	private static final Log LOG = LogFactory.getLog(DocMapper.class);
+
+	/**
+	 * Number of threads calling map in one task, for mappers which are {@link #isThreadSafe() thread safe}
+	 * [default is 1]
+	 */
+	public static final String MAP_THREADS_CONF = JobConfig.BASE+".mapThreads";
+
+	// marks the end of input for the map threads
+	private static final Row END = new Row(null, null);
+
+	private static class Row
+	{
+		final ImmutableBytesWritable key;
+		final Result value;
+
+		Row(ImmutableBytesWritable key, Result value)
+		{
+			this.key = key;
+			this.value = value;
+		}
+	}
+
 	private String source;
 	private String keyList;
 	private String table;
 	protected DocSchema docTable;
+	// keys of the rows skipped by OversizedRowFilter, see JobConfig.SKIPPED_ROWS_ARG
+	private Path skippedRows;
+	private Writer skippedRowsOut;
 
 	@Override
 	public void setup(Context context)
@@ -48,8 +87,14 @@ public abstract class DocMapper<ReducerType> extends TableMapper<ImmutableBytesW
 	  }
 
 	  docTable = new DocSchema(table);
+	  docTable.configureWrites(context);
 
 	  keyList = context.getConfiguration().get(JobConfig.KEY_LIST_CONF);
+
+	  String skippedRowsDir = context.getConfiguration().get(JobConfig.SKIPPED_ROWS_CONF);
+	  if (skippedRowsDir != null) {
+	    skippedRows = new Path(skippedRowsDir, "skipped-" + context.getTaskAttemptID());
+	  }
 	}
 
 @Override
@@ -58,6 +103,9 @@ public void cleanup(Context context)
 {
   try {
     docTable.flushCommits();
+    if (docTable.getWriter() != null) {
+      docTable.getWriter().reportCounters(context);
+    }
     docTable.close();
   }
   catch (IOException e) {
@@ -66,6 +114,155 @@ public void cleanup(Context context)
   }
 
 }
+	/**
+	 * Whether map may be called from several threads at once, see {@link #MAP_THREADS_CONF}.  A thread safe mapper
+	 * shares whatever it loads in setup (e.g. models) read-only between the threads, writes through docTable,
+	 * and does not call context.write.
+	 *
+	 * @return false, unless overridden
+	 */
+	protected boolean isThreadSafe()
+	{
+		return false;
+	}
+
+	/**
+	 * With {@link #MAP_THREADS_CONF} set and a thread safe mapper, this thread reads rows into a bounded queue and
+	 * that many threads take them and call map.  Otherwise rows are mapped one at a time as usual.  Either way rows
+	 * which the region servers replaced by an {@link OversizedRowFilter} marker are skipped.
+	 */
+	@Override
+	public void run(Context context)
+	    throws IOException, InterruptedException
+	{
+		int threads = context.getConfiguration().getInt(MAP_THREADS_CONF, 1);
+		if (threads > 1 && !isThreadSafe()) {
+			LOG.warn(getClass().getName()+" is not thread safe, ignoring map threads("+threads+")");
+		}
+		if (threads <= 1 || !isThreadSafe()) {
+			setup(context);
+			while (context.nextKeyValue()) {
+				if (!skipOversized(context.getCurrentKey(), context.getCurrentValue(), context)) {
+					map(context.getCurrentKey(), context.getCurrentValue(), context);
+				}
+			}
+			cleanup(context);
+			closeSkippedRows();
+			return;
+		}
+
+		setup(context);
+		runThreads(context, threads);
+		cleanup(context);
+		closeSkippedRows();
+	}
+
+	private void runThreads(final Context context, int threads)
+	    throws IOException, InterruptedException
+	{
+		final BlockingQueue<Row> queue = new ArrayBlockingQueue<Row>(threads * 2);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final TaskHeartbeat heartbeat = TaskHeartbeat.acquire(context);
+		Thread[] workers = new Thread[threads];
+		for (int i=0; i<threads; ++i) {
+			workers[i] = new Thread("map thread "+i) {
+				@Override
+				public void run()
+				{
+					try {
+						for (Row row = queue.take(); row != END; row = queue.take()) {
+							heartbeat.startRecord(Bytes.toStringBinary(row.key.get()));
+							try {
+								map(row.key, row.value, context);
+							}
+							finally {
+								heartbeat.endRecord();
+							}
+						}
+					}
+					catch (Throwable t) {
+						failure.compareAndSet(null, t);
+					}
+				}
+			};
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+		context.getCounter(contextHeader(), "map threads").increment(threads);
+
+		try {
+			while (failure.get() == null && context.nextKeyValue()) {
+				if (skipOversized(context.getCurrentKey(), context.getCurrentValue(), context)) {
+					continue;
+				}
+				// the record reader may reuse its key
+				ImmutableBytesWritable key = context.getCurrentKey();
+				Row row = new Row(new ImmutableBytesWritable(Arrays.copyOfRange(key.get(), key.getOffset(), key
+				    .getOffset()+key.getLength())), context.getCurrentValue());
+				while (failure.get() == null && !queue.offer(row, 1, TimeUnit.SECONDS)) {
+					// a full queue, keep checking for a failed thread
+				}
+			}
+		}
+		finally {
+			for (int i=0; i<threads && failure.get() == null;) {
+				if (queue.offer(END, 1, TimeUnit.SECONDS)) {
+					++i;
+				}
+			}
+			if (failure.get() != null) {
+				queue.clear();
+				for (Thread worker : workers) {
+					worker.interrupt();
+				}
+			}
+			for (Thread worker : workers) {
+				worker.join();
+			}
+			heartbeat.release();
+		}
+
+		Throwable t = failure.get();
+		if (t instanceof IOException) throw (IOException) t;
+		if (t instanceof InterruptedException) throw (InterruptedException) t;
+		if (t instanceof RuntimeException) throw (RuntimeException) t;
+		if (t instanceof Error) throw (Error) t;
+		if (t != null) throw new IOException(t);
+	}
+
+	/**
+	 * Count a row which the region server replaced by an {@link OversizedRowFilter} marker, and list its key under
+	 * {@link JobConfig#SKIPPED_ROWS_CONF}, if set, so it can be processed later as a key list.
+	 *
+	 * @return whether the row was skipped
+	 */
+	private boolean skipOversized(ImmutableBytesWritable key, Result value, Context context)
+	    throws IOException
+	{
+		if (value == null || !OversizedRowFilter.isOversized(value)) return false;
+
+		String row = Bytes.toString(key.get(), key.getOffset(), key.getLength());
+		LOG.warn("skipping row ("+row+") over bytes("+OversizedRowFilter.getBytesSeen(value)+")");
+		context.getCounter(contextHeader(), "skip -- row too large").increment(1);
+		if (skippedRows != null) {
+			if (skippedRowsOut == null) {
+				skippedRowsOut = new BufferedWriter(new OutputStreamWriter(skippedRows.getFileSystem(
+				    context.getConfiguration()).create(skippedRows), "UTF-8"));
+			}
+			skippedRowsOut.write(row+"\n");
+		}
+		return true;
+	}
+
+	private void closeSkippedRows()
+	    throws IOException
+	{
+		if (skippedRowsOut == null) return;
+		skippedRowsOut.close();
+		skippedRowsOut = null;
+		LOG.info("listed keys of skipped rows in ("+skippedRows+")");
+	}
+
 	public String getSourceName()
 	{
 	  return source;
@@ -86,6 +283,11 @@ public void cleanup(Context context)
 	  return getClass().getSimpleName();
 	}
 
+/**
+ * @deprecated the whole row has already been sent to the mapper by the time it is checked; use
+ *             {@link JobConfig#MAX_ROW_BYTES_ARG}, which skips oversized rows in the region servers
+ */
+@Deprecated
 protected boolean isRowSizeTooLarge(Result row, Context context, int maxRowLength)
   {
     int size = 0;
@@ -0,0 +1,274 @@
+package reconcile.hbase.mapreduce;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Sorts and removes duplicates from a stream of row keys using bounded memory.
+ * <p>
+ * Keys are collected in memory until {@link #maxKeysInMemory} have been added; the buffer is then sorted and spilled
+ * to a run file in the local temporary directory. {@link #sortedKeys()} merges the runs (and whatever is left in
+ * memory) into a single sorted, duplicate free sequence. Input which is already sorted can skip the spilling step and
+ * be merged directly with {@link #merge(List)}.
+ */
+public class ExternalKeySorter {
+
+static final Log LOG = LogFactory.getLog(ExternalKeySorter.class);
+
+private static final String ENCODING = "UTF-8";
+
+/**
+ * Sequence of keys in sorted order, returning null once exhausted
+ */
+public interface SortedKeys {
+
+  /**
+   * @return the next key, or null if there are no more
+   * @throws IOException
+   */
+  String next()
+      throws IOException;
+
+  void close();
+}
+
+/**
+ * Normalize a line of a key list file
+ *
+ * @param line
+ * @return the key, or null if the line is blank or a comment
+ */
+public static String toKey(String line)
+{
+  String key = line.trim();
+  if (key.length() == 0 || key.startsWith("#")) return null;
+  return key;
+}
+
+private final int maxKeysInMemory;
+
+private final File tmpDir;
+
+private final List<String> buffer = new ArrayList<String>();
+
+private final List<File> runs = new ArrayList<File>();
+
+public ExternalKeySorter(int maxKeysInMemory, File tmpDir) {
+  this.maxKeysInMemory = Math.max(maxKeysInMemory, 1);
+  this.tmpDir = tmpDir;
+}
+
+public void add(String key)
+    throws IOException
+{
+  buffer.add(key);
+  if (buffer.size() >= maxKeysInMemory) {
+    spill();
+  }
+}
+
+/**
+ * Add every key of a key list file
+ *
+ * @param reader
+ * @throws IOException
+ */
+public void addAll(BufferedReader reader)
+    throws IOException
+{
+  String line = null;
+  while ((line = reader.readLine()) != null) {
+    String key = toKey(line);
+    if (key != null) {
+      add(key);
+    }
+  }
+}
+
+/**
+ * @return the number of run files spilled so far
+ */
+public int getNumRuns()
+{
+  return runs.size();
+}
+
+private void spill()
+    throws IOException
+{
+  Collections.sort(buffer);
+  File run = File.createTempFile("keys-run-", ".txt", tmpDir);
+  run.deleteOnExit();
+  BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(run), ENCODING));
+  try {
+    String previous = null;
+    for (String key : buffer) {
+      if (!key.equals(previous)) {
+        writer.write(key);
+        writer.write('\n');
+      }
+      previous = key;
+    }
+  }
+  finally {
+    IOUtils.closeQuietly(writer);
+  }
+  LOG.info("Spilled (" + buffer.size() + ") keys to run (" + run.getAbsolutePath() + ")");
+  runs.add(run);
+  buffer.clear();
+}
+
+/**
+ * Merge everything added so far. Closing the returned sequence deletes the run files.
+ *
+ * @return
+ * @throws IOException
+ */
+public SortedKeys sortedKeys()
+    throws IOException
+{
+  if (!buffer.isEmpty()) {
+    spill();
+  }
+  List<BufferedReader> readers = new ArrayList<BufferedReader>();
+  for (File run : runs) {
+    readers.add(new BufferedReader(new InputStreamReader(new FileInputStream(run), ENCODING)));
+  }
+  final SortedKeys merged = merge(readers);
+  return new SortedKeys() {
+
+    @Override
+    public String next()
+        throws IOException
+    {
+      return merged.next();
+    }
+
+    @Override
+    public void close()
+    {
+      merged.close();
+      for (File run : runs) {
+        if (!run.delete()) {
+          LOG.warn("Unable to delete run (" + run.getAbsolutePath() + ")");
+        }
+      }
+      runs.clear();
+    }
+  };
+}
+
+/**
+ * k-way merge of readers over key lists which are each already sorted, dropping duplicates. Blank and comment lines
+ * are skipped.
+ *
+ * @param sortedInputs
+ * @return
+ * @throws IOException
+ *           (from {@link SortedKeys#next()}) if an input is not sorted
+ */
+public static SortedKeys merge(final List<BufferedReader> sortedInputs)
+    throws IOException
+{
+  final PriorityQueue<Head> heads = new PriorityQueue<Head>();
+  for (BufferedReader reader : sortedInputs) {
+    Head head = new Head(reader);
+    if (head.advance()) {
+      heads.add(head);
+    }
+  }
+
+  return new SortedKeys() {
+
+    private String previous = null;
+
+    @Override
+    public String next()
+        throws IOException
+    {
+      while (!heads.isEmpty()) {
+        Head head = heads.poll();
+        String key = head.key;
+        if (head.advance()) {
+          heads.add(head);
+        }
+        if (!key.equals(previous)) {
+          previous = key;
+          return key;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public void close()
+    {
+      for (Reader reader : sortedInputs) {
+        IOUtils.closeQuietly(reader);
+      }
+    }
+  };
+}
+
+/**
+ * Current key of one merge input
+ */
+private static class Head
+    implements Comparable<Head> {
+
+private final BufferedReader reader;
+
+private String key;
+
+private long line = 0;
+
+Head(BufferedReader reader) {
+  this.reader = reader;
+}
+
+/**
+ * @return false once the input is exhausted
+ */
+boolean advance()
+    throws IOException
+{
+  String previous = key;
+  String l = null;
+  while ((l = reader.readLine()) != null) {
+    line++;
+    String next = toKey(l);
+    if (next == null) {
+      continue;
+    }
+    if (previous != null && next.compareTo(previous) < 0)
+      throw new IOException("key list is not sorted: key (" + next + ") on line (" + line + ") follows (" + previous
+          + ")");
+    key = next;
+    return true;
+  }
+  return false;
+}
+
+@Override
+public int compareTo(Head o)
+{
+  return key.compareTo(o.key);
+}
+}
+
+}
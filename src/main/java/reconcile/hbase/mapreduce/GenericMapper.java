@@ -44,6 +44,9 @@ public static void main(String[] args)
 
 private Class<? extends AnnotateMapper> mapperClass;
 
+/**
+ * Scans the families given by -family=, or if there are none, the columns the mapper declares it reads
+ */
 @SuppressWarnings("unchecked")
 @Override
 public void init(JobConfig jobConfig, Job job, Scan scan)
@@ -55,10 +58,22 @@ public void init(JobConfig jobConfig, Job job, Scan scan)
   String mapper = jobConfig.getFirstArg("-mapper=");
   try {
     mapperClass = (Class<? extends AnnotateMapper>) Class.forName(mapper);
+    if (families.isEmpty()) {
+      Set<String> inputs = mapperClass.newInstance().getInputColumns();
+      if (inputs != null && !inputs.isEmpty()) {
+        JobConfig.addColumns(scan, inputs);
+      }
+    }
   }
   catch (ClassNotFoundException e) {
     throw new RuntimeException(e);
   }
+  catch (InstantiationException e) {
+    throw new RuntimeException(e);
+  }
+  catch (IllegalAccessException e) {
+    throw new RuntimeException(e);
+  }
 }
 
 @Override
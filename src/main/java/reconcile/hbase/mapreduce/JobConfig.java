@@ -15,15 +15,23 @@ package reconcile.hbase.mapreduce;
 import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
 import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.mapreduce.IdentityTableReducer;
@@ -35,6 +43,7 @@ import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
 
+import reconcile.hbase.filter.OversizedRowFilter;
 import reconcile.hbase.table.DocSchema;
 
 /**
@@ -75,6 +84,51 @@ static public final String TIME_RANGE_ARG = "-timeRange=";
  * Command-line option to specify to only retrieve columns for given time stamp
  */
 static public final String TIME_STAMP_ARG = "-timeStamp=";
+/**
+ * Command-line option to have mappers write to the DocSchema through a background writer with the given client write
+ * buffer size in bytes
+ */
+static public final String WRITE_BUFFER_ARG = "-writeBuffer=";
+/**
+ * Command-line option to call map from the given number of threads in each task, for thread safe mappers
+ */
+static public final String MAP_THREADS_ARG = "-mapThreads=";
+/**
+ * Command-line option to write HFiles to the given HDFS directory and bulk load them into the table, instead of
+ * writing through the region servers
+ */
+static public final String BULK_LOAD_ARG = "-bulkLoad=";
+/**
+ * Command-line option to tune the scan for the kind of job: io, cpu, huge-rows or auto, see {@link ScanProfile}
+ */
+static public final String SCAN_PROFILE_ARG = "-scanProfile=";
+/**
+ * Command-line option to set the rows fetched per scanner call, overriding the scan profile
+ */
+static public final String CACHING_ARG = "-caching=";
+/**
+ * Command-line option to set the maximum columns per Result, overriding the scan profile.  Only for the query jobs,
+ * doc mapper jobs need whole rows.
+ */
+static public final String BATCH_ARG = "-batch=";
+/**
+ * Command-line option to have the region servers cache the blocks the scan reads [default is false]
+ */
+static public final String CACHE_BLOCKS_ARG = "-cacheBlocks=";
+/**
+ * Command-line option to have the region servers skip rows larger than the given bytes instead of sending them to the
+ * mappers, see {@link OversizedRowFilter}
+ */
+static public final String MAX_ROW_BYTES_ARG = "-maxRowBytes=";
+/**
+ * Command-line option to have the region servers skip rows with a column value larger than the given bytes
+ */
+static public final String MAX_COLUMN_BYTES_ARG = "-maxColumnBytes=";
+/**
+ * Command-line option to list the keys of skipped oversized rows in files under the given HDFS directory, one file
+ * per task, which can be passed back as a key list
+ */
+static public final String SKIPPED_ROWS_ARG = "-skippedRows=";
 
 /**
  * Configuration variables set on Job context
@@ -88,6 +142,9 @@ public static final String STOP_ROW_CONF = BASE+".stopRow";
 public static final String START_TIME_CONF = BASE+".startTime";
 public static final String STOP_TIME_CONF = BASE+".stopTime";
 public static final String TIME_STAMP_CONF = BASE+".timeStamp";
+public static final String MAX_ROW_BYTES_CONF = BASE+".maxRowBytes";
+public static final String MAX_COLUMN_BYTES_CONF = BASE+".maxColumnBytes";
+public static final String SKIPPED_ROWS_CONF = BASE+".skippedRows";
 
 private String[] args = null;
 private String table = null;
@@ -98,6 +155,16 @@ private String stopRow = null;
 private Long startTime = null;
 private Long stopTime = null;
 private Long timeStamp = null;
+private Long writeBufferSize = null;
+private Integer mapThreads = null;
+private String bulkLoadDir = null;
+private ScanProfile scanProfile = null;
+private Integer caching = null;
+private Integer batch = null;
+private Boolean cacheBlocks = null;
+private Long maxRowBytes = null;
+private Long maxColumnBytes = null;
+private String skippedRowsDir = null;
 
 private StringBuffer argString = new StringBuffer();
 
@@ -109,8 +176,20 @@ public static String usage()
 {
   return "[ " + SOURCE_ARG + "<source name> | " + KEY_LIST_ARG + "<HDFS key list file> | " + TABLE_ARG
       + "<table name> | "+START_ROW_CONF+"<row key> | "+STOP_ROW_CONF+"<row key> "
-      + TIME_RANGE_ARG+"<begintime,endtime> | "+TIME_STAMP_ARG+"<time> "
-      + "]";
+      + TIME_RANGE_ARG+"<begintime,endtime> | "+TIME_STAMP_ARG+"<time> | "
+      + WRITE_BUFFER_ARG+"<bytes> | "+MAP_THREADS_ARG+"<threads> | "+BULK_LOAD_ARG+"<HDFS directory> | "
+      + MAX_ROW_BYTES_ARG+"<bytes> | "+MAX_COLUMN_BYTES_ARG+"<bytes> | "+SKIPPED_ROWS_ARG+"<HDFS directory> | "
+      + scanUsage() + " ]";
+}
+
+/**
+ * Return a string containing the 'usage' of the scan arguments, which jobs with positional arguments accept too
+ * @return
+ */
+public static String scanUsage()
+{
+  return SCAN_PROFILE_ARG+"io|cpu|huge-rows|auto | "+CACHING_ARG+"<rows> | "+BATCH_ARG+"<columns> | "
+      + CACHE_BLOCKS_ARG+"true|false";
 }
 
 /**
@@ -125,6 +204,16 @@ public static String usage()
  *          <li>-stopRow='row key' - optional argument to specify to stop processing at the given row key
  *          <li>-timeRanage='startTime,endTime' - optional argument to process only columns with time stamps within given time range
  *          <li>-timeStamp='time' - optional argument to process only columns with given time stamp
+ *          <li>-writeBuffer='bytes' - optional argument to buffer mapper puts and write them from a background thread
+ *          <li>-mapThreads='threads' - optional argument to run map on several threads per task, if the mapper is thread safe
+ *          <li>-bulkLoad='hdfs directory' - optional argument to write HFiles to the directory and bulk load them after the job
+ *          <li>-scanProfile='io|cpu|huge-rows|auto' - optional argument to tune the scan for the kind of job
+ *          <li>-caching='rows' - optional argument to set the rows fetched per scanner call
+ *          <li>-batch='columns' - optional argument to fetch rows in batches of at most the given columns
+ *          <li>-cacheBlocks='true|false' - optional argument to cache the blocks read by the scan [default is false]
+ *          <li>-maxRowBytes='bytes' - optional argument to skip larger rows in the region servers
+ *          <li>-maxColumnBytes='bytes' - optional argument to skip rows with a larger column value in the region servers
+ *          <li>-skippedRows='hdfs directory' - optional argument to list the keys of the skipped rows in the directory
  *          </ol>
  */
 public JobConfig(String[] args)
@@ -181,6 +270,66 @@ public JobConfig(String[] args)
 				timeStamp = getTimeArg(value);
 			}
 		}
+		else if (arg.startsWith(WRITE_BUFFER_ARG)) {
+			String value = arg.substring(WRITE_BUFFER_ARG.length());
+			if (!value.startsWith("$") && value.length() > 0) {
+				writeBufferSize = Long.parseLong(value);
+			}
+		}
+		else if (arg.startsWith(MAP_THREADS_ARG)) {
+			String value = arg.substring(MAP_THREADS_ARG.length());
+			if (!value.startsWith("$") && value.length() > 0) {
+				mapThreads = Integer.parseInt(value);
+			}
+		}
+		else if (arg.startsWith(BULK_LOAD_ARG)) {
+			String value = arg.substring(BULK_LOAD_ARG.length());
+			if (!value.startsWith("$") && value.length() > 0) {
+				bulkLoadDir = value;
+			}
+		}
+		else if (arg.startsWith(SCAN_PROFILE_ARG)) {
+			String value = arg.substring(SCAN_PROFILE_ARG.length());
+			if (!value.startsWith("$") && value.length() > 0) {
+				scanProfile = ScanProfile.forName(value);
+			}
+		}
+		else if (arg.startsWith(CACHING_ARG)) {
+			String value = arg.substring(CACHING_ARG.length());
+			if (!value.startsWith("$") && value.length() > 0) {
+				caching = Integer.parseInt(value);
+			}
+		}
+		else if (arg.startsWith(BATCH_ARG)) {
+			String value = arg.substring(BATCH_ARG.length());
+			if (!value.startsWith("$") && value.length() > 0) {
+				batch = Integer.parseInt(value);
+			}
+		}
+		else if (arg.startsWith(CACHE_BLOCKS_ARG)) {
+			String value = arg.substring(CACHE_BLOCKS_ARG.length());
+			if (!value.startsWith("$") && value.length() > 0) {
+				cacheBlocks = Boolean.valueOf(value);
+			}
+		}
+		else if (arg.startsWith(MAX_ROW_BYTES_ARG)) {
+			String value = arg.substring(MAX_ROW_BYTES_ARG.length());
+			if (!value.startsWith("$") && value.length() > 0) {
+				maxRowBytes = Long.parseLong(value);
+			}
+		}
+		else if (arg.startsWith(MAX_COLUMN_BYTES_ARG)) {
+			String value = arg.substring(MAX_COLUMN_BYTES_ARG.length());
+			if (!value.startsWith("$") && value.length() > 0) {
+				maxColumnBytes = Long.parseLong(value);
+			}
+		}
+		else if (arg.startsWith(SKIPPED_ROWS_ARG)) {
+			String value = arg.substring(SKIPPED_ROWS_ARG.length());
+			if (!value.startsWith("$") && value.length() > 0) {
+				skippedRowsDir = value;
+			}
+		}
 	}
 	if (table == null) {
 		table = source;
@@ -233,6 +382,27 @@ public void initTableMapperNoReducer(Log LOG, Job job, Scan scan, Class<? extend
 		if (scan!=null)	
 			scan.setTimeStamp(timeStamp.longValue());
 	}
+	if (writeBufferSize != null)
+	{
+		LOG.info("Buffering mapper writes with write buffer size("+writeBufferSize+")");
+		job.getConfiguration().setBoolean(DocSchema.BUFFERED_WRITES_CONF, true);
+		job.getConfiguration().setLong(DocSchema.WRITE_BUFFER_SIZE_CONF, writeBufferSize.longValue());
+	}
+	if (mapThreads != null && mapThreads.intValue() > 1)
+	{
+		LOG.info("Running map on threads("+mapThreads+") per task");
+		job.getConfiguration().setInt(DocMapper.MAP_THREADS_CONF, mapThreads.intValue());
+	}
+	if (maxRowBytes != null || maxColumnBytes != null)
+	{
+		LOG.info("Skipping rows over bytes("+maxRowBytes+") or with a column over bytes("+maxColumnBytes
+				+") in the region servers, listing their keys in ("+skippedRowsDir+")");
+		job.getConfiguration().setLong(MAX_ROW_BYTES_CONF, maxRowBytes == null ? 0 : maxRowBytes.longValue());
+		job.getConfiguration().setLong(MAX_COLUMN_BYTES_CONF, maxColumnBytes == null ? 0 : maxColumnBytes.longValue());
+		if (skippedRowsDir != null) {
+			job.getConfiguration().set(SKIPPED_ROWS_CONF, skippedRowsDir);
+		}
+	}
 	if (startTime != null && stopTime!=null) 
 	{
 		LOG.info("Setting startTime("+startTime+") stopTime("+stopTime+")");
@@ -244,17 +414,25 @@ public void initTableMapperNoReducer(Log LOG, Job job, Scan scan, Class<? extend
 	
 	if (keyListFile == null) {
 		LOG.info("Setting scan for source name(" + source + ") table(" + table + ")");
-		initTableMapperForSource(job, scan, mapClass);
+		initTableMapperForSource(LOG, job, scan, mapClass);
 	}
 	else {
 		LOG.info("Operating solely on keys in HDFS file (" + keyListFile + ") source(" + source + ") table(" + table + ")");
 		initTableMapperForKeyList(job, mapClass);
 	}
 
+	// whole families by name, specific columns as family:qualifier
 	StringBuffer families = new StringBuffer();
-	if (scan.getFamilies() != null) {
-		for (byte[] family : scan.getFamilies()) {
-			families.append(Bytes.toString(family) + " ");
+	if (scan.getFamilyMap() != null) {
+		for (Map.Entry<byte[], NavigableSet<byte[]>> entry : scan.getFamilyMap().entrySet()) {
+			String family = Bytes.toString(entry.getKey());
+			if (entry.getValue() == null || entry.getValue().isEmpty()) {
+				families.append(family + " ");
+				continue;
+			}
+			for (byte[] qual : entry.getValue()) {
+				families.append(family + ":" + Bytes.toString(qual) + " ");
+			}
 		}
 	}
 	StringBuffer other = new StringBuffer();
@@ -281,32 +459,259 @@ public void initTableMapperNoReducer(Log LOG, Job job, Scan scan, Class<? extend
 	LOG.info("Setting scan retrieve families/quals to (" + other.toString() + ")");
 	job.getConfiguration().set(KeyListInputFormat.SCAN_FAMILIES, familiesValue);
 
+	if (bulkLoadDir != null) {
+		BulkLoad.configure(job, getTableName(), new Path(bulkLoadDir));
+		return;
+	}
 	TableMapReduceUtil.initTableReducerJob(getTableName(), IdentityTableReducer.class, job);
 	job.setNumReduceTasks(0);
 }
 
+/**
+ * Bulk load the HFiles written by a job set up with a bulk load directory, once it has succeeded.  Does nothing
+ * otherwise.
+ *
+ * @param LOG
+ * @param job
+ * @throws IOException
+ */
+public void completeBulkLoad(Log LOG, Job job)
+    throws IOException
+{
+	if (bulkLoadDir == null) return;
+	if (!job.isSuccessful()) {
+		LOG.warn("Job failed, not bulk loading ("+bulkLoadDir+")");
+		return;
+	}
+	BulkLoad.load(job.getConfiguration(), getTableName());
+}
+
+/**
+ * Remove the files the key list input format wrote to HDFS for the job (the sorted keys of a streaming job).  Call
+ * once the job has finished, whether or not it succeeded.
+ *
+ * @param job
+ * @throws IOException
+ */
+public void cleanupInput(Job job)
+    throws IOException
+{
+	if (keyListFile == null) return;
+	KeyListInputFormat.deleteSortedKeys(job);
+}
+
 /**
  * Method to initialize a mapper job which will operate on rows in 'doc' table for those matching the given source name,
  * or if source is null, all rows.
  *
+ * @param LOG
  * @param job
  * @param scan
  * @param mapClass
  * @throws IOException
  */
-private void initTableMapperForSource(Job job, Scan scan, Class<? extends DocMapper<?>> mapClass)
+private void initTableMapperForSource(Log LOG, Job job, Scan scan, Class<? extends DocMapper<?>> mapClass)
     throws IOException
 {
 	if (source != null) {
 		scan.addColumn(DocSchema.srcCF.getBytes(), DocSchema.srcName.getBytes());
-		scan.setFilter(new SingleColumnValueFilter(DocSchema.srcCF.getBytes(), DocSchema.srcName.getBytes(),
+		addFilter(scan, new SingleColumnValueFilter(DocSchema.srcCF.getBytes(), DocSchema.srcName.getBytes(),
 				CompareOp.EQUAL, source.getBytes()));
 	}
 
+	configureScan(LOG, scan, getTableName(), null);
+	if (scan.getBatch() > 0) {
+		// a batch splits a row over several Results, and doc mappers (e.g. the chain, and its incremental check)
+		// take each Result as the whole row
+		throw new IllegalArgumentException("doc mapper jobs need whole rows, a scan batch("+scan.getBatch()
+				+") is only supported by the query jobs");
+	}
+	if (mapThreads != null && mapThreads.intValue() > 1 && scan.getCaching() < mapThreads.intValue() * 2) {
+		// fetch enough rows per scanner call to keep the map threads busy
+		scan.setCaching(mapThreads.intValue() * 2);
+	}
+	OversizedRowFilter rowFilter = getOversizedRowFilter(job.getConfiguration());
+	if (rowFilter != null) {
+		addFilter(scan, rowFilter);
+	}
+
 	// set up mapper jobs
 	TableMapReduceUtil.initTableMapperJob(getTableName(), scan, mapClass, ImmutableBytesWritable.class, Put.class, job);
 }
 
+/**
+ * Add columns to the scan, each either 'family:qualifier' or a whole family as 'family:' (or just 'family'). A column
+ * whose family is already requested whole is not added, since that would narrow the family to the one column.
+ *
+ * @param scan
+ * @param columns
+ */
+public static void addColumns(Scan scan, Iterable<String> columns)
+{
+	for (String column : columns) {
+		int colon = column.indexOf(':');
+		byte[] family = Bytes.toBytes(colon < 0 ? column : column.substring(0, colon));
+		if (colon < 0 || colon == column.length() - 1) {
+			scan.addFamily(family);
+		}
+		else if (!scan.getFamilyMap().containsKey(family) || scan.getFamilyMap().get(family) != null) {
+			scan.addColumn(family, Bytes.toBytes(column.substring(colon + 1)));
+		}
+	}
+}
+
+/**
+ * Apply the scan profile, and the caching and batch arguments, which override it, to the scan.  Blocks read by the
+ * scan are not cached unless -cacheBlocks=true is given.
+ *
+ * @param LOG
+ * @param scan
+ * @param tableName
+ *          table to sample for the auto profile
+ * @param defaultProfile
+ *          profile used when none is given, or null to leave caching and batch alone
+ * @throws IOException
+ */
+public void configureScan(Log LOG, Scan scan, String tableName, ScanProfile defaultProfile)
+    throws IOException
+{
+	ScanProfile profile = scanProfile != null ? scanProfile : defaultProfile;
+	if (profile == ScanProfile.AUTO) {
+		if (caching == null) {
+			scan.setCaching(sampleCaching(LOG, scan, tableName));
+		}
+	}
+	else if (profile != null) {
+		scan.setCaching(profile.getCaching());
+		if (profile.getBatch() > 0) {
+			scan.setBatch(profile.getBatch());
+		}
+	}
+	if (caching != null) {
+		scan.setCaching(caching.intValue());
+	}
+	if (batch != null) {
+		scan.setBatch(batch.intValue());
+	}
+	scan.setCacheBlocks(cacheBlocks != null && cacheBlocks.booleanValue());
+	LOG.info("Scan profile("+(profile == null ? "none" : profile.getName())+") caching("+scan.getCaching()+") batch("
+			+scan.getBatch()+") cacheBlocks("+scan.getCacheBlocks()+")");
+}
+
+private static int sampleCaching(Log LOG, Scan scan, String tableName)
+{
+	try {
+		DocSchema table = new DocSchema(tableName);
+		try {
+			long bytesPerRow = sampleBytesPerRow(table, new Scan(scan), ScanProfile.AUTO_SAMPLE_ROWS);
+			int rows = ScanProfile.autoCaching(bytesPerRow);
+			LOG.info("Sampled bytes per row("+bytesPerRow+") from the start of the scan, caching("+rows+")");
+			return rows;
+		}
+		finally {
+			table.close();
+		}
+	}
+	catch (IOException e) {
+		LOG.warn("Unable to sample row sizes, using the io profile caching: "+e.getMessage());
+		return ScanProfile.IO.getCaching();
+	}
+}
+
+/**
+ * Average size of the first rows returned by the scan.  The rows are fetched a few per scanner call, and a row over
+ * {@link ScanProfile#AUTO_TARGET_BYTES} is cut short by an {@link OversizedRowFilter} in the region server and counted
+ * at the bytes seen, so sampling huge rows costs neither the client nor the server more than the target per row.
+ *
+ * @param table
+ * @param scan
+ *          scan to sample, its caching, batch and filter are changed
+ * @param rows
+ *          number of rows to sample
+ * @return average bytes per row, or 0 if the scan returns no rows
+ * @throws IOException
+ */
+public static long sampleBytesPerRow(DocSchema table, Scan scan, int rows)
+    throws IOException
+{
+	scan.setCaching(Math.min(rows, ScanProfile.AUTO_SAMPLE_CACHING));
+	if (scan.getBatch() > 0) {
+		// the filter needs whole rows
+		scan.setBatch(-1);
+	}
+	addFilter(scan, new OversizedRowFilter(ScanProfile.AUTO_TARGET_BYTES, 0));
+	ResultScanner scanner = table.getScanner(scan);
+	try {
+		long bytes = 0;
+		int sampled = 0;
+		for (Result row : scanner) {
+			if (OversizedRowFilter.isOversized(row)) {
+				bytes += OversizedRowFilter.getBytesSeen(row);
+			}
+			else {
+				for (KeyValue kv : row.raw()) {
+					bytes += kv.getLength();
+				}
+			}
+			if (++sampled >= rows) break;
+		}
+		return sampled == 0 ? 0 : bytes / sampled;
+	}
+	finally {
+		scanner.close();
+	}
+}
+
+/**
+ * Remove the scan arguments, which {@link #configureScan(Log, Scan, String, ScanProfile)} applies, from the arguments
+ * of a job with positional arguments
+ *
+ * @param args
+ * @return the other arguments
+ */
+public static String[] withoutScanArgs(String[] args)
+{
+	List<String> rest = new ArrayList<String>();
+	for (String arg : args) {
+		if (!arg.startsWith(SCAN_PROFILE_ARG) && !arg.startsWith(CACHING_ARG) && !arg.startsWith(BATCH_ARG)
+				&& !arg.startsWith(CACHE_BLOCKS_ARG)) {
+			rest.add(arg);
+		}
+	}
+	return rest.toArray(new String[rest.size()]);
+}
+
+/**
+ * Set the filter of the scan, or if it already has one, require rows to pass both
+ *
+ * @param scan
+ * @param filter
+ */
+public static void addFilter(Scan scan, Filter filter)
+{
+	if (scan.getFilter() == null) {
+		scan.setFilter(filter);
+		return;
+	}
+	FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL);
+	filters.addFilter(scan.getFilter());
+	filters.addFilter(filter);
+	scan.setFilter(filters);
+}
+
+/**
+ * @param conf
+ * @return the filter for the row size limits set by {@link #MAX_ROW_BYTES_ARG} and {@link #MAX_COLUMN_BYTES_ARG},
+ *         or null if there are none
+ */
+public static OversizedRowFilter getOversizedRowFilter(Configuration conf)
+{
+	long maxRow = conf.getLong(MAX_ROW_BYTES_CONF, 0);
+	long maxColumn = conf.getLong(MAX_COLUMN_BYTES_CONF, 0);
+	if (maxRow <= 0 && maxColumn <= 0) return null;
+	return new OversizedRowFilter(maxRow, maxColumn);
+}
+
 /**
  * Method to initialize a mapper job which will operate only on rows in 'doc' table for keys listed in an HDFS file
  *
@@ -396,6 +801,24 @@ public Long getTimeStamp()
 	return timeStamp;
 }
 
+/**
+ * Return the buffered write size set via command line arguments, or null if mappers write directly
+ * @return
+ */
+public Long getWriteBufferSize()
+{
+	return writeBufferSize;
+}
+
+/**
+ * Return the number of map threads per task set via command line arguments, or null if not set
+ * @return
+ */
+public Integer getMapThreads()
+{
+	return mapThreads;
+}
+
 /**
  * Return the command-line arguments
  */
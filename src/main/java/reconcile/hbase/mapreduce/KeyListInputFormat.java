@@ -13,26 +13,40 @@
 package reconcile.hbase.mapreduce;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HConnection;
 import org.apache.hadoop.hbase.client.HConnectionManager;
+import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.filter.Filter;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.io.Writable;
@@ -40,6 +54,7 @@ import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 
 import reconcile.hbase.table.DocSchema;
@@ -49,6 +64,9 @@ public class KeyListInputFormat extends FileInputFormat<ImmutableBytesWritable,
 static final Log LOG = LogFactory.getLog(KeyListInputFormat.class);
 
 static final String TOP = "reconcile.hbase.mapreduce.KeyListInputFormat";
+/**
+ * White space separated families to fetch for each key, or specific columns written as 'family:qualifier'
+ */
 static final public String SCAN_FAMILIES = TOP+".scanFamilies";
 static final public String LOG_ON = TOP+".logOn";
 static final String SPLIT_SIZE=TOP+".keyListSplitSize";
@@ -57,6 +75,52 @@ static final String MAX_SPLITS=TOP+".maxSplits";
 static final String DEFAULT_SPLIT_SIZE = "200";
 static final String DEFAULT_MAX_SPLITS = "100";
 
+/**
+ * Number of keys fetched from HBase with each multi-get by the record reader
+ */
+static final public String BATCH_SIZE = TOP+".batchSize";
+/**
+ * Whether the record reader fetches the next batch of keys in the background [default true]
+ */
+static final public String READ_AHEAD = TOP+".readAhead";
+
+static final int DEFAULT_BATCH_SIZE = 100;
+
+static final String COUNTER_GROUP = "KeyListInputFormat";
+
+/**
+ * Whether splits are planned along region boundaries so each split is served by a single region server [default true]
+ */
+static final public String REGION_AWARE = TOP+".regionAware";
+/**
+ * Number of rows fetched from each region to estimate row size when balancing region aware splits [default 1, 0 to
+ * weigh every key equally]
+ */
+static final public String SAMPLE_ROWS_PER_REGION = TOP+".sampleRowsPerRegion";
+
+static final int DEFAULT_SAMPLE_ROWS_PER_REGION = 1;
+
+/**
+ * Plan splits without holding the key list in client memory: keys are externally sorted into a single HDFS file and
+ * splits refer to byte ranges of that file [default false]
+ */
+static final public String STREAMING = TOP+".streaming";
+/**
+ * In streaming mode, each key list file is already sorted, so they are merged without sorting [default false]
+ */
+static final public String PRESORTED = TOP+".presorted";
+/**
+ * In streaming mode, the number of keys sorted in memory before spilling a run to local disk
+ */
+static final public String SORT_BUFFER_KEYS = TOP+".sortBufferKeys";
+/**
+ * In streaming mode, the HDFS directory under which the sorted key file is written, in a directory per job
+ * [default ~/.KeyListInputFormat]. The driver removes the job's directory with {@link #deleteSortedKeys(JobContext)}.
+ */
+static final public String SORTED_KEY_DIR = TOP+".sortedKeyDir";
+
+static final int DEFAULT_SORT_BUFFER_KEYS = 1000000;
+
 /**
  * KeyListSplit - Split portion of a KeyListInputFormat
  *
@@ -67,16 +131,76 @@ public static class KeyListSplit extends InputSplit implements Writable
 	private List<String> keys = new ArrayList<String>();
 	private String[] hosts;
 	private String tableName;
+	private long length;
+	// set when the keys are a byte range of a sorted key file rather than listed in the split
+	private String keyFile = "";
+	private long keyFileStart;
+	private long keyFileLength;
 
 	public KeyListSplit()
 	{}
 
+	/**
+	 * Split over the keys in the given byte range of a sorted key file. The keys are read by
+	 * {@link #loadKeys(Configuration)}.
+	 */
+	public KeyListSplit(String tableName, Path keyFile, long start, long byteLength, long numKeys, String[] hosts)
+	{
+		this.tableName = tableName;
+		this.keyFile = keyFile.toString();
+		this.keyFileStart = start;
+		this.keyFileLength = byteLength;
+		this.hosts = hosts;
+		this.length = numKeys;
+		LOG.info("KeyListSplit: num keys("+numKeys+") table("+tableName+") file("+keyFile+") start("+start+") bytes("+byteLength+")");
+	}
+
+	/**
+	 * Read the keys of a split created over a key file range. Does nothing for splits created with a list of keys.
+	 *
+	 * @param conf
+	 * @throws IOException
+	 */
+	public void loadKeys(Configuration conf)
+		throws IOException
+	{
+		if (keyFile.length() == 0 || !keys.isEmpty()) return;
+
+		Path path = new Path(keyFile);
+		// a split covers at most split size keys, so its byte range is read in one positioned read
+		byte[] range = new byte[(int)keyFileLength];
+		FSDataInputStream is = path.getFileSystem(conf).open(path);
+		try {
+			is.readFully(keyFileStart, range);
+		}
+		finally {
+			IOUtils.closeQuietly(is);
+		}
+		for (String line : new String(range, "UTF-8").split("\n")) {
+			String key = ExternalKeySorter.toKey(line);
+			if (key != null) {
+				keys.add(key);
+			}
+		}
+		LOG.info("KeyListSplit: loaded ("+keys.size()+") keys from file("+keyFile+")");
+	}
+
 	public KeyListSplit(String tableName, List<String> keys, String[] hosts)
+	{
+		this(tableName, keys, hosts, keys.size());
+	}
+
+	/**
+	 * @param length
+	 *          estimated size of the split, used by the framework to schedule the largest splits first
+	 */
+	public KeyListSplit(String tableName, List<String> keys, String[] hosts, long length)
 	{
 		this.tableName = tableName;
 		this.keys.addAll(keys);
 		this.hosts = hosts;
-		LOG.info("KeyListSplit: num keys("+this.keys.size()+") table("+tableName+") num hosts("+hosts.length+")");
+		this.length = length;
+		LOG.info("KeyListSplit: num keys("+this.keys.size()+") table("+tableName+") num hosts("+hosts.length+") length("+length+")");
 	}
 
 	public List<String> getKeys() {
@@ -100,6 +224,10 @@ public static class KeyListSplit extends InputSplit implements Writable
 		for (String host : hosts) {
 			out.writeUTF(host);
 		}
+		out.writeLong(length);
+		out.writeUTF(keyFile);
+		out.writeLong(keyFileStart);
+		out.writeLong(keyFileLength);
 	}
 
 	@Override
@@ -115,6 +243,10 @@ public static class KeyListSplit extends InputSplit implements Writable
 		for (int i=0; i<nitems; ++i) {
 			hosts[i] = in.readUTF();
 		}
+		length = in.readLong();
+		keyFile = in.readUTF();
+		keyFileStart = in.readLong();
+		keyFileLength = in.readLong();
 		LOG.info("KeyListSplit: read num keys("+keys.size()+") num hosts("+hosts.length+") table("+tableName+")");
 	}
 
@@ -128,14 +260,18 @@ public static class KeyListSplit extends InputSplit implements Writable
   public long getLength()
   	throws IOException, InterruptedException
   {
-	  return keys.size();
+	  return length;
   }
 
 }
 
 /**
  * KeyRowReader - Works off of a KeyListSplit, and loops over keys in that split
- * retrieving the records for pre-selected columns from HBase
+ * retrieving the records for pre-selected columns from HBase.
+ * <p>
+ * Keys are fetched in batches of {@link #BATCH_SIZE} with a single multi-get. While the mapper works through
+ * the current batch, the next batch is fetched on a background thread (unless {@link #READ_AHEAD} is false).
+ * Keys with no row in the table are skipped and counted.
  *
  * @author cottom1
  *
@@ -148,15 +284,33 @@ private static class KeyRowReader extends RecordReader<ImmutableBytesWritable, R
     private DocSchema table;
     private boolean logOn = false;
     private TreeSet<String> scanFamilies = new TreeSet<String>();
+    private Filter rowFilter;
     private KeyListSplit split;
     private int ndx;
 
+    private int batchSize;
+    private boolean readAhead;
+    private ExecutorService fetcher;
+    private Future<Result[]> nextBatch;
+    private int nextBatchStart;
+    private Result[] batch;
+    private int batchNdx;
+
+    private TaskAttemptContext context;
+    private long numBatches = 0;
+    private long batchMillis = 0;
+    private long maxBatchMillis = 0;
+    private long waitMillis = 0;
+    private long missingRows = 0;
+
 	@Override
 	public void initialize(InputSplit arg0, TaskAttemptContext arg1)
 		throws IOException, InterruptedException
 	{
 		ndx = 0;
 		split = (KeyListSplit) arg0;
+		context = arg1;
+		split.loadKeys(arg1.getConfiguration());
 		table = new DocSchema(split.tableName);
 
 		// Set the families retrieved by scan
@@ -167,11 +321,24 @@ private static class KeyRowReader extends RecordReader<ImmutableBytesWritable, R
 			}
 		}
 
+		// Skip oversized rows in the region servers, as the scan does
+		rowFilter = JobConfig.getOversizedRowFilter(arg1.getConfiguration());
+
 		// Enable / disable logging
 		value = arg1.getConfiguration().get(LOG_ON);
 		if (value!=null) {
 			logOn = Boolean.parseBoolean(value);
 		}
+
+		batchSize = Math.max(arg1.getConfiguration().getInt(BATCH_SIZE, DEFAULT_BATCH_SIZE), 1);
+		readAhead = arg1.getConfiguration().getBoolean(READ_AHEAD, true);
+		if (readAhead) {
+			fetcher = Executors.newSingleThreadExecutor();
+		}
+		batch = new Result[0];
+		batchNdx = 0;
+		nextBatchStart = 0;
+		requestNextBatch();
 	}
 
     @Override
@@ -193,38 +360,121 @@ private static class KeyRowReader extends RecordReader<ImmutableBytesWritable, R
     	result = null;
     	key = null;
 
-    	while ( (ndx<split.getKeys().size()) && result==null)
+    	while (result==null)
     	{
-    		String stringKey = split.getKeys().get(ndx);
-    		if (logOn) {
-    			LOG.info("Search for record with key:"+stringKey);
+    		if (batchNdx >= batch.length) {
+    			if (!takeNextBatch()) {
+    				break;
+    			}
+    			continue;
     		}
+    		String stringKey = split.getKeys().get(ndx);
+    		Result row = batch[batchNdx];
+    		++batchNdx;
+    		++ndx;
 
-    		byte[] byteKey = Bytes.toBytes(stringKey);
-    		key = new ImmutableBytesWritable(byteKey);
-    		Get get = new Get(byteKey);
-
-    		// Add scan families
-    		for (String family : scanFamilies) {
+    		if (row==null || row.isEmpty()) {
+    			++missingRows;
     			if (logOn) {
-    				LOG.info("... add get family("+family+")");
+    				LOG.info("Unable to find record:"+stringKey);
     			}
-    			get.addFamily(family.getBytes());
+    			continue;
+    		}
+    		if (logOn) {
+    			LOG.info("Loaded record:"+stringKey);
     		}
+    		key = new ImmutableBytesWritable(Bytes.toBytes(stringKey));
+    		result = row;
+    	}
+    	return result!=null;
+    }
 
-    		result = table.get(get);
+    /**
+     * Make the next batch current and start fetching the one after it
+     *
+     * @return false if there are no more keys
+     */
+    private boolean takeNextBatch()
+    	throws IOException
+    {
+    	if (nextBatch == null) return false;
+    	long start = System.currentTimeMillis();
+    	try {
+    		batch = nextBatch.get();
+    	}
+    	catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		throw new IOException("interrupted while fetching key batch");
+    	}
+    	catch (ExecutionException e) {
+    		if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+    		throw new IOException(e.getCause());
+    	}
+    	waitMillis += System.currentTimeMillis() - start;
+    	batchNdx = 0;
+    	requestNextBatch();
+    	return true;
+    }
+
+    private void requestNextBatch()
+    {
+    	if (nextBatchStart >= split.getKeys().size()) {
+    		nextBatch = null;
+    		return;
+    	}
+    	final int start = nextBatchStart;
+    	final int end = Math.min(start + batchSize, split.getKeys().size());
+    	nextBatchStart = end;
+
+    	Callable<Result[]> fetch = new Callable<Result[]>() {
+    		@Override
+    		public Result[] call() throws IOException
+    		{
+    			return fetch(split.getKeys().subList(start, end));
+    		}
+    	};
+    	if (readAhead) {
+    		nextBatch = fetcher.submit(fetch);
+    	}
+    	else {
+    		FutureTask<Result[]> task = new FutureTask<Result[]>(fetch);
+    		task.run();
+    		nextBatch = task;
+    	}
+    }
 
+    private Result[] fetch(List<String> keys)
+    	throws IOException
+    {
+    	List<Get> gets = new ArrayList<Get>(keys.size());
+    	for (String stringKey : keys) {
     		if (logOn) {
-    			if (result==null) {
-    				LOG.info("Unable to find record:"+stringKey);
-    			}
-    			else {
-    				LOG.info("Loaded record:"+stringKey);
-    			}
+    			LOG.info("Search for record with key:"+stringKey);
     		}
-    		++ndx;
+    		Get get = new Get(Bytes.toBytes(stringKey));
+
+    		// Add scan families and columns
+    		for (String column : scanFamilies) {
+    			addScanColumn(get, column);
+    		}
+    		if (rowFilter != null) {
+    			get.setFilter(rowFilter);
+    		}
+    		gets.add(get);
     	}
-    	return result!=null;
+
+    	long start = System.currentTimeMillis();
+    	Result[] results = table.get(gets);
+    	long elapsed = System.currentTimeMillis() - start;
+    	synchronized (this) {
+    		++numBatches;
+    		batchMillis += elapsed;
+    		maxBatchMillis = Math.max(maxBatchMillis, elapsed);
+    	}
+    	if (logOn) {
+    		LOG.info("Fetched batch of ("+keys.size()+") keys in ("+elapsed+")ms");
+    	}
+    	return results;
     }
 
     @Override
@@ -236,6 +486,31 @@ private static class KeyRowReader extends RecordReader<ImmutableBytesWritable, R
 
 	@Override
 	public void close() throws IOException {
+		if (fetcher != null) {
+			fetcher.shutdownNow();
+			fetcher = null;
+		}
+		reportStatistics();
+		if (table != null) {
+			// hand the HTable back to the shared pool
+			table.close();
+			table = null;
+		}
+	}
+
+	private synchronized void reportStatistics()
+	{
+		LOG.info("KeyRowReader: batches("+numBatches+") batch millis("+batchMillis+") max batch millis("+maxBatchMillis
+				+") mapper wait millis("+waitMillis+") missing rows("+missingRows+")");
+		// the record reader only gets a task context when the framework passes the mapper context through
+		if (context instanceof TaskInputOutputContext) {
+			TaskInputOutputContext<?, ?, ?, ?> counters = (TaskInputOutputContext<?, ?, ?, ?>) context;
+			counters.getCounter(COUNTER_GROUP, "batches").increment(numBatches);
+			counters.getCounter(COUNTER_GROUP, "batch fetch millis").increment(batchMillis);
+			counters.getCounter(COUNTER_GROUP, "max batch fetch millis").increment(maxBatchMillis);
+			counters.getCounter(COUNTER_GROUP, "wait for batch millis").increment(waitMillis);
+			counters.getCounter(COUNTER_GROUP, "missing rows").increment(missingRows);
+		}
 	}
 }
 
@@ -256,6 +531,23 @@ protected boolean isSplitable(JobContext context, Path filename)
 	return true;
 }
 
+/**
+ * Add one {@link #SCAN_FAMILIES} entry to the get: a whole family, or a single 'family:qualifier' column
+ *
+ * @param get
+ * @param column
+ */
+static void addScanColumn(Get get, String column)
+{
+	int colon = column.indexOf(':');
+	if (colon < 0 || colon == column.length() - 1) {
+		get.addFamily(Bytes.toBytes(colon < 0 ? column : column.substring(0, colon)));
+	}
+	else {
+		get.addColumn(Bytes.toBytes(column.substring(0, colon)), Bytes.toBytes(column.substring(colon + 1)));
+	}
+}
+
 
 public static String[] getLocations(HConnection connection, String tableName, List<String> keys) throws IOException
 {
@@ -293,6 +585,11 @@ public List<InputSplit> getSplits(JobContext context)
 
 	final int maxSplits = Integer.parseInt(context.getConfiguration().get(MAX_SPLITS, DEFAULT_MAX_SPLITS));
 
+	if (context.getConfiguration().getBoolean(STREAMING, false)) {
+		splits.addAll(getStreamingSplits(context, fs, tableName, splitSize, maxSplits));
+		return splits;
+	}
+
     Path[] files = getInputPaths(context);
 	for (Path file : files)
 	{
@@ -320,7 +617,11 @@ public List<InputSplit> getSplits(JobContext context)
 	ArrayList<String> keys = new ArrayList<String>();
 	keys.addAll(uniqueKeys);
 
-    if (keys.size() > 0)
+    if (keys.size() > 0 && context.getConfiguration().getBoolean(REGION_AWARE, true))
+    {
+    	splits.addAll(getRegionSplits(context, tableName, keys, splitSize, maxSplits));
+    }
+    else if (keys.size() > 0)
     {
     	HConnection conn = HConnectionManager.getConnection(context.getConfiguration());
 
@@ -344,6 +645,297 @@ public List<InputSplit> getSplits(JobContext context)
 	return splits;
 }
 
+/**
+ * Plan splits which never span region servers. Keys are walked in sorted order and a split is cut whenever the next
+ * key is served by a different region server, or when the split reaches its share of the estimated bytes of all keys.
+ * Row size is estimated per region by sampling (see {@link #SAMPLE_ROWS_PER_REGION}).
+ *
+ * @param context
+ * @param tableName
+ * @param keys
+ *          sorted unique keys
+ * @param splitSize
+ * @param maxSplits
+ * @return
+ * @throws IOException
+ */
+private List<KeyListSplit> getRegionSplits(JobContext context, String tableName, List<String> keys, int splitSize,
+		int maxSplits)
+	throws IOException
+{
+	HTable table = new HTable(context.getConfiguration(), tableName);
+	TableRegions regions = new TableRegions(table);
+
+	String families = context.getConfiguration().get(SCAN_FAMILIES, "");
+	int sampleRows = context.getConfiguration().getInt(SAMPLE_ROWS_PER_REGION, DEFAULT_SAMPLE_ROWS_PER_REGION);
+	regions.sample(sampleRows, keys, StringUtils.split(families));
+
+	// weigh each key by the estimated row size of its region
+	int[] keyRegions = new int[keys.size()];
+	long totalBytes = 0;
+	for (int i=0; i<keys.size(); ++i) {
+		keyRegions[i] = regions.getRegion(keys.get(i));
+		totalBytes += weight(regions, keyRegions[i]);
+	}
+
+	int numSplits = Math.min(Math.max((int)Math.ceil(keys.size()/(splitSize*1.0)), 1), maxSplits);
+	double targetBytes = totalBytes / (double) numSplits;
+	LOG.info("There are ("+keys.size()+") total keys in ("+regions.getNumRegions()+") regions. Estimated bytes("
+			+totalBytes+") Target split bytes("+Math.round(targetBytes)+")");
+
+	List<SplitRange> ranges = new ArrayList<SplitRange>();
+	int startNdx = 0;
+	long splitBytes = 0;
+	for (int i=0; i<keys.size(); ++i) {
+		if (i > startNdx) {
+			boolean newServer = !regions.getHost(keyRegions[i]).equals(regions.getHost(keyRegions[startNdx]));
+			if (newServer || splitBytes >= targetBytes) {
+				ranges.add(new SplitRange(startNdx, i, i - startNdx, splitBytes, regions.getHost(keyRegions[startNdx])));
+				startNdx = i;
+				splitBytes = 0;
+			}
+		}
+		splitBytes += weight(regions, keyRegions[i]);
+	}
+	ranges.add(new SplitRange(startNdx, keys.size(), keys.size() - startNdx, splitBytes,
+			regions.getHost(keyRegions[startNdx])));
+	table.close();
+
+	List<KeyListSplit> splits = new ArrayList<KeyListSplit>();
+	for (SplitRange range : capSplits(ranges, maxSplits)) {
+		splits.add(new KeyListSplit(tableName, keys.subList((int) range.start, (int) range.end),
+				new String[] { range.host }, range.weight));
+	}
+	LOG.info("Created ("+splits.size()+") region aware splits");
+	return splits;
+}
+
+/**
+ * A planned split: the range [start, end) of the sorted keys, or of the bytes of the sorted key file, with the number
+ * of keys in it, its weight and the host serving them
+ */
+static class SplitRange
+{
+	final long start;
+	final long end;
+	final long keys;
+	final long weight;
+	final String host;
+
+	SplitRange(long start, long end, long keys, long weight, String host)
+	{
+		this.start = start;
+		this.end = end;
+		this.keys = keys;
+		this.weight = weight;
+		this.host = host;
+	}
+}
+
+/**
+ * Cuts at region server boundaries can plan more splits than {@link #MAX_SPLITS}.  Merge adjacent ranges until there
+ * are no more than the maximum, lightest pair served by the same host first, then lightest pair of any hosts.  A
+ * merged range is placed on the host of its heavier part.
+ *
+ * @param ranges
+ *          adjacent ranges in key order
+ * @param maxSplits
+ * @return
+ */
+static List<SplitRange> capSplits(List<SplitRange> ranges, int maxSplits)
+{
+	maxSplits = Math.max(maxSplits, 1);
+	if (ranges.size() <= maxSplits) return ranges;
+	LOG.info("Merging ("+ranges.size()+") planned splits to maintain max splits of ("+maxSplits+")");
+
+	List<SplitRange> merged = new ArrayList<SplitRange>(ranges);
+	while (merged.size() > maxSplits) {
+		int best = -1;
+		for (int i=0; i<merged.size()-1; ++i) {
+			if (best < 0 || isLighterPair(merged, i, best)) {
+				best = i;
+			}
+		}
+		SplitRange a = merged.get(best);
+		SplitRange b = merged.remove(best + 1);
+		merged.set(best, new SplitRange(a.start, b.end, a.keys + b.keys, a.weight + b.weight,
+				a.weight >= b.weight ? a.host : b.host));
+	}
+	return merged;
+}
+
+private static boolean isLighterPair(List<SplitRange> ranges, int i, int j)
+{
+	boolean sameHostI = ranges.get(i).host.equals(ranges.get(i + 1).host);
+	boolean sameHostJ = ranges.get(j).host.equals(ranges.get(j + 1).host);
+	if (sameHostI != sameHostJ) return sameHostI;
+	return ranges.get(i).weight + ranges.get(i + 1).weight < ranges.get(j).weight + ranges.get(j + 1).weight;
+}
+
+/**
+ * Plan splits with client memory bounded regardless of the number of keys. The key list files are sorted externally
+ * (or merged, if {@link #PRESORTED}) into one HDFS file of unique keys, which is then read back to cut splits as byte
+ * ranges of that file. Splits are cut at the split size, and also, when {@link #REGION_AWARE}, wherever the next key
+ * is served by a different region server.
+ *
+ * @param context
+ * @param fs
+ * @param tableName
+ * @param splitSize
+ * @param maxSplits
+ * @return
+ * @throws IOException
+ */
+private List<KeyListSplit> getStreamingSplits(JobContext context, FileSystem fs, String tableName, int splitSize,
+		int maxSplits)
+	throws IOException
+{
+	Configuration conf = context.getConfiguration();
+	String jobId = context.getJobID() == null ? String.valueOf(System.currentTimeMillis()) : context.getJobID().toString();
+	Path sortedFile = new Path(getSortedKeyDir(conf, fs, jobId), "keys.txt");
+	LOG.info("Writing sorted unique keys to ("+sortedFile+")");
+
+	// pass 1: sort/merge the key lists into a single file
+	ExternalKeySorter.SortedKeys sortedKeys = null;
+	long numKeys = 0;
+	FSDataOutputStream os = fs.create(sortedFile, true);
+	BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
+	try {
+		sortedKeys = openSortedKeys(conf, fs, getInputPaths(context));
+		String key = null;
+		while ((key=sortedKeys.next())!=null) {
+			writer.write(key);
+			writer.write('\n');
+			++numKeys;
+		}
+	}
+	finally {
+		if (sortedKeys != null) {
+			sortedKeys.close();
+		}
+		IOUtils.closeQuietly(writer);
+	}
+	if (numKeys == 0) return new ArrayList<KeyListSplit>();
+
+	int numSplits = Math.max((int)Math.ceil(numKeys/(splitSize*1.0)), 1);
+	if (numSplits > maxSplits) {
+		splitSize = (int)Math.ceil(numKeys / (maxSplits*1.0));
+		LOG.info("Overriding split size with ("+splitSize+") to maintain max splits of ("+maxSplits+")");
+	}
+	LOG.info("There are ("+numKeys+") total keys. Split size("+splitSize+")");
+
+	// pass 2: cut the sorted file into byte ranges
+	boolean regionAware = conf.getBoolean(REGION_AWARE, true);
+	HTable table = null;
+	TableRegions regions = null;
+	List<SplitRange> ranges = new ArrayList<SplitRange>();
+	BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(sortedFile), "UTF-8"));
+	try {
+		if (regionAware) {
+			table = new HTable(conf, tableName);
+			regions = new TableRegions(table);
+		}
+		long offset = 0;
+		long splitStart = 0;
+		int splitKeys = 0;
+		String splitHost = null;
+		String line = null;
+		while ((line=reader.readLine())!=null) {
+			String host = regionAware ? regions.getHost(regions.getRegion(line)) : null;
+			if (splitKeys > 0 && (splitKeys >= splitSize || (regionAware && !host.equals(splitHost)))) {
+				ranges.add(new SplitRange(splitStart, offset, splitKeys, splitKeys, splitHost));
+				splitStart = offset;
+				splitKeys = 0;
+			}
+			if (splitKeys == 0) {
+				splitHost = host;
+			}
+			++splitKeys;
+			offset += line.getBytes("UTF-8").length + 1;
+		}
+		ranges.add(new SplitRange(splitStart, offset, splitKeys, splitKeys, splitHost));
+	}
+	finally {
+		IOUtils.closeQuietly(reader);
+		if (table != null) {
+			table.close();
+		}
+	}
+
+	// the split size already keeps cuts by size within the maximum, only server cuts can add more
+	if (regionAware) {
+		ranges = capSplits(ranges, maxSplits);
+	}
+	List<KeyListSplit> splits = new ArrayList<KeyListSplit>();
+	for (SplitRange range : ranges) {
+		splits.add(new KeyListSplit(tableName, sortedFile, range.start, range.end - range.start, range.keys,
+				range.host == null ? new String[0] : new String[] { range.host }));
+	}
+	LOG.info("Created ("+splits.size()+") streaming splits");
+	return splits;
+}
+
+/**
+ * Delete the sorted key file written for a streaming job's splits.  Call from the driver once the job has finished;
+ * the tasks read their keys from the file until then.
+ *
+ * @param job
+ * @throws IOException
+ */
+public static void deleteSortedKeys(JobContext job)
+	throws IOException
+{
+	Configuration conf = job.getConfiguration();
+	if (!conf.getBoolean(STREAMING, false) || job.getJobID() == null) return;
+	FileSystem fs = FileSystem.get(conf);
+	Path dir = getSortedKeyDir(conf, fs, job.getJobID().toString());
+	if (fs.exists(dir)) {
+		LOG.info("Deleting sorted keys ("+dir+")");
+		fs.delete(dir, true);
+	}
+}
+
+private ExternalKeySorter.SortedKeys openSortedKeys(Configuration conf, FileSystem fs, Path[] files)
+	throws IOException
+{
+	List<BufferedReader> readers = new ArrayList<BufferedReader>();
+	if (conf.getBoolean(PRESORTED, false)) {
+		for (Path file : files) {
+			if (fs.isDirectory(file) || !fs.exists(file)) throw new IOException("Not a valid key list file: "+file.toString());
+			readers.add(new BufferedReader(new InputStreamReader(fs.open(file), "UTF-8")));
+		}
+		return ExternalKeySorter.merge(readers);
+	}
+
+	ExternalKeySorter sorter = new ExternalKeySorter(conf.getInt(SORT_BUFFER_KEYS, DEFAULT_SORT_BUFFER_KEYS),
+			new File(System.getProperty("java.io.tmpdir")));
+	for (Path file : files) {
+		if (fs.isDirectory(file) || !fs.exists(file)) throw new IOException("Not a valid key list file: "+file.toString());
+		BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(file), "UTF-8"));
+		try {
+			sorter.addAll(reader);
+		}
+		finally {
+			IOUtils.closeQuietly(reader);
+		}
+	}
+	LOG.info("Sorted key lists into ("+sorter.getNumRuns()+") runs");
+	return sorter.sortedKeys();
+}
+
+private static Path getSortedKeyDir(Configuration conf, FileSystem fs, String jobId)
+{
+	String dir = conf.get(SORTED_KEY_DIR);
+	Path parent = dir != null ? new Path(dir) : new Path(fs.getHomeDirectory(), ".KeyListInputFormat");
+	return new Path(parent, jobId);
+}
+
+private static long weight(TableRegions regions, int region)
+{
+	// unsampled keys count as a single byte so split sizes fall back to key counts
+	return Math.max(regions.getRowBytes(region), 1);
+}
+
 private KeyListSplit createSplit(HConnection connection, String tableName, List<String> keys, int startNdx, int endNdx)
 	throws IOException
 {
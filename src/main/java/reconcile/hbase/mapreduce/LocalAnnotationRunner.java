@@ -0,0 +1,480 @@
+package reconcile.hbase.mapreduce;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.CounterGroup;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+
+import reconcile.hbase.mapreduce.ChainableAnnotationJob.AnnotateMapper;
+import reconcile.hbase.table.DocSchema;
+
+/**
+ * Runs the mapper of a {@link ChainableAnnotationJob} (or of {@link ChainAnnotation}) in this JVM, for key lists and
+ * row ranges small enough that starting a map/reduce job would take longer than the work itself. It takes the same
+ * arguments as the job.
+ * <p>
+ * Rows come from a scanner on the table, or from the -keyList= file, and are mapped on a pool of threads, one per
+ * processor by default: a thread safe mapper runs map from all of them (see {@link DocMapper#MAP_THREADS_CONF}),
+ * otherwise each thread gets its own mapper. Puts written to the context go to the table, as with a table output,
+ * and the counters of all the mappers are logged at the end.
+ * <p>
+ * Usage: LocalAnnotationRunner &lt;ChainableAnnotationJob or ChainAnnotation class&gt; [job arguments]
+ * [-localThreads=&lt;threads&gt;], or pass -local to the job itself.
+ */
+public class LocalAnnotationRunner {
+
+private static final Log LOG = LogFactory.getLog(LocalAnnotationRunner.class);
+
+/**
+ * Job argument to run it with this runner instead of as a map/reduce job
+ */
+public static final String LOCAL_ARG = "-local";
+
+/**
+ * Argument for the number of threads [default is the number of processors]
+ */
+public static final String THREADS_ARG = "-localThreads=";
+
+/**
+ * Number of keys of a key list fetched with one call
+ */
+private static final int KEY_BATCH = 100;
+
+// marks the end of the rows
+private static final Result END = new Result();
+
+public static void main(String[] args)
+{
+  if (args.length < 1) {
+    System.out.println("usage: LocalAnnotationRunner <ChainableAnnotationJob or ChainAnnotation class> "
+        + "[job arguments] [" + THREADS_ARG + "<threads>] " + JobConfig.usage());
+    return;
+  }
+  try {
+    Class<?> jobClass = Class.forName(args[0]);
+    String[] jobArgs = Arrays.copyOfRange(args, 1, args.length);
+    if (ChainAnnotation.class.isAssignableFrom(jobClass)) {
+      new LocalAnnotationRunner().run((ChainAnnotation) jobClass.newInstance(), jobArgs);
+    }
+    else {
+      new LocalAnnotationRunner().run((ChainableAnnotationJob) jobClass.newInstance(), jobArgs);
+    }
+  }
+  catch (Exception e) {
+    e.printStackTrace();
+  }
+}
+
+/**
+ * Initialize the job from the arguments and run its mapper over the rows they select
+ *
+ * @param annotationJob
+ * @param args
+ * @return the counters of the mappers
+ * @throws IOException
+ * @throws InterruptedException
+ */
+public Counters run(ChainableAnnotationJob annotationJob, String[] args)
+    throws IOException, InterruptedException
+{
+  JobConfig jobConfig = new JobConfig(args);
+  Job job = new Job(HBaseConfiguration.create(), annotationJob.getClass().getSimpleName());
+  Scan scan = new Scan();
+  annotationJob.init(jobConfig, job, scan);
+  Counters counters = run(jobConfig, job, scan, annotationJob.getMapperClass());
+  annotationJob.finish();
+  return counters;
+}
+
+/**
+ * Initialize the chain from the arguments and run it over the rows they select
+ *
+ * @param chain
+ * @param args
+ * @return the counters of the mappers
+ * @throws IOException
+ * @throws InterruptedException
+ */
+public Counters run(ChainAnnotation chain, String[] args)
+    throws IOException, InterruptedException
+{
+  JobConfig jobConfig = new JobConfig(args);
+  Job job = new Job(HBaseConfiguration.create(), chain.getClass().getSimpleName());
+  Scan scan = new Scan();
+  chain.init(jobConfig, job, scan);
+  return run(jobConfig, job, scan, ChainAnnotation.ChainMapper.class);
+}
+
+private Counters run(JobConfig jobConfig, Job job, Scan scan, Class<? extends AnnotateMapper> mapperClass)
+    throws IOException, InterruptedException
+{
+  if (jobConfig.getFirstArg(JobConfig.BULK_LOAD_ARG) != null)
+    throw new IllegalArgumentException("bulk load is not supported when running locally");
+
+  // sets up the scan and configuration exactly as for the map/reduce job
+  jobConfig.initTableMapperNoReducer(LOG, job, scan, mapperClass);
+  final Configuration conf = job.getConfiguration();
+
+  String threadsArg = jobConfig.getFirstArg(THREADS_ARG);
+  int threads = threadsArg == null ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(threadsArg);
+  List<AnnotateMapper> mappers = new ArrayList<AnnotateMapper>();
+  mappers.add(newMapper(mapperClass));
+  if (threads > 1 && mappers.get(0).isThreadSafe()) {
+    conf.setInt(DocMapper.MAP_THREADS_CONF, threads);
+  }
+  else {
+    conf.setInt(DocMapper.MAP_THREADS_CONF, 1);
+    while (mappers.size() < threads) {
+      mappers.add(newMapper(mapperClass));
+    }
+  }
+  LOG.info("Running (" + mapperClass.getName() + ") locally on threads(" + threads + ") with mappers("
+      + mappers.size() + ")");
+
+  final BlockingQueue<Result> queue = new ArrayBlockingQueue<Result>(Math.max(KEY_BATCH, threads * 2));
+  final DocSchema output = new DocSchema(jobConfig.getTableName());
+  DocSchema input = new DocSchema(jobConfig.getTableName());
+  ExecutorService executor = Executors.newFixedThreadPool(mappers.size(), new ThreadFactory() {
+
+    private int count = 0;
+
+    public synchronized Thread newThread(Runnable r)
+    {
+      Thread thread = new Thread(r, "local mapper " + count++);
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+  List<Future<Counters>> results = new ArrayList<Future<Counters>>();
+  Counters counters = new Counters();
+  long start = System.currentTimeMillis();
+  long rows = 0;
+  try {
+    try {
+      for (int i = 0; i < mappers.size(); i++) {
+        final AnnotateMapper mapper = mappers.get(i);
+        final TaskAttemptID id = new TaskAttemptID("local", 0, true, i, 0);
+        results.add(executor.submit(new Callable<Counters>() {
+
+          public Counters call()
+              throws Exception
+          {
+            return runMapper(mapper, conf, id, queue, output);
+          }
+        }));
+      }
+
+      rows = jobConfig.getKeyListFile() == null ? readScan(input, scan, queue, results) : readKeys(input, conf,
+          new Path(jobConfig.getKeyListFile()), queue, results);
+    }
+    finally {
+      while (!queue.offer(END, 1, TimeUnit.SECONDS) && !allDone(results)) {
+        // a full queue, wait for the mappers to take rows unless they have all stopped
+      }
+      input.close();
+    }
+
+    for (Future<Counters> result : results) {
+      counters.incrAllCounters(result.get());
+    }
+    output.flushCommits();
+  }
+  catch (ExecutionException e) {
+    Throwable t = e.getCause();
+    if (t instanceof IOException) throw (IOException) t;
+    if (t instanceof RuntimeException) throw (RuntimeException) t;
+    if (t instanceof Error) throw (Error) t;
+    throw new IOException(t);
+  }
+  finally {
+    executor.shutdownNow();
+    output.close();
+  }
+
+  LOG.info("Mapped rows(" + rows + ") in (" + (System.currentTimeMillis() - start) + ") ms");
+  for (CounterGroup group : counters) {
+    for (Counter counter : group) {
+      LOG.info(group.getDisplayName() + ": " + counter.getDisplayName() + "=" + counter.getValue());
+    }
+  }
+  return counters;
+}
+
+private static AnnotateMapper newMapper(Class<? extends AnnotateMapper> mapperClass)
+{
+  try {
+    return mapperClass.newInstance();
+  }
+  catch (InstantiationException e) {
+    throw new RuntimeException(e);
+  }
+  catch (IllegalAccessException e) {
+    throw new RuntimeException(e);
+  }
+}
+
+private static Counters runMapper(AnnotateMapper mapper, Configuration conf, TaskAttemptID id,
+    BlockingQueue<Result> queue, DocSchema output)
+    throws IOException, InterruptedException
+{
+  LocalReporter reporter = new LocalReporter();
+  Mapper<ImmutableBytesWritable, Result, ImmutableBytesWritable, Put>.Context context = mapper.new Context(conf, id,
+      new QueueReader(queue), new TableWriter(output), null, reporter, null);
+  mapper.run(context);
+  return reporter.counters;
+}
+
+private static long readScan(DocSchema input, Scan scan, BlockingQueue<Result> queue, List<Future<Counters>> mappers)
+    throws IOException, InterruptedException
+{
+  long rows = 0;
+  ResultScanner scanner = input.getScanner(scan);
+  try {
+    for (Result row : scanner) {
+      if (!offer(queue, row, mappers)) break;
+      rows++;
+    }
+  }
+  finally {
+    scanner.close();
+  }
+  return rows;
+}
+
+private static long readKeys(DocSchema input, Configuration conf, Path keyList, BlockingQueue<Result> queue,
+    List<Future<Counters>> mappers)
+    throws IOException, InterruptedException
+{
+  String[] columns = StringUtils.split(conf.get(KeyListInputFormat.SCAN_FAMILIES, ""));
+  Filter rowFilter = JobConfig.getOversizedRowFilter(conf);
+  FileSystem fs = keyList.getFileSystem(conf);
+  FileStatus[] files = fs.getFileStatus(keyList).isDir() ? fs.listStatus(keyList) : new FileStatus[] { fs
+      .getFileStatus(keyList) };
+
+  long rows = 0;
+  List<Get> gets = new ArrayList<Get>();
+  for (FileStatus file : files) {
+    if (file.isDir()) {
+      continue;
+    }
+    BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(file.getPath()), "UTF-8"));
+    try {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        String key = line.trim();
+        if (key.length() == 0) {
+          continue;
+        }
+        Get get = new Get(key.getBytes("UTF-8"));
+        for (String column : columns) {
+          KeyListInputFormat.addScanColumn(get, column);
+        }
+        if (rowFilter != null) {
+          get.setFilter(rowFilter);
+        }
+        gets.add(get);
+        if (gets.size() >= KEY_BATCH) {
+          long fetched = fetch(input, gets, queue, mappers);
+          if (fetched < 0) return rows;
+          rows += fetched;
+        }
+      }
+    }
+    finally {
+      reader.close();
+    }
+  }
+  long fetched = fetch(input, gets, queue, mappers);
+  return fetched < 0 ? rows : rows + fetched;
+}
+
+/**
+ * @return number of rows found, or -1 if the mappers have stopped
+ */
+private static long fetch(DocSchema input, List<Get> gets, BlockingQueue<Result> queue, List<Future<Counters>> mappers)
+    throws IOException, InterruptedException
+{
+  if (gets.isEmpty()) return 0;
+  Result[] results = input.get(gets);
+  gets.clear();
+  long rows = 0;
+  for (Result row : results) {
+    if (row == null || row.isEmpty()) {
+      continue;
+    }
+    if (!offer(queue, row, mappers)) return -1;
+    rows++;
+  }
+  return rows;
+}
+
+/**
+ * @return false if a mapper stopped before the end of the rows, i.e. failed, so there is no point reading more
+ */
+private static boolean offer(BlockingQueue<Result> queue, Result row, List<Future<Counters>> mappers)
+    throws InterruptedException
+{
+  while (!queue.offer(row, 1, TimeUnit.SECONDS)) {
+    for (Future<Counters> mapper : mappers) {
+      if (mapper.isDone()) return false;
+    }
+  }
+  return true;
+}
+
+private static boolean allDone(List<Future<Counters>> mappers)
+{
+  for (Future<Counters> mapper : mappers) {
+    if (!mapper.isDone()) return false;
+  }
+  return true;
+}
+
+/**
+ * Hands each mapper the rows of the shared queue, until the end marker, which is put back for the other mappers
+ */
+private static class QueueReader extends RecordReader<ImmutableBytesWritable, Result> {
+
+  private final BlockingQueue<Result> queue;
+
+  private Result row;
+
+  private boolean done = false;
+
+  QueueReader(BlockingQueue<Result> queue) {
+    this.queue = queue;
+  }
+
+  @Override
+  public void initialize(InputSplit split, TaskAttemptContext context)
+  {
+  }
+
+  @Override
+  public boolean nextKeyValue()
+      throws InterruptedException
+  {
+    if (done) return false;
+    row = queue.take();
+    if (row == END) {
+      queue.put(END);
+      done = true;
+      row = null;
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public ImmutableBytesWritable getCurrentKey()
+  {
+    return row == null ? null : new ImmutableBytesWritable(row.getRow());
+  }
+
+  @Override
+  public Result getCurrentValue()
+  {
+    return row;
+  }
+
+  @Override
+  public float getProgress()
+  {
+    return 0;
+  }
+
+  @Override
+  public void close()
+  {
+  }
+}
+
+/**
+ * Writes the puts a mapper hands to its context to the table
+ */
+private static class TableWriter extends RecordWriter<ImmutableBytesWritable, Put> {
+
+  private final DocSchema table;
+
+  TableWriter(DocSchema table) {
+    this.table = table;
+  }
+
+  @Override
+  public void write(ImmutableBytesWritable key, Put put)
+      throws IOException
+  {
+    table.put(put);
+  }
+
+  @Override
+  public void close(TaskAttemptContext context)
+  {
+  }
+}
+
+private static class LocalReporter extends StatusReporter {
+
+  final Counters counters = new Counters();
+
+  @Override
+  public Counter getCounter(Enum<?> name)
+  {
+    return counters.findCounter(name);
+  }
+
+  @Override
+  public Counter getCounter(String group, String name)
+  {
+    return counters.findCounter(group, name);
+  }
+
+  @Override
+  public void progress()
+  {
+  }
+
+  @Override
+  public void setStatus(String status)
+  {
+  }
+}
+
+}
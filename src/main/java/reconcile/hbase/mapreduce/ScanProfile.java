@@ -0,0 +1,102 @@
+package reconcile.hbase.mapreduce;
+
+/**
+ * Named scanner settings for the kinds of jobs run over the doc table, selected with {@link JobConfig#SCAN_PROFILE_ARG}.
+ * None of them cache the blocks they read: a full scan would evict the hot blocks (e.g. of the src family) which
+ * everything else reads.
+ */
+public enum ScanProfile {
+
+/**
+ * I/O bound jobs, e.g. queries: many rows per scanner call
+ */
+IO("io", 1000, 0),
+
+/**
+ * Compute bound jobs, e.g. annotators: one row per scanner call, so the scanner lease does not expire while the rows
+ * fetched are processed
+ */
+CPU("cpu", 1, 0),
+
+/**
+ * Rows too large to fetch whole: one row per scanner call, in batches of columns. The mapper sees each batch as a
+ * separate Result, so this only suits jobs which look at each column on its own, i.e. the query jobs; doc mapper jobs
+ * reject it.
+ */
+HUGE_ROWS("huge-rows", 1, 1000),
+
+/**
+ * Caching chosen from the size of the first rows of the scan, so each scanner call returns about
+ * {@link #AUTO_TARGET_BYTES}
+ */
+AUTO("auto", 0, 0);
+
+public static final long AUTO_TARGET_BYTES = 2 * 1024 * 1024;
+
+public static final int AUTO_SAMPLE_ROWS = 100;
+
+/**
+ * Rows fetched per scanner call while sampling, so a sample of huge rows does not arrive in one response
+ */
+public static final int AUTO_SAMPLE_CACHING = 10;
+
+public static final int MAX_CACHING = 10000;
+
+private final String name;
+
+private final int caching;
+
+private final int batch;
+
+private ScanProfile(String name, int caching, int batch) {
+  this.name = name;
+  this.caching = caching;
+  this.batch = batch;
+}
+
+/**
+ * @param name
+ *          io, cpu, huge-rows or auto
+ * @return
+ */
+public static ScanProfile forName(String name)
+{
+  for (ScanProfile profile : values()) {
+    if (profile.name.equalsIgnoreCase(name)) return profile;
+  }
+  throw new IllegalArgumentException("unknown scan profile (" + name + "), expected io, cpu, huge-rows or auto");
+}
+
+/**
+ * @param bytesPerRow
+ *          sampled average row size, or 0 if no rows were sampled
+ * @return caching for the {@link #AUTO} profile
+ */
+public static int autoCaching(long bytesPerRow)
+{
+  if (bytesPerRow <= 0) return IO.caching;
+  return (int) Math.max(1, Math.min(MAX_CACHING, AUTO_TARGET_BYTES / bytesPerRow));
+}
+
+public String getName()
+{
+  return name;
+}
+
+/**
+ * @return rows per scanner call, or 0 if chosen by sampling
+ */
+public int getCaching()
+{
+  return caching;
+}
+
+/**
+ * @return maximum columns per Result, or 0 for whole rows
+ */
+public int getBatch()
+{
+  return batch;
+}
+
+}
@@ -0,0 +1,185 @@
+package reconcile.hbase.mapreduce;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+
+/**
+ * Snapshot of the region boundaries of a table and the host serving each region, used to plan input splits which
+ * stay within a single region server.
+ */
+public class TableRegions {
+
+static final Log LOG = LogFactory.getLog(TableRegions.class);
+
+/**
+ * Keys tried per sample row wanted from a region, before giving up on the region
+ */
+static final int SAMPLE_ATTEMPTS_PER_ROW = 4;
+
+/**
+ * Gets per sampling round trip
+ */
+static final int SAMPLE_BATCH_SIZE = 100;
+
+private final HTable table;
+
+private final byte[][] startKeys;
+
+private final String[] hosts;
+
+/**
+ * Estimated bytes per row for each region, filled in by {@link #sample(int, Iterable, String[])}
+ */
+private final long[] rowBytes;
+
+public TableRegions(HTable table)
+    throws IOException {
+  this.table = table;
+  Pair<byte[][], byte[][]> startEnd = table.getStartEndKeys();
+  startKeys = startEnd.getFirst();
+  hosts = new String[startKeys.length];
+  for (int i = 0; i < startKeys.length; i++) {
+    hosts[i] = table.getRegionLocation(startKeys[i]).getServerAddress().getHostname();
+  }
+  rowBytes = new long[startKeys.length];
+  LOG.info("Table(" + Bytes.toString(table.getTableName()) + ") has (" + startKeys.length + ") regions");
+}
+
+public int getNumRegions()
+{
+  return startKeys.length;
+}
+
+/**
+ * @param key
+ * @return the index of the region containing the given row key
+ */
+public int getRegion(byte[] key)
+{
+  // the first region has an empty start key, so there is always a region with start <= key
+  int low = 0;
+  int high = startKeys.length - 1;
+  while (low < high) {
+    int mid = (low + high + 1) >>> 1;
+    if (Bytes.compareTo(startKeys[mid], key) <= 0) {
+      low = mid;
+    }
+    else {
+      high = mid - 1;
+    }
+  }
+  return low;
+}
+
+public int getRegion(String key)
+{
+  return getRegion(Bytes.toBytes(key));
+}
+
+/**
+ * @param region
+ * @return the host name of the region server serving the region
+ */
+public String getHost(int region)
+{
+  return hosts[region];
+}
+
+/**
+ * @param region
+ * @return the estimated bytes per row in the region, or 0 if it was not sampled
+ */
+public long getRowBytes(int region)
+{
+  return rowBytes[region];
+}
+
+/**
+ * Estimate the row size of each region by fetching up to <code>rowsPerRegion</code> of the given sorted keys from it,
+ * with batched gets. At most {@link #SAMPLE_ATTEMPTS_PER_ROW} keys are tried per sample row wanted, so a region whose
+ * listed keys are mostly missing costs a bounded number of gets. Regions without a sample get the average of the
+ * sampled ones.
+ *
+ * @param rowsPerRegion
+ * @param sortedKeys
+ * @param families
+ *          families, or 'family:qualifier' columns, to fetch, or empty for all
+ * @throws IOException
+ */
+public void sample(int rowsPerRegion, Iterable<String> sortedKeys, String[] families)
+    throws IOException
+{
+  Arrays.fill(rowBytes, 0);
+  if (rowsPerRegion <= 0) return;
+
+  int maxAttempts = rowsPerRegion * SAMPLE_ATTEMPTS_PER_ROW;
+  int[] attempted = new int[startKeys.length];
+  int[] sampled = new int[startKeys.length];
+  List<Get> gets = new ArrayList<Get>();
+  List<Integer> getRegions = new ArrayList<Integer>();
+  for (String key : sortedKeys) {
+    int region = getRegion(key);
+    if (attempted[region] >= maxAttempts) {
+      continue;
+    }
+    attempted[region]++;
+    Get get = new Get(Bytes.toBytes(key));
+    for (String column : families) {
+      KeyListInputFormat.addScanColumn(get, column);
+    }
+    gets.add(get);
+    getRegions.add(region);
+    if (gets.size() >= SAMPLE_BATCH_SIZE) {
+      fetchSample(gets, getRegions, rowsPerRegion, sampled);
+    }
+  }
+  fetchSample(gets, getRegions, rowsPerRegion, sampled);
+
+  long total = 0;
+  int totalSampled = 0;
+  for (int i = 0; i < rowBytes.length; i++) {
+    total += rowBytes[i];
+    totalSampled += sampled[i];
+  }
+  long average = totalSampled == 0 ? 0 : total / totalSampled;
+  for (int i = 0; i < rowBytes.length; i++) {
+    rowBytes[i] = sampled[i] == 0 ? average : rowBytes[i] / sampled[i];
+  }
+  LOG.info("Sampled (" + totalSampled + ") rows, average row bytes(" + average + ")");
+}
+
+/**
+ * Fetch a batch of sample gets, adding the size of each row found to its region until the region has enough samples,
+ * and clear the batch
+ */
+private void fetchSample(List<Get> gets, List<Integer> getRegions, int rowsPerRegion, int[] sampled)
+    throws IOException
+{
+  if (gets.isEmpty()) return;
+  Result[] rows = table.get(gets);
+  for (int i = 0; i < rows.length; i++) {
+    int region = getRegions.get(i);
+    if (rows[i] == null || rows[i].isEmpty() || sampled[region] >= rowsPerRegion) {
+      continue;
+    }
+    for (KeyValue kv : rows[i].raw()) {
+      rowBytes[region] += kv.getLength();
+    }
+    sampled[region]++;
+  }
+  gets.clear();
+  getRegions.clear();
+}
+
+}
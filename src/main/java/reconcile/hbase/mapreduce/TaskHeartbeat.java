@@ -0,0 +1,181 @@
+package reconcile.hbase.mapreduce;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+import com.google.common.collect.Maps;
+
+/**
+ * One keep alive thread per task, shared by the mapper and the record reader, instead of a thread per record. Every
+ * interval it reports progress so hadoop does not kill a task which is busy on a long record, and checks how long each
+ * thread has been in its current record: a record taking longer than the stuck threshold is logged, with its
+ * description, and counted once.
+ * <p>
+ * Usage: <code>acquire</code> in setup (or initialize), <code>startRecord</code>/<code>endRecord</code> around the
+ * work for each record, and <code>release</code> in cleanup (or close).
+ */
+public class TaskHeartbeat {
+
+private static final Log LOG = LogFactory.getLog(TaskHeartbeat.class);
+
+/**
+ * Configuration key for the interval between progress reports, in milliseconds
+ */
+public static final String INTERVAL_MS = "TaskHeartbeat.intervalMs";
+
+/**
+ * Configuration key for the time in one record after which it is reported as stuck, in milliseconds
+ */
+public static final String STUCK_RECORD_MS = "TaskHeartbeat.stuckRecordMs";
+
+public static final long DEFAULT_INTERVAL_MS = 1000;
+
+public static final long DEFAULT_STUCK_RECORD_MS = 10 * 60 * 1000;
+
+public static final String COUNTER_GROUP = "Task Heartbeat";
+
+private static final Map<TaskAttemptID, TaskHeartbeat> heartbeats = Maps.newHashMap();
+
+private static class Record {
+
+  final String description;
+
+  final long start;
+
+  volatile boolean reported;
+
+  Record(String description, long start) {
+    this.description = description;
+    this.start = start;
+  }
+}
+
+private final TaskAttemptContext context;
+
+private final TaskAttemptID id;
+
+private final long stuckRecordMs;
+
+private final ScheduledExecutorService executor;
+
+private final Map<Thread, Record> records = new ConcurrentHashMap<Thread, Record>();
+
+private int references;
+
+private TaskHeartbeat(TaskAttemptContext context) {
+  this.context = context;
+  this.id = context.getTaskAttemptID();
+  Configuration conf = context.getConfiguration();
+  long interval = conf.getLong(INTERVAL_MS, DEFAULT_INTERVAL_MS);
+  stuckRecordMs = conf.getLong(STUCK_RECORD_MS, DEFAULT_STUCK_RECORD_MS);
+
+  executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+    public Thread newThread(Runnable r)
+    {
+      Thread thread = new Thread(r, "heartbeat " + id);
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+  executor.scheduleAtFixedRate(new Runnable() {
+
+    public void run()
+    {
+      beat();
+    }
+  }, interval, interval, TimeUnit.MILLISECONDS);
+}
+
+/**
+ * Get the heartbeat of the task, starting it if this is the first user. Each call must be matched by a call to
+ * {@link #release()}.
+ *
+ * @param context
+ * @return
+ */
+public static TaskHeartbeat acquire(TaskAttemptContext context)
+{
+  synchronized (heartbeats) {
+    TaskHeartbeat heartbeat = heartbeats.get(context.getTaskAttemptID());
+    if (heartbeat == null) {
+      heartbeat = new TaskHeartbeat(context);
+      heartbeats.put(heartbeat.id, heartbeat);
+    }
+    heartbeat.references++;
+    return heartbeat;
+  }
+}
+
+/**
+ * Stop the heartbeat once its last user has released it
+ */
+public void release()
+{
+  synchronized (heartbeats) {
+    if (--references > 0) return;
+    heartbeats.remove(id);
+  }
+  executor.shutdownNow();
+}
+
+/**
+ * Mark the start of the current thread's work on a record
+ *
+ * @param description
+ *          identifies the record in the stuck record log, e.g. its row key
+ */
+public void startRecord(String description)
+{
+  records.put(Thread.currentThread(), new Record(description, System.currentTimeMillis()));
+}
+
+/**
+ * Mark the end of the current thread's work on its record
+ */
+public void endRecord()
+{
+  Record record = records.remove(Thread.currentThread());
+  if (record != null && record.reported) {
+    LOG.info("stuck record (" + record.description + ") finished after ("
+        + (System.currentTimeMillis() - record.start) + ") ms");
+  }
+}
+
+private void beat()
+{
+  try {
+    context.progress();
+    long now = System.currentTimeMillis();
+    for (Map.Entry<Thread, Record> entry : records.entrySet()) {
+      Record record = entry.getValue();
+      long elapsed = now - record.start;
+      if (record.reported || elapsed < stuckRecordMs) {
+        continue;
+      }
+      record.reported = true;
+      LOG.warn("record (" + record.description + ") has been processing for (" + elapsed + ") ms in thread ("
+          + entry.getKey().getName() + ")");
+      if (context instanceof TaskInputOutputContext) {
+        ((TaskInputOutputContext<?, ?, ?, ?>) context).getCounter(COUNTER_GROUP, "stuck record").increment(1);
+      }
+    }
+  }
+  catch (RuntimeException e) {
+    // keep beating, a failed beat must not cancel the schedule
+    LOG.error("heartbeat failed: " + e.getMessage());
+  }
+}
+
+}
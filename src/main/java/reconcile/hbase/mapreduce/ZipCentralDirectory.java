@@ -0,0 +1,402 @@
+package reconcile.hbase.mapreduce;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+
+/**
+ * Reads the central directory at the end of a zip archive, so the entries of an archive on HDFS can be listed (names,
+ * sizes and local header offsets) without inflating any data, and a single entry can be read by seeking straight to
+ * it. Zip64 archives and entries are supported.
+ */
+public class ZipCentralDirectory {
+
+private static final long END_SIG = 0x06054b50L;
+
+private static final long ZIP64_END_SIG = 0x06064b50L;
+
+private static final long ZIP64_LOCATOR_SIG = 0x07064b50L;
+
+private static final long CENTRAL_SIG = 0x02014b50L;
+
+private static final long LOCAL_SIG = 0x04034b50L;
+
+private static final int END_LENGTH = 22;
+
+private static final int ZIP64_LOCATOR_LENGTH = 20;
+
+private static final int ZIP64_END_LENGTH = 56;
+
+private static final int CENTRAL_LENGTH = 46;
+
+private static final int LOCAL_LENGTH = 30;
+
+private static final int MAX_COMMENT_LENGTH = 0xffff;
+
+private static final int ZIP64_EXTRA_ID = 0x0001;
+
+private static final long ZIP64_MAGIC = 0xffffffffL;
+
+private static final int BUFFER_SIZE = 64 * 1024;
+
+/**
+ * An entry of the central directory
+ */
+public static class Entry {
+
+  private final String name;
+
+  private final int method;
+
+  private final long size;
+
+  private final long compressedSize;
+
+  private final long localHeaderOffset;
+
+  Entry(String name, int method, long size, long compressedSize, long localHeaderOffset) {
+    this.name = name;
+    this.method = method;
+    this.size = size;
+    this.compressedSize = compressedSize;
+    this.localHeaderOffset = localHeaderOffset;
+  }
+
+  public String getName()
+  {
+    return name;
+  }
+
+  /**
+   * @return {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+   */
+  public int getMethod()
+  {
+    return method;
+  }
+
+  /**
+   * @return the uncompressed size
+   */
+  public long getSize()
+  {
+    return size;
+  }
+
+  public long getCompressedSize()
+  {
+    return compressedSize;
+  }
+
+  /**
+   * @return the offset of the entry's local file header from the start of the archive
+   */
+  public long getLocalHeaderOffset()
+  {
+    return localHeaderOffset;
+  }
+
+  public boolean isDirectory()
+  {
+    return name.endsWith("/");
+  }
+}
+
+/**
+ * Location of the central directory, from the (zip64) end of central directory record
+ */
+public static class End {
+
+  private final long numEntries;
+
+  private final long offset;
+
+  private final long length;
+
+  End(long numEntries, long offset, long length) {
+    this.numEntries = numEntries;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  public long getNumEntries()
+  {
+    return numEntries;
+  }
+
+  public long getOffset()
+  {
+    return offset;
+  }
+
+  public long getLength()
+  {
+    return length;
+  }
+}
+
+/**
+ * Find the end of central directory record with positioned reads of the tail of the archive
+ *
+ * @param in
+ * @param fileLength
+ * @return
+ * @throws IOException
+ *           if the archive has no end of central directory record
+ */
+public static End readEnd(FSDataInputStream in, long fileLength)
+    throws IOException
+{
+  int tailLength = (int) Math.min(fileLength, END_LENGTH + MAX_COMMENT_LENGTH);
+  if (tailLength < END_LENGTH) throw new IOException("not a zip archive: too short");
+  long tailStart = fileLength - tailLength;
+  byte[] tail = new byte[tailLength];
+  in.readFully(tailStart, tail);
+
+  // the record is followed by a variable length comment, so search backwards for its signature
+  for (int i = tailLength - END_LENGTH; i >= 0; i--) {
+    if (getInt(tail, i) != END_SIG || i + END_LENGTH + getShort(tail, i + 20) != tailLength) {
+      continue;
+    }
+    long numEntries = getShort(tail, i + 10);
+    long length = getInt(tail, i + 12);
+    long offset = getInt(tail, i + 16);
+    return readZip64End(in, tailStart + i, numEntries, offset, length);
+  }
+  throw new IOException("not a zip archive: end of central directory not found");
+}
+
+private static End readZip64End(FSDataInputStream in, long endPosition, long numEntries, long offset, long length)
+    throws IOException
+{
+  long locator = endPosition - ZIP64_LOCATOR_LENGTH;
+  if (locator < 0) return new End(numEntries, offset, length);
+  byte[] buf = readAt(in, locator, ZIP64_LOCATOR_LENGTH);
+  if (getInt(buf, 0) != ZIP64_LOCATOR_SIG) return new End(numEntries, offset, length);
+
+  buf = readAt(in, getLong(buf, 8), ZIP64_END_LENGTH);
+  if (getInt(buf, 0) != ZIP64_END_SIG) throw new IOException("invalid zip64 end of central directory record");
+  return new End(getLong(buf, 32), getLong(buf, 48), getLong(buf, 40));
+}
+
+private static byte[] readAt(FSDataInputStream in, long position, int length)
+    throws IOException
+{
+  byte[] buf = new byte[length];
+  in.readFully(position, buf);
+  return buf;
+}
+
+/**
+ * List the entries of the archive, in central directory order
+ *
+ * @param in
+ * @param fileLength
+ * @return
+ * @throws IOException
+ *           if the central directory is missing or corrupt
+ */
+public static List<Entry> read(FSDataInputStream in, long fileLength)
+    throws IOException
+{
+  End end = readEnd(in, fileLength);
+  if (end.getOffset() + end.getLength() > fileLength)
+    throw new IOException("central directory extends past the end of the archive");
+
+  List<Entry> entries = new ArrayList<Entry>((int) Math.min(end.getNumEntries(), Integer.MAX_VALUE));
+  in.seek(end.getOffset());
+  DataInputStream cd = new DataInputStream(new BufferedInputStream(new BoundedInputStream(in, end.getLength(), false),
+      BUFFER_SIZE));
+  byte[] header = new byte[CENTRAL_LENGTH];
+  long remaining = end.getLength();
+  while (remaining >= CENTRAL_LENGTH) {
+    cd.readFully(header);
+    if (getInt(header, 0) != CENTRAL_SIG) throw new IOException("invalid central directory entry");
+    int flags = getShort(header, 8);
+    int method = getShort(header, 10);
+    long compressedSize = getInt(header, 20);
+    long size = getInt(header, 24);
+    byte[] name = new byte[getShort(header, 28)];
+    byte[] extra = new byte[getShort(header, 30)];
+    int commentLength = getShort(header, 32);
+    long offset = getInt(header, 42);
+    cd.readFully(name);
+    cd.readFully(extra);
+    skipFully(cd, commentLength);
+    remaining -= CENTRAL_LENGTH + name.length + extra.length + commentLength;
+
+    // zip64 values are present, in this order, only for the fields set to the magic value
+    for (int i = 0; i + 4 <= extra.length;) {
+      int id = getShort(extra, i);
+      int length = getShort(extra, i + 2);
+      if (id == ZIP64_EXTRA_ID) {
+        int pos = i + 4;
+        if (size == ZIP64_MAGIC) {
+          size = getLong(extra, pos);
+          pos += 8;
+        }
+        if (compressedSize == ZIP64_MAGIC) {
+          compressedSize = getLong(extra, pos);
+          pos += 8;
+        }
+        if (offset == ZIP64_MAGIC) {
+          offset = getLong(extra, pos);
+        }
+        break;
+      }
+      i += 4 + length;
+    }
+
+    // java.util.zip reads names as UTF-8 regardless of the language encoding flag (bit 11), do the same so names
+    // match what ZipInputStream reports
+    String entryName = new String(name, "UTF-8");
+    if ((flags & 1) != 0) throw new IOException("encrypted zip entry (" + entryName + ")");
+    entries.add(new Entry(entryName, method, size, compressedSize, offset));
+  }
+  return entries;
+}
+
+/**
+ * Open the data of an entry. The stream reads directly from <code>in</code>, which must not be used for anything
+ * else until the entry has been read; closing the returned stream does not close <code>in</code>.
+ *
+ * @param in
+ * @param localHeaderOffset
+ * @param compressedSize
+ * @param method
+ * @return the uncompressed data of the entry
+ * @throws IOException
+ */
+public static InputStream openEntry(FSDataInputStream in, long localHeaderOffset, long compressedSize, int method)
+    throws IOException
+{
+  byte[] local = readAt(in, localHeaderOffset, LOCAL_LENGTH);
+  if (getInt(local, 0) != LOCAL_SIG) throw new IOException("invalid local file header at (" + localHeaderOffset + ")");
+  in.seek(localHeaderOffset + LOCAL_LENGTH + getShort(local, 26) + getShort(local, 28));
+
+  switch (method) {
+    case ZipEntry.STORED:
+      return new BoundedInputStream(in, compressedSize, false);
+    case ZipEntry.DEFLATED:
+      final Inflater inflater = new Inflater(true);
+      return new InflaterInputStream(new BoundedInputStream(in, compressedSize, true), inflater, BUFFER_SIZE) {
+
+        @Override
+        public void close()
+            throws IOException
+        {
+          inflater.end();
+          super.close();
+        }
+      };
+    default:
+      throw new IOException("unsupported compression method (" + method + ")");
+  }
+}
+
+private static void skipFully(DataInputStream in, int length)
+    throws IOException
+{
+  while (length > 0) {
+    int skipped = in.skipBytes(length);
+    if (skipped <= 0) throw new IOException("unexpected end of central directory");
+    length -= skipped;
+  }
+}
+
+private static int getShort(byte[] b, int off)
+{
+  return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8);
+}
+
+private static long getInt(byte[] b, int off)
+{
+  return (getShort(b, off) | ((long) getShort(b, off + 2) << 16)) & 0xffffffffL;
+}
+
+private static long getLong(byte[] b, int off)
+{
+  return getInt(b, off) | (getInt(b, off + 4) << 32);
+}
+
+/**
+ * Reads at most <code>remaining</code> bytes from the underlying stream and never closes it. A raw inflater may need
+ * one byte past the end of the deflated data to finish, so <code>pad</code> supplies a single extra zero byte.
+ */
+private static class BoundedInputStream
+    extends FilterInputStream {
+
+  private long remaining;
+
+  private boolean pad;
+
+  BoundedInputStream(InputStream in, long length, boolean pad) {
+    super(in);
+    this.remaining = length;
+    this.pad = pad;
+  }
+
+  @Override
+  public int read()
+      throws IOException
+  {
+    byte[] b = new byte[1];
+    return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len)
+      throws IOException
+  {
+    if (len == 0) return 0;
+    if (remaining <= 0) {
+      if (!pad) return -1;
+      pad = false;
+      b[off] = 0;
+      return 1;
+    }
+    int n = in.read(b, off, (int) Math.min(len, remaining));
+    if (n < 0) throw new IOException("unexpected end of zip archive");
+    remaining -= n;
+    return n;
+  }
+
+  @Override
+  public long skip(long n)
+      throws IOException
+  {
+    long skipped = in.skip(Math.min(n, remaining));
+    remaining -= skipped;
+    return skipped;
+  }
+
+  @Override
+  public int available()
+      throws IOException
+  {
+    return (int) Math.min(in.available(), remaining);
+  }
+
+  @Override
+  public boolean markSupported()
+  {
+    return false;
+  }
+
+  @Override
+  public void close()
+  {
+    // the underlying archive stream is owned by the caller
+  }
+}
+
+}
@@ -13,13 +13,20 @@
 package reconcile.hbase.mapreduce;
 
 import java.io.DataInput;
+import java.io.DataInputStream;
 import java.io.DataOutput;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.FileNameMap;
 import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeSet;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -28,10 +35,10 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.InputSplit;
@@ -47,6 +54,22 @@ public class ZipInputFormat extends FileInputFormat<Text, Text>
 	public static final String NUM_FILES_PER_SPLIT = "InputFormat.numberFilesPerSplit";
 	public static final String IGNORE_FILES_LARGER_THAN_IN_MB = "InputFormat.ignoreFilesLargerThanInMB";
 	public static final String PROCESS_MIME_TYPES_ONLY = "InputFormat.processMimeTypes";
+	/** When set, entries are grouped into splits of about this many bytes instead of by NUM_FILES_PER_SPLIT */
+	public static final String TARGET_BYTES_PER_SPLIT = "InputFormat.targetBytesPerSplit";
+	/** Balance splits on compressed rather than uncompressed entry size [default false] */
+	public static final String BALANCE_ON_COMPRESSED_SIZE = "InputFormat.balanceOnCompressedSize";
+	/** Maximum number of hosts reported for a byte balanced split */
+	public static final int MAX_SPLIT_HOSTS = 3;
+	/**
+	 * When set, entries are returned as a sequence of records of at most this many bytes each, keyed by the full
+	 * entry path followed by CHUNK_SEPARATOR and the chunk number, instead of one record per entry. Chunks are cut
+	 * between UTF-8 characters, so a chunk may be up to 3 bytes short.
+	 */
+	public static final String MAX_CHUNK_BYTES = "InputFormat.maxChunkBytes";
+	/** Size of the buffer the record reader reuses for reading entries */
+	public static final String READ_BUFFER_BYTES = "InputFormat.readBufferBytes";
+	public static final String CHUNK_SEPARATOR = "#";
+	public static final int DEFAULT_READ_BUFFER_BYTES = 1024*1024;
 	public static final int bufSize = 1024;
 
 	static final Log LOG = LogFactory.getLog(ZipInputFormat.class);
@@ -56,6 +79,10 @@ public class ZipInputFormat extends FileInputFormat<Text, Text>
 	  	private Path file;
 	  	private String entryPath;
 		private long length;
+		// location of the entry from the central directory, offset is -1 when unknown
+		private long offset = -1;
+		private long compressedSize;
+		private int method;
 	  	private JobContext context;
 		
 		public ZipEntrySplit() 
@@ -70,6 +97,14 @@ public class ZipInputFormat extends FileInputFormat<Text, Text>
 			LOG.info("ZipEntrySplit: file("+file.toString()+") entry("+entryPath+") length("+length+")");
 		}
 		
+		public ZipEntrySplit(Path file, ZipCentralDirectory.Entry entry, JobContext context) 
+		{
+		    this(file, entry.getName(), entry.getSize(), context);
+		    this.offset = entry.getLocalHeaderOffset();
+		    this.compressedSize = entry.getCompressedSize();
+		    this.method = entry.getMethod();
+		}
+		
 		  /** The zip archive containing this split's data. */
 		  public Path getFile() {
 		    return file;
@@ -90,12 +125,28 @@ public class ZipInputFormat extends FileInputFormat<Text, Text>
 		    return length;
 		  }
 
+		  /** The offset of the entry's local header within the zip archive, or -1 if unknown. */
+		  public long getOffset() {
+			  return offset;
+		  }
+
+		  public long getCompressedSize() {
+			  return compressedSize;
+		  }
+
+		  public int getMethod() {
+			  return method;
+		  }
+
 		  @Override
 		  public void write(DataOutput out) throws IOException 
 		  {
 			  out.writeUTF(file.toString());
 			  out.writeUTF(entryPath);
 			  out.writeLong(length);
+			  out.writeLong(offset);
+			  out.writeLong(compressedSize);
+			  out.writeInt(method);
 		  }
 	
 		  @Override
@@ -104,7 +155,10 @@ public class ZipInputFormat extends FileInputFormat<Text, Text>
 			  file = new Path(in.readUTF());
 			  entryPath = in.readUTF();
 			  length = in.readLong();
-			  LOG.info("ZipEntrySplit.readFields: file("+file.toString()+") entry("+entryPath+") length("+length+")");
+			  offset = in.readLong();
+			  compressedSize = in.readLong();
+			  method = in.readInt();
+			  LOG.info("ZipEntrySplit.readFields: file("+file.toString()+") entry("+entryPath+") length("+length+") offset("+offset+")");
 		  }
 
 		  @Override
@@ -114,7 +168,10 @@ public class ZipInputFormat extends FileInputFormat<Text, Text>
 			  
 			  FileSystem fs = FileSystem.get(context.getConfiguration());
 			  FileStatus status = fs.getFileStatus(file);
-			  for (BlockLocation block : fs.getFileBlockLocations(status, 0L, status.getLen())) {
+			  // when the entry's position is known, only the blocks holding it matter
+			  long start = offset >= 0 ? offset : 0L;
+			  long len = offset >= 0 ? Math.max(compressedSize, 1L) : status.getLen();
+			  for (BlockLocation block : fs.getFileBlockLocations(status, start, len)) {
 				  for (String name : block.getHosts()) {
 					  hosts.add(name);
 				  }
@@ -127,11 +184,17 @@ public class ZipInputFormat extends FileInputFormat<Text, Text>
 	public static class MultiZipSplit extends InputSplit implements Writable
 	{
 		public ZipEntrySplit[] splits;
+		// hosts computed when planning, not serialized
+		private String[] hosts;
 		
 		public MultiZipSplit() { }
 		public MultiZipSplit(Collection<ZipEntrySplit> splitList) {
 			splits = splitList.toArray(new ZipEntrySplit[splitList.size()]);
 		}
+		public MultiZipSplit(Collection<ZipEntrySplit> splitList, String[] hosts) {
+			this(splitList);
+			this.hosts = hosts;
+		}
 		
 		@Override
 		public long getLength() throws IOException {
@@ -165,6 +228,7 @@ public class ZipInputFormat extends FileInputFormat<Text, Text>
 		@Override
 		public String[] getLocations() throws IOException 
 		{
+			if (this.hosts != null) return this.hosts;
 			TreeSet<String> hosts = new TreeSet<String>();
 			for (ZipEntrySplit split : splits) {
 				for (String host : split.getLocations()) {
@@ -175,43 +239,28 @@ public class ZipInputFormat extends FileInputFormat<Text, Text>
 		}
 	}
 	
-	private static class ProgressThread extends Thread 
-	{
-		private final TaskAttemptContext _reporter;
-		private final long _reportIntervall;
-
-		public ProgressThread(TaskAttemptContext context, long reportIntervall) {
-			_reporter = context;
-			_reportIntervall = reportIntervall;
-			setDaemon(true);
-		}
-		@Override
-		public void run()
-		{
-			try {
-				while (true) {
-					_reporter.progress();
-					sleep(_reportIntervall);
-				}
-			}
-			catch (final InterruptedException e) {
-				LOG.debug("progress thread stopped");
-			}
-		}
-
-		public static ProgressThread start(TaskAttemptContext reporter, long reportIntervall) {
-			ProgressThread thread = new ProgressThread(reporter, reportIntervall);
-			thread.start();
-			return thread;
-		}
-	}
-
+	/**
+	 * Reads each entry through a stream into a reused buffer and value, rather than a new byte array per entry.
+	 * In whole entry mode the entry is only read if the value is asked for.  In chunk mode (MAX_CHUNK_BYTES) the
+	 * entry stream is kept open and each record holds the next chunk, so no more than one chunk of an entry is
+	 * ever in memory.
+	 */
 	public class ZipEntryRecordReader extends RecordReader<Text, Text>
 	{
 		FileSystem fs;
 		MultiZipSplit split;	
 		int index;
-		ProgressThread thread;
+		TaskHeartbeat heartbeat;
+		int maxChunkBytes;
+		byte[] buffer;
+		Text key = new Text();
+		Text value = new Text();
+		boolean valueLoaded;
+		// chunk mode state
+		InputStream entryStream;
+		int chunk;
+		// bytes of a character cut off at the end of the last chunk, moved to the start of the buffer
+		int carry;
 		
 		@Override
 		public void initialize(InputSplit arg0, TaskAttemptContext arg1)
@@ -220,43 +269,171 @@ public class ZipInputFormat extends FileInputFormat<Text, Text>
 			split = (MultiZipSplit) arg0;
 			index = -1;
 			fs = FileSystem.get(arg1.getConfiguration());
-			thread = ProgressThread.start(arg1, 1000);
+			maxChunkBytes = arg1.getConfiguration().getInt(MAX_CHUNK_BYTES, 0);
+			int bufferBytes = arg1.getConfiguration().getInt(READ_BUFFER_BYTES, DEFAULT_READ_BUFFER_BYTES);
+			buffer = new byte[maxChunkBytes > 0 ? maxChunkBytes : bufferBytes];
+			heartbeat = TaskHeartbeat.acquire(arg1);
 		}
 
 		@Override
 		public void close() throws IOException 
 		{
-			if (thread!=null) thread.interrupt();
+			if (heartbeat!=null) {
+				heartbeat.release();
+				heartbeat = null;
+			}
+			IOUtils.closeQuietly(entryStream);
+			entryStream = null;
 		}
 
 		@Override
 		public Text getCurrentKey() 
 			throws IOException, InterruptedException 
 		{
-			return new Text(split.splits[index].getFullEntryPath());
+			return key;
 		}
 
 		@Override
 		public Text getCurrentValue() 
 			throws IOException, InterruptedException 
 		{
-			byte[] value = loadZipEntry(fs, split.splits[index]);
-			return new Text(value);
+			if (!valueLoaded) {
+				loadEntry(split.splits[index]);
+				valueLoaded = true;
+			}
+			return value;
 		}
 
 		@Override
 		public float getProgress() 
 			throws IOException, InterruptedException 
 		{
-			return (1.0f * index) / split.splits.length;
+			return (1.0f * Math.max(index, 0)) / split.splits.length;
 		}
 		
 		@Override
 		public boolean nextKeyValue() throws IOException, InterruptedException 
 		{
+			if (maxChunkBytes > 0) return nextChunk();
+
 			++index;
-			return index < split.splits.length;
-		}		
+			if (index >= split.splits.length) return false;
+			key.set(split.splits[index].getFullEntryPath());
+			valueLoaded = false;
+			return true;
+		}
+
+		private boolean nextChunk() throws IOException
+		{
+			while (true) {
+				if (entryStream == null) {
+					++index;
+					if (index >= split.splits.length) return false;
+					entryStream = openZipEntry(fs, split.splits[index]);
+					if (entryStream == null) {
+						LOG.error("zip entry ("+split.splits[index].getFullEntryPath()+") not found");
+						continue;
+					}
+					chunk = 0;
+					carry = 0;
+				}
+
+				int n = carry + readFully(entryStream, buffer, carry, buffer.length - carry);
+				boolean ended = n < buffer.length;
+				int cut = ended ? n : utf8Boundary(buffer, n);
+				// an empty entry still gets one (empty) record
+				if (cut > 0 || chunk == 0) {
+					key.set(split.splits[index].getFullEntryPath()+CHUNK_SEPARATOR+chunk);
+					value.set(buffer, 0, cut);
+					valueLoaded = true;
+					++chunk;
+					carry = n - cut;
+					System.arraycopy(buffer, cut, buffer, 0, carry);
+					if (ended) {
+						closeEntry();
+					}
+					return true;
+				}
+				closeEntry();
+			}
+		}
+
+		private void closeEntry()
+		{
+			IOUtils.closeQuietly(entryStream);
+			entryStream = null;
+		}
+
+		private void loadEntry(ZipEntrySplit entry) throws IOException
+		{
+			InputStream is = openZipEntry(fs, entry);
+			if (is == null) {
+				LOG.error("zip entry ("+entry.getFullEntryPath()+") not found");
+				value.clear();
+				return;
+			}
+			try {
+				int length = 0;
+				if (entry.getLength() >= 0 && entry.getLength() <= Integer.MAX_VALUE) {
+					if (buffer.length < entry.getLength()) {
+						buffer = new byte[(int)entry.getLength()];
+					}
+					length = readFully(is, buffer, 0, (int)entry.getLength());
+				}
+				else {
+					// size unknown, grow the reused buffer as needed
+					int n;
+					while ((n = readFully(is, buffer, length, buffer.length - length)) > 0) {
+						length += n;
+						if (length == buffer.length) {
+							byte[] larger = new byte[buffer.length * 2];
+							System.arraycopy(buffer, 0, larger, 0, length);
+							buffer = larger;
+						}
+					}
+				}
+				value.set(buffer, 0, length);
+				LOG.debug("Read bytes("+length+") from entry ("+entry.getEntryPath()+")");
+			}
+			finally {
+				IOUtils.closeQuietly(is);
+			}
+		}
+	}
+
+	/**
+	 * Read until <code>len</code> bytes have been read or the stream ends
+	 *
+	 * @return the number of bytes read
+	 */
+	private static int readFully(InputStream is, byte[] b, int off, int len) throws IOException
+	{
+		int total = 0;
+		while (total < len) {
+			int n = is.read(b, off+total, len-total);
+			if (n < 0) break;
+			total += n;
+		}
+		return total;
+	}
+
+	/**
+	 * @return the length of the longest prefix of the first <code>n</code> bytes which does not end inside a UTF-8
+	 *         character, or <code>n</code> if the bytes are not UTF-8 there
+	 */
+	static int utf8Boundary(byte[] bytes, int n)
+	{
+		for (int i=n-1; i>=0 && i>=n-4; --i) {
+			int b = bytes[i] & 0xff;
+			if ((b & 0xc0) == 0x80) {
+				// continuation byte, keep looking for the first byte of the character
+				continue;
+			}
+			int length = b >= 0xf0 ? 4 : b >= 0xe0 ? 3 : b >= 0xc0 ? 2 : 1;
+			int cut = i + length <= n ? n : i;
+			return cut > 0 ? cut : n;
+		}
+		return n;
 	}
 
 	@Override
@@ -285,29 +462,22 @@ public class ZipInputFormat extends FileInputFormat<Text, Text>
 		
 	    LOG.debug("Verifying ZIP format for file: "+file.toString());
 	    boolean splitable = true;
-	    ZipInputStream zis = null;
+	    FSDataInputStream is = null;
 	
 	    try {
-	    	zis = new ZipInputStream(fs.open(file));
-	    	ZipEntry zipEntry = zis.getNextEntry();
-	    	if (zipEntry == null) {
+	    	is = fs.open(file);
+	    	ZipCentralDirectory.End end = ZipCentralDirectory.readEnd(is, fs.getFileStatus(file).getLen());
+	    	if (end.getNumEntries() == 0) {
 	    		throw new IOException("No entries found! Empty zip file: ");
 	    	}
 	    	LOG.debug("...ZIP format verification successful!");
 	    } 
 	    catch (IOException ioe) {
-	    	LOG.error("Exception encountered while trying to open and read ZIP input stream: "+ioe.toString());
+	    	LOG.error("Exception encountered while trying to read ZIP central directory: "+ioe.toString());
 	    	splitable = false;
 	    } 
 	    finally {
-	    	try {
-	    		if (zis != null) {
-	    			zis.close();
-	    		}
-	    	} 
-	    	catch (IOException ioe) {
-	    	  LOG.error("Exception while trying to close ZIP input stream: "+ioe);
-	    	}
+	    	IOUtils.closeQuietly(is);
 	    }
 	    return splitable;
 	}
@@ -326,6 +496,38 @@ public class ZipInputFormat extends FileInputFormat<Text, Text>
 	    {
 	      Path file = zipFiles[i];
 	      LOG.debug("Opening zip file: "+file.toString());
+
+	      // List the entries from the central directory, which needs no decompression.  Only fall back to
+	      // walking the whole archive if it has no readable central directory (e.g. a truncated archive).
+	      List<ZipCentralDirectory.Entry> entries = null;
+	      FSDataInputStream is = fs.open(file);
+	      try {
+	    	  entries = ZipCentralDirectory.read(is, fs.getFileStatus(file).getLen());
+	      }
+	      catch (IOException e) {
+	    	  LOG.warn("Unable to read central directory of zip file ("+file+"), reading entries sequentially: "+e.getMessage());
+	      }
+	      finally {
+	    	  IOUtils.closeQuietly(is);
+	      }
+	      if (entries != null) {
+	    	  for (ZipCentralDirectory.Entry entry : entries) {
+	    		  if (maxEntryFiles!=null && splits.size()==maxEntryFiles.intValue()) {
+	    			    LOG.debug("Exceeded maximum number of splits.  End getSplits()");
+	    			    return splits;
+	    		  }
+	    		  if (entry.isDirectory()) continue;
+	    		  if (acceptEntry(entry.getName(), entry.getSize(), ignoreFilesLargerThanMB, processMimeTypes)) {
+	    			  LOG.debug("Creating split for zip entry: "+entry.getName()+
+		    				  	" Size: "+entry.getSize()+" Method: "+
+		    				  	(ZipEntry.DEFLATED == entry.getMethod() ? "DEFLATED" : "STORED")+
+		    				  	" Compressed Size: "+entry.getCompressedSize()+" Offset: "+entry.getLocalHeaderOffset());
+	    			  splits.add(new ZipEntrySplit(file, entry, context));
+	    		  }
+	    	  }
+	    	  continue;
+	      }
+
 	      try {
 	    	  zis = new ZipInputStream(fs.open(file));
 	    	  while ((zipEntry = zis.getNextEntry()) != null) 
@@ -335,36 +537,8 @@ public class ZipInputFormat extends FileInputFormat<Text, Text>
 	    			    return splits;
 	    		  }
 	    		  
-	    		  boolean processFile = true;
-	    		  
-	    		  if (processMimeTypes.size() > 0) 
-	    		  {
-	    			  // Ensure that if process mime types were specified, that entry
-	    			  // mime type meets that criteria
-	    			  String mimeType = fileNameMap.getContentTypeFor(zipEntry.getName());    		  
-	    			  if (mimeType==null || (!processMimeTypes.contains(mimeType.toLowerCase()))) {
-	    				  processFile = false;
-	    				  LOG.debug("Ignoring entry file ("+zipEntry.getName()+" mimeType("+mimeType+") not in process list");
-	    			  }
-	    		  }
-	    		  
 	    		  long byteCount = zipEntry.getSize();
-	    		  /*
-	    		  if (byteCount <= 0) {
-	    			  // Read entry and figure out size for ourselves
-	    			  byteCount = 0;
-	    			  while (zis.available()==1) {
-	    				  zis.read();
-	    				  ++byteCount;
-	    			  }
-	    		  }
-	    		  */
-	    		  if (ignoreFilesLargerThanMB!=null && byteCount > ignoreFilesLargerThanMB.intValue()) {
-	    			  processFile = false;
-	    			  LOG.debug("Ignoring entry file ("+zipEntry.getName()+") which exceeds size limit");
-	    		  }
-
-	    		  if (processFile) {
+	    		  if (acceptEntry(zipEntry.getName(), byteCount, ignoreFilesLargerThanMB, processMimeTypes)) {
 	    			  LOG.debug("Creating split for zip entry: "+zipEntry.getName()+
 	    				  	" Size: "+byteCount+" Method: "+
 	    				  	(ZipEntry.DEFLATED == zipEntry.getMethod() ? "DEFLATED" : "STORED")+
@@ -383,6 +557,26 @@ public class ZipInputFormat extends FileInputFormat<Text, Text>
 	    }		
 	    return splits;
 	}
+
+	private boolean acceptEntry(String name, long byteCount, Integer ignoreFilesLargerThanMB,
+			List<String> processMimeTypes)
+	{
+		if (processMimeTypes.size() > 0) 
+		{
+			// Ensure that if process mime types were specified, that entry
+			// mime type meets that criteria
+			String mimeType = fileNameMap.getContentTypeFor(name);    		  
+			if (mimeType==null || (!processMimeTypes.contains(mimeType.toLowerCase()))) {
+				LOG.debug("Ignoring entry file ("+name+" mimeType("+mimeType+") not in process list");
+				return false;
+			}
+		}
+		if (ignoreFilesLargerThanMB!=null && byteCount > ignoreFilesLargerThanMB.intValue()) {
+			LOG.debug("Ignoring entry file ("+name+") which exceeds size limit");
+			return false;
+		}
+		return true;
+	}
 	
 	@Override
 	public List<InputSplit> getSplits(JobContext context)
@@ -437,6 +631,12 @@ public class ZipInputFormat extends FileInputFormat<Text, Text>
 	    //  Get all entry zip splits
 	    List<ZipEntrySplit> splits = getZipFileEntries(context, fs, files, maxEntryFiles, ignoreFilesLargerThanMB, processMimeTypes);
 	    LOG.info("There are ("+splits.size()+") zip entry splits");
+
+	    long targetBytes = context.getConfiguration().getLong(TARGET_BYTES_PER_SPLIT, 0);
+	    if (targetBytes > 0) {
+	    	boolean compressed = context.getConfiguration().getBoolean(BALANCE_ON_COMPRESSED_SIZE, false);
+	    	return getBalancedSplits(fs, splits, targetBytes, compressed);
+	    }
 	    
 	    // Determine final number of combined zip entry splits
 	    ArrayList<InputSplit> finalSplits = new ArrayList<InputSplit>();
@@ -465,98 +665,145 @@ public class ZipInputFormat extends FileInputFormat<Text, Text>
 	    return finalSplits;
 	  }
 	
-	private static byte[] read(String entry, ZipInputStream zis, int numBytes)
+	/**
+	 * Group entries, in archive order, into MultiZipSplits of about <code>targetBytes</code> each, so map tasks
+	 * do a similar amount of work no matter how entry sizes vary.  An entry larger than the target gets a split
+	 * of its own.  Each split's hosts are those holding the most of its bytes, using the HDFS block containing
+	 * each entry.
+	 */
+	private List<InputSplit> getBalancedSplits(FileSystem fs, List<ZipEntrySplit> entries, long targetBytes,
+			boolean compressed)
+		throws IOException
 	{
-		byte[] data = new byte[numBytes];
-		int n=0;
-	    try {
-			while (zis.available()==1 && (n<numBytes)) {
-				data[n] = (byte) zis.read();
-				++n;
+		LOG.info("Grouping zip entries into splits of ("+targetBytes+") "+(compressed ? "compressed" : "uncompressed")+" bytes");
+		Map<Path, BlockLocation[]> blocks = new HashMap<Path, BlockLocation[]>();
+
+		ArrayList<InputSplit> finalSplits = new ArrayList<InputSplit>();
+		List<ZipEntrySplit> current = new ArrayList<ZipEntrySplit>();
+		Map<String, Long> hostBytes = new HashMap<String, Long>();
+		long currentBytes = 0;
+		for (ZipEntrySplit entry : entries) {
+			long bytes = Math.max(compressed && entry.getOffset() >= 0 ? entry.getCompressedSize() : entry.getLength(), 1L);
+			if (!current.isEmpty() && currentBytes + bytes > targetBytes) {
+				finalSplits.add(new MultiZipSplit(current, topHosts(hostBytes)));
+				LOG.info("\t MultiZipSplit entries("+current.size()+") bytes("+currentBytes+")");
+				current = new ArrayList<ZipEntrySplit>();
+				hostBytes.clear();
+				currentBytes = 0;
+			}
+			current.add(entry);
+			currentBytes += bytes;
+			for (String host : getEntryHosts(fs, blocks, entry)) {
+				Long sum = hostBytes.get(host);
+				hostBytes.put(host, (sum == null ? 0 : sum.longValue()) + bytes);
 			}
-		} 
-	    catch (IOException e) {
-	    	LOG.error("failure reading zip entry("+entry+")");
-			e.printStackTrace();
-			return null;
 		}
-		LOG.info("Read bytes("+n+") from entry ("+entry+")");
-		LOG.debug("Read value("+Bytes.toString(data)+") from entry ("+entry+")");
-		
-		return data;
+		if (!current.isEmpty()) {
+			finalSplits.add(new MultiZipSplit(current, topHosts(hostBytes)));
+			LOG.info("\t MultiZipSplit entries("+current.size()+") bytes("+currentBytes+")");
+		}
+		LOG.info("There will be ("+finalSplits.size()+") MultiZipSplit(s)");
+		return finalSplits;
 	}
 
-	private static byte[] read(String entry, ZipInputStream zis)
+	private static String[] getEntryHosts(FileSystem fs, Map<Path, BlockLocation[]> blocks, ZipEntrySplit entry)
+		throws IOException
 	{
-		ArrayList<byte[]> dataArray = new ArrayList<byte[]>();
-		byte[] current = null;
-		
-		int i=0;
-		int n=0;
-	    try {
-			while (zis.available()==1) {
-				if (n%bufSize == 0) {
-					current = new byte[bufSize];
-					dataArray.add(current);
-					i=0;
-				}
-				current[i] = (byte) zis.read();
-				++n; ++i;
+		BlockLocation[] fileBlocks = blocks.get(entry.getFile());
+		if (fileBlocks == null) {
+			FileStatus status = fs.getFileStatus(entry.getFile());
+			fileBlocks = fs.getFileBlockLocations(status, 0L, status.getLen());
+			blocks.put(entry.getFile(), fileBlocks);
+		}
+		long offset = Math.max(entry.getOffset(), 0L);
+		for (BlockLocation block : fileBlocks) {
+			if (offset >= block.getOffset() && offset < block.getOffset() + block.getLength()) {
+				return block.getHosts();
 			}
-		} 
-	    catch (IOException e) {
-	    	LOG.error("failure reading zip entry("+entry+")");
-			e.printStackTrace();
-			return null;
 		}
-	    --n;
+		return new String[0];
+	}
 
-	    // Copy multiple buffers into single large buffer
-	    byte[] data = new byte[n];
-	    i=0;
-	    for (byte[] buffer : dataArray) {
-	    	int copyLength = bufSize;
-	    	if ( (i+copyLength) > n) {
-	    		copyLength = n - i;
-	    	}
-	    	for (int j=0; j<copyLength; ++j) {
-	    		data[i] = buffer[j];
-	    		++i;
-	    	}
-	    }
-	    
-		LOG.info("Read bytes("+n+") from entry ("+entry+")");
-		LOG.debug("Read value("+Bytes.toString(data)+") from entry ("+entry+")");
-				
-		return data;
+	private static String[] topHosts(final Map<String, Long> hostBytes)
+	{
+		List<String> hosts = new ArrayList<String>(hostBytes.keySet());
+		Collections.sort(hosts, new Comparator<String>() {
+			public int compare(String a, String b) {
+				return hostBytes.get(b).compareTo(hostBytes.get(a));
+			}
+		});
+		hosts = hosts.subList(0, Math.min(hosts.size(), MAX_SPLIT_HOSTS));
+		return hosts.toArray(new String[hosts.size()]);
+	}
+	
+	/**
+	 * Open a stream over the uncompressed data of an entry.  Closing the stream closes the archive.
+	 *
+	 * @return the stream, or null if the entry is not in the archive
+	 */
+	public static InputStream openZipEntry(FileSystem fs, ZipEntrySplit zipSplit)
+		throws IOException
+	{
+		final FSDataInputStream is = fs.open(zipSplit.getFile());
+		if (zipSplit.getOffset() >= 0) {
+			// Seek directly to the entry rather than inflating every entry before it
+			InputStream entry = null;
+			try {
+				entry = ZipCentralDirectory.openEntry(is, zipSplit.getOffset(), zipSplit.getCompressedSize(), zipSplit.getMethod());
+			}
+			finally {
+				if (entry == null) IOUtils.closeQuietly(is);
+			}
+			return new FilterInputStream(entry) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					}
+					finally {
+						is.close();
+					}
+				}
+			};
+		}
+
+		ZipInputStream zis = new ZipInputStream(is);
+		ZipEntry zipEntry = zis.getNextEntry();
+		while (zipEntry != null && !zipEntry.getName().equals(zipSplit.getEntryPath())) {
+			zipEntry = zis.getNextEntry();
+		}
+		if (zipEntry == null) {
+			IOUtils.closeQuietly(zis);
+			return null;
+		}
+		return zis;
 	}
 
+	/**
+	 * Read a whole entry into memory
+	 *
+	 * @return the entry data, or null if the entry is not in the archive
+	 */
 	public static byte[] loadZipEntry(FileSystem fs, ZipEntrySplit zipSplit)
 		throws IOException
 	{
+		InputStream is = openZipEntry(fs, zipSplit);
+		if (is == null) return null;
+
 		byte[] data = null;
-		Path file = zipSplit.getFile();
-		String entryPath = zipSplit.getEntryPath();
-		
-		ZipInputStream zis=null;	
 		try {
-			zis = new ZipInputStream(fs.open(file));
-			ZipEntry zipEntry = zis.getNextEntry();
-			while (zipEntry != null && !zipEntry.getName().equals(entryPath)) {
-				zipEntry = zis.getNextEntry();
+			if (zipSplit.getLength() >= 0) {
+				data = new byte[(int)zipSplit.getLength()];
+				new DataInputStream(is).readFully(data);
 			}
-			if (zipEntry!=null) {
-				if (zipSplit.getLength() > 0) {
-					data = read(zipSplit.getEntryPath(), zis, (int)zipSplit.getLength());
-				}
-				else {
-					data = read(zipSplit.getEntryPath(), zis);
-				}
+			else {
+				data = IOUtils.toByteArray(is);
 			}
 		}
 		finally {
-			IOUtils.closeQuietly(zis);
-		}				
+			IOUtils.closeQuietly(is);
+		}
+		LOG.info("Read bytes("+data.length+") from entry ("+zipSplit.getEntryPath()+")");
 		return data;
 	}
 
@@ -20,8 +20,12 @@ import org.apache.log4j.Logger;
  * Thread which periodically reports to a hadoop {@link Reporter}. This is needed for long taking map/reduce-task which
  * do not write to the output collector, since hadoop kills task which do not write output or report their status for a
  * configured amount of time.
+ *
+ * @deprecated starts a thread per call; use {@link reconcile.hbase.mapreduce.TaskHeartbeat}, which is shared by the
+ *             whole task and also reports stuck records
  */
 
+@Deprecated
 @SuppressWarnings("rawtypes")
 public class ReportProgressThread
     extends Thread {
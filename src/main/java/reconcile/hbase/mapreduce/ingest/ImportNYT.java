@@ -16,8 +16,10 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.mapreduce.IdentityTableReducer;
 import org.apache.hadoop.hbase.mapreduce.TableMapReduceUtil;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
@@ -31,7 +33,13 @@ import org.apache.tools.tar.TarInputStream;
 
 import gov.llnl.text.util.FileUtils;
 
-import reconcile.hbase.mapreduce.annotation.ReportProgressThread;
+import reconcile.hbase.mapreduce.BulkLoad;
+import reconcile.hbase.mapreduce.JobConfig;
+import reconcile.hbase.mapreduce.TaskHeartbeat;
+import reconcile.hbase.mapreduce.parse.NYTDocumentColumns;
+import reconcile.hbase.mapreduce.parse.ParseNYT;
+import reconcile.hbase.mapreduce.parse.nyt.NYTCorpusDocument;
+import reconcile.hbase.mapreduce.parse.nyt.NYTCorpusDocumentParser;
 import reconcile.hbase.table.DocSchema;
 
 public class ImportNYT
@@ -42,6 +50,13 @@ static final Log LOG = LogFactory.getLog(ImportNYT.class);
 
 public static final String PARSER_SOURCE = "NYT_Parser_Source";
 
+/**
+ * Configuration flag to parse each document while importing it (single pass mode)
+ */
+public static final String PARSE_CONF = "ImportNYT.parse";
+
+public static final String PARSE_ARG = "-parse";
+
 /**
  *
  * @param args
@@ -49,6 +64,10 @@ public static final String PARSER_SOURCE = "NYT_Parser_Source";
  *          <ol>
  *          <li>HDFS path for list of input files (also in HDFS)
  *          <li>source name
+ *          <li>optional -parse to also parse each document and write its text:raw and meta columns in the same put,
+ *          instead of running ParseNYT as a second pass over the table
+ *          <li>optional -parser=stax to parse without building a DOM
+ *          <li>optional -bulkLoad=&lt;HDFS directory&gt; to write HFiles there and bulk load them into the table
  *          </ol>
  */
 public static void main(String[] args)
@@ -73,8 +92,20 @@ public ImportNYT() {
 public int run(String[] args)
 {
   String inputPath = args[0];
+  String bulkLoadDir = null;
   conf = HBaseConfiguration.create();
   conf.set(PARSER_SOURCE, args[1]);
+  for (int i = 2; i < args.length; i++) {
+    if (args[i].equals(PARSE_ARG)) {
+      conf.setBoolean(PARSE_CONF, true);
+    }
+    else if (args[i].startsWith(ParseNYT.PARSER_ARG)) {
+      conf.set(ParseNYT.PARSER_CONF, args[i].substring(ParseNYT.PARSER_ARG.length()));
+    }
+    else if (args[i].startsWith(JobConfig.BULK_LOAD_ARG)) {
+      bulkLoadDir = args[i].substring(JobConfig.BULK_LOAD_ARG.length());
+    }
+  }
   // important to switch spec exec off.
   // We don't want to have something duplicated.
   conf.set("mapred.map.tasks.speculative.execution", "false");
@@ -96,11 +127,18 @@ public int run(String[] args)
     // each line is 57 characters long, so if we extend a single character past we can get one line per map mostly?
     FileInputFormat.setMaxInputSplitSize(job, 38L);
 
-    TableMapReduceUtil.initTableReducerJob(tableName, IdentityTableReducer.class, job);
-    job.setNumReduceTasks(0);
+    if (bulkLoadDir != null) {
+      BulkLoad.configure(job, tableName, new Path(bulkLoadDir));
+    }
+    else {
+      TableMapReduceUtil.initTableReducerJob(tableName, IdentityTableReducer.class, job);
+      job.setNumReduceTasks(0);
+    }
 
     LOG.info("Started " + tableName);
-    job.waitForCompletion(true);
+    if (job.waitForCompletion(true)) {
+      BulkLoad.load(job.getConfiguration(), tableName);
+    }
     LOG.info("After map/reduce completion");
 
   }
@@ -113,7 +151,7 @@ public int run(String[] args)
 }
 
 public static class NYTMapper
-    extends Mapper<LongWritable, Text, Text, Text> {
+    extends Mapper<LongWritable, Text, ImmutableBytesWritable, Put> {
 
 private static final String XML_MIME_TYPE = "text/xml";
 
@@ -121,6 +159,12 @@ private DocSchema docTable;
 
 private String source;
 
+private NYTCorpusDocumentParser nytParser;
+
+private NYTDocumentColumns columns;
+
+private TaskHeartbeat heartbeat;
+
 // private JobConf mJobConf;
 
 // private static final Pattern pSpace = Pattern.compile("\\s");
@@ -147,7 +191,14 @@ public void setup(Context context)
   try {
     super.setup(context);
 
+    docTable.configureWrites(context);
     source = context.getConfiguration().get(PARSER_SOURCE, "NYT");
+    if (context.getConfiguration().getBoolean(PARSE_CONF, false)) {
+      nytParser = ParseNYT.createParser(context.getConfiguration());
+      columns = new NYTDocumentColumns();
+    }
+
+    heartbeat = TaskHeartbeat.acquire(context);
 
     context.getCounter("ImportNYT", "setup").increment(1L);
 
@@ -168,6 +219,12 @@ public void setup(Context context)
 protected void cleanup(Context context1)
     throws IOException, InterruptedException
 {
+  if (heartbeat != null) {
+    heartbeat.release();
+  }
+  if (columns != null) {
+    columns.flushCounters(context1);
+  }
   if (docTable != null) {
     docTable.close();
   }
@@ -177,10 +234,8 @@ public void map(LongWritable mapKey, Text path, Context context)
     throws IOException, InterruptedException
 {
   context.getCounter("ImportNYT", "map").increment(1L);
-  ReportProgressThread progress = null;
   try {
-    // start keep alive
-    progress = ReportProgressThread.start(context, 1000);
+    heartbeat.startRecord(path.toString());
 
     System.out.println("processing: '" + path.toString() + "'");
     String p = path.toString();
@@ -201,8 +256,10 @@ public void map(LongWritable mapKey, Text path, Context context)
         continue;
       }
       context.getCounter("ImportNYT", "import file").increment(1L);
-      String file = FileUtils.readFile(new BufferedReader(new InputStreamReader(tis)));
       String key = parent.getName() + tarEntry.getName();
+      // time each document of the archive separately
+      heartbeat.startRecord(key);
+      String file = FileUtils.readFile(new BufferedReader(new InputStreamReader(tis)));
       byte[] putKey = DigestUtils.shaHex(key).getBytes();
       Put put = new Put(putKey);
       DocSchema.add(put, DocSchema.srcCF, DocSchema.srcName, source);
@@ -212,6 +269,9 @@ public void map(LongWritable mapKey, Text path, Context context)
       DocSchema.add(put, DocSchema.textCF, DocSchema.textType, XML_MIME_TYPE);
       DocSchema.add(put, DocSchema.textCF, DocSchema.textOrig, file);
       DocSchema.addIngestDate(put);
+      if (nytParser != null) {
+        parse(put, file, context);
+      }
 
       // Load message entry
       context.getCounter("ImportNYT", "add").increment(1L);
@@ -225,14 +285,35 @@ public void map(LongWritable mapKey, Text path, Context context)
     e.printStackTrace();
   }
   finally {
-    if (progress != null) {
-      progress.interrupt();
-    }
+    heartbeat.endRecord();
   }
 
 }
 
-
+/**
+ * Add the parsed columns to the import put. A document which does not parse is still imported, so it can be
+ * re-parsed with ParseNYT.
+ */
+private void parse(Put put, String file, Context context)
+{
+  NYTCorpusDocument doc = null;
+  try {
+    doc = nytParser.parseNYTCorpusDocumentFromString(file, false);
+  }
+  catch (RuntimeException e) {
+    LOG.error("unable to parse (" + Bytes.toString(put.getRow()) + "): " + e.getMessage());
+  }
+  if (doc == null) {
+    context.getCounter("ImportNYT", "parse failed").increment(1L);
+    return;
+  }
+  if (columns.addColumns(put, doc)) {
+    context.getCounter("ImportNYT", "parse").increment(1L);
+  }
+  else {
+    context.getCounter("ImportNYT", "parse -- no column added").increment(1L);
+  }
+}
 
 }
 }
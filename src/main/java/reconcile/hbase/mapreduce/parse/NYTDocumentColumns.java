@@ -0,0 +1,494 @@
+package reconcile.hbase.mapreduce.parse;
+
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+import com.google.common.collect.Sets;
+
+import reconcile.hbase.mapreduce.parse.nyt.NYTCorpusDocument;
+import reconcile.hbase.table.DocSchema;
+
+/**
+ * Maps the fields of a parsed {@link NYTCorpusDocument} to doc table columns: the body to text:raw and the metadata to
+ * meta:* columns.
+ * <p>
+ * Each field is read by a fixed accessor, so adding the columns of a document is a direct call per field. The
+ * per-field counters are kept locally and only added to the job counters by {@link #flushCounters}, which should be
+ * called from the task's cleanup. Instances are not thread safe.
+ */
+public class NYTDocumentColumns {
+
+/**
+ * Reads one field of a document
+ */
+private abstract static class Field {
+
+  final String name;
+
+  Field(String name) {
+    this.name = name;
+  }
+
+  abstract Object get(NYTCorpusDocument doc);
+}
+
+/**
+ * Reads one list field of a document
+ */
+private abstract static class ListField {
+
+  final String name;
+
+  ListField(String name) {
+    this.name = name;
+  }
+
+  abstract List<String> get(NYTCorpusDocument doc);
+}
+
+/**
+ * A column holding the union of several list fields, one value per line
+ */
+private static class ListColumn {
+
+  final String column;
+
+  final ListField[] sources;
+
+  ListColumn(String column, ListField... sources) {
+    this.column = column;
+    this.sources = sources;
+  }
+}
+
+private static final ListColumn[] LIST_COLUMNS = {
+    new ListColumn("NYT_Organizations", new ListField("getOrganizations") {
+      @Override
+      List<String> get(NYTCorpusDocument doc)
+      {
+        return doc.getOrganizations();
+      }
+    }, new ListField("getOnlineOrganizations") {
+      @Override
+      List<String> get(NYTCorpusDocument doc)
+      {
+        return doc.getOnlineOrganizations();
+      }
+    }),
+    new ListColumn("NYT_People", new ListField("getOnlinePeople") {
+      @Override
+      List<String> get(NYTCorpusDocument doc)
+      {
+        return doc.getOnlinePeople();
+      }
+    }, new ListField("getPeople") {
+      @Override
+      List<String> get(NYTCorpusDocument doc)
+      {
+        return doc.getPeople();
+      }
+    }),
+    new ListColumn("NYT_Locations", new ListField("getLocations") {
+      @Override
+      List<String> get(NYTCorpusDocument doc)
+      {
+        return doc.getLocations();
+      }
+    }, new ListField("getOnlineLocations") {
+      @Override
+      List<String> get(NYTCorpusDocument doc)
+      {
+        return doc.getOnlineLocations();
+      }
+    }),
+    new ListColumn("NYT_Names", new ListField("getNames") {
+      @Override
+      List<String> get(NYTCorpusDocument doc)
+      {
+        return doc.getNames();
+      }
+    }),
+    new ListColumn("titles", new ListField("getTitles") {
+      @Override
+      List<String> get(NYTCorpusDocument doc)
+      {
+        return doc.getTitles();
+      }
+    }, new ListField("getOnlineTitles") {
+      @Override
+      List<String> get(NYTCorpusDocument doc)
+      {
+        return doc.getOnlineTitles();
+      }
+    }),
+    new ListColumn("typesOfMaterial", new ListField("getTypesOfMaterial") {
+      @Override
+      List<String> get(NYTCorpusDocument doc)
+      {
+        return doc.getTypesOfMaterial();
+      }
+    }),
+    new ListColumn("TaxonomicClassifiers", new ListField("getTaxonomicClassifiers") {
+      @Override
+      List<String> get(NYTCorpusDocument doc)
+      {
+        return doc.getTaxonomicClassifiers();
+      }
+    }),
+    new ListColumn("Descriptors", new ListField("getDescriptors") {
+      @Override
+      List<String> get(NYTCorpusDocument doc)
+      {
+        return doc.getDescriptors();
+      }
+    }, new ListField("getOnlineDescriptors") {
+      @Override
+      List<String> get(NYTCorpusDocument doc)
+      {
+        return doc.getOnlineDescriptors();
+      }
+    }),
+    new ListColumn("BiographicalCategories", new ListField("getBiographicalCategories") {
+      @Override
+      List<String> get(NYTCorpusDocument doc)
+      {
+        return doc.getBiographicalCategories();
+      }
+    }) };
+
+/**
+ * Single valued fields, stored in the meta column of the same name as their string value
+ */
+private static final Field[] SINGLE_COLUMNS = { new Field("AlternateURL") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getAlternateURL();
+  }
+}, new Field("ArticleAbstract") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getArticleAbstract();
+  }
+}, new Field("AuthorBiography") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getAuthorBiography();
+  }
+}, new Field("Banner") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getBanner();
+  }
+}, new Field("Byline") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getByline();
+  }
+}, new Field("ColumnName") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getColumnName();
+  }
+}, new Field("ColumnNumber") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getColumnNumber();
+  }
+}, new Field("CorrectionDate") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getCorrectionDate();
+  }
+}, new Field("CorrectionText") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getCorrectionText();
+  }
+}, new Field("Credit") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getCredit();
+  }
+}, new Field("Dateline") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getDateline();
+  }
+}, new Field("DayOfWeek") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getDayOfWeek();
+  }
+}, new Field("FeaturePage") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getFeaturePage();
+  }
+}, new Field("GeneralOnlineDescriptors") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getGeneralOnlineDescriptors();
+  }
+}, new Field("Headline") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getHeadline();
+  }
+}, new Field("Kicker") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getKicker();
+  }
+}, new Field("LeadParagraph") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getLeadParagraph();
+  }
+}, new Field("NewsDesk") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getNewsDesk();
+  }
+}, new Field("NormalizedByline") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getNormalizedByline();
+  }
+}, new Field("OnlineHeadline") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getOnlineHeadline();
+  }
+}, new Field("OnlineLeadParagraph") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getOnlineLeadParagraph();
+  }
+}, new Field("OnlineSection") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getOnlineSection();
+  }
+}, new Field("Page") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getPage();
+  }
+}, new Field("PublicationDate") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getPublicationDate();
+  }
+}, new Field("PublicationDayOfMonth") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getPublicationDayOfMonth();
+  }
+}, new Field("PublicationMonth") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getPublicationMonth();
+  }
+}, new Field("PublicationYear") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getPublicationYear();
+  }
+}, new Field("Section") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getSection();
+  }
+}, new Field("SeriesName") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getSeriesName();
+  }
+}, new Field("Slug") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getSlug();
+  }
+}, new Field("Url") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getUrl();
+  }
+}, new Field("WordCount") {
+  @Override
+  Object get(NYTCorpusDocument doc)
+  {
+    return doc.getWordCount();
+  }
+} };
+
+// local counters, indexed like the field tables
+private long guidAdded;
+
+private long bodyAdded;
+
+private long bodyNull;
+
+private final long[][] sourceAdded = new long[LIST_COLUMNS.length][];
+
+private final long[][] sourceNull = new long[LIST_COLUMNS.length][];
+
+private final long[] listAdded = new long[LIST_COLUMNS.length];
+
+private final long[] singleAdded = new long[SINGLE_COLUMNS.length];
+
+private final long[] singleEmpty = new long[SINGLE_COLUMNS.length];
+
+private final long[] singleNull = new long[SINGLE_COLUMNS.length];
+
+public NYTDocumentColumns() {
+  for (int i = 0; i < LIST_COLUMNS.length; i++) {
+    sourceAdded[i] = new long[LIST_COLUMNS[i].sources.length];
+    sourceNull[i] = new long[LIST_COLUMNS[i].sources.length];
+  }
+}
+
+/**
+ * Add the body as text:raw and the document metadata as meta:* columns
+ *
+ * @param put
+ * @param doc
+ * @return true if any metadata column was added
+ */
+public boolean addColumns(Put put, NYTCorpusDocument doc)
+{
+  boolean addedColumn = false;
+  int guid = doc.getGuid();
+  if (guid > 0) {
+    DocSchema.add(put, DocSchema.metaCF, "guid", String.valueOf(guid));
+    guidAdded++;
+    addedColumn = true;
+  }
+
+  String body = doc.getBody();
+  if (body != null && body.length() > 0) {
+    DocSchema.add(put, DocSchema.textCF, DocSchema.textRaw, body);
+    bodyAdded++;
+  }
+  else {
+    bodyNull++;
+  }
+
+  for (int i = 0; i < LIST_COLUMNS.length; i++) {
+    ListField[] sources = LIST_COLUMNS[i].sources;
+    Set<String> fullList = null;
+    for (int j = 0; j < sources.length; j++) {
+      List<String> list = sources[j].get(doc);
+      if (list == null) {
+        sourceNull[i][j]++;
+        continue;
+      }
+      sourceAdded[i][j]++;
+      if (fullList == null) {
+        fullList = Sets.newHashSet();
+      }
+      fullList.addAll(list);
+    }
+    if (fullList != null && fullList.size() > 0) {
+      DocSchema.add(put, DocSchema.metaCF, LIST_COLUMNS[i].column, toString(fullList));
+      listAdded[i]++;
+      addedColumn = true;
+    }
+  }
+
+  for (int i = 0; i < SINGLE_COLUMNS.length; i++) {
+    Object val = SINGLE_COLUMNS[i].get(doc);
+    if (val == null) {
+      singleNull[i]++;
+      continue;
+    }
+    String valStr = val.toString();
+    if (valStr.trim().equals("")) {
+      singleEmpty[i]++;
+      continue;
+    }
+    DocSchema.add(put, DocSchema.metaCF, SINGLE_COLUMNS[i].name, valStr);
+    singleAdded[i]++;
+    addedColumn = true;
+  }
+  return addedColumn;
+}
+
+private static String toString(Set<String> fullList)
+{
+  StringBuilder b = new StringBuilder();
+  for (String s : fullList) {
+    b.append(s.replaceAll("\\s+", " "));
+    b.append("\n");
+  }
+  return b.toString();
+}
+
+/**
+ * Add the counts accumulated since the last flush to the job counters
+ *
+ * @param context
+ */
+public void flushCounters(TaskInputOutputContext<?, ?, ?, ?> context)
+{
+  guidAdded = flush(context, "add", "guid", guidAdded);
+  bodyAdded = flush(context, "add", "--Body--", bodyAdded);
+  bodyNull = flush(context, "skip (null)", "--Body--", bodyNull);
+  for (int i = 0; i < LIST_COLUMNS.length; i++) {
+    ListField[] sources = LIST_COLUMNS[i].sources;
+    for (int j = 0; j < sources.length; j++) {
+      sourceAdded[i][j] = flush(context, "add collection", sources[j].name, sourceAdded[i][j]);
+      sourceNull[i][j] = flush(context, "null list obj", sources[j].name, sourceNull[i][j]);
+    }
+    listAdded[i] = flush(context, "add collection list", LIST_COLUMNS[i].column, listAdded[i]);
+  }
+  for (int i = 0; i < SINGLE_COLUMNS.length; i++) {
+    singleAdded[i] = flush(context, "add", SINGLE_COLUMNS[i].name, singleAdded[i]);
+    singleEmpty[i] = flush(context, "empty val", SINGLE_COLUMNS[i].name, singleEmpty[i]);
+    singleNull[i] = flush(context, "null val", SINGLE_COLUMNS[i].name, singleNull[i]);
+  }
+}
+
+private static long flush(TaskInputOutputContext<?, ?, ?, ?> context, String group, String name, long count)
+{
+  if (count > 0) {
+    context.getCounter(group, name).increment(count);
+  }
+  return 0;
+}
+
+}
@@ -2,37 +2,31 @@ package reconcile.hbase.mapreduce.parse;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.lang.reflect.Method;
-import java.util.Collection;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.filter.FilterList;
 import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.mapreduce.IdentityTableReducer;
 import org.apache.hadoop.hbase.mapreduce.TableMapReduceUtil;
 import org.apache.hadoop.hbase.mapreduce.TableMapper;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
-
-import gov.llnl.text.util.MapUtil;
-
-import reconcile.hbase.mapreduce.annotation.ReportProgressThread;
+import reconcile.hbase.mapreduce.BulkLoad;
+import reconcile.hbase.mapreduce.JobConfig;
+import reconcile.hbase.mapreduce.TaskHeartbeat;
 import reconcile.hbase.mapreduce.parse.nyt.NYTCorpusDocument;
 import reconcile.hbase.mapreduce.parse.nyt.NYTCorpusDocumentParser;
 import reconcile.hbase.table.DocSchema;
@@ -45,6 +39,73 @@ static final Log LOG = LogFactory.getLog(ParseNYT.class);
 
 public static final String NYT_PARSER_SOURCE = "NYT_Parser_Source";
 
+/**
+ * Configuration key selecting how documents are parsed: "dom" (default) or "stax", which parses in one streaming pass
+ * without building a DOM
+ */
+public static final String PARSER_CONF = "ParseNYT.parser";
+
+public static final String PARSER_ARG = "-parser=";
+
+public static final String STAX_PARSER = "stax";
+
+/**
+ * Configuration key: when true only rows without a text:raw column are parsed
+ */
+public static final String ONLY_UNPARSED_CONF = "ParseNYT.onlyUnparsed";
+
+public static final String ONLY_UNPARSED_ARG = "-onlyUnparsed";
+
+private static final String NYT_SOURCE = "NYT";
+
+/**
+ * Create a parser using the path selected by {@link #PARSER_CONF}
+ *
+ * @param conf
+ * @return
+ */
+public static NYTCorpusDocumentParser createParser(Configuration conf)
+{
+  NYTCorpusDocumentParser parser = new NYTCorpusDocumentParser();
+  parser.setUseStax(STAX_PARSER.equalsIgnoreCase(conf.get(PARSER_CONF, "dom")));
+  return parser;
+}
+
+/**
+ * Create the scan for the job. Only src:name and text:orig are returned, and rows from other sources are dropped by
+ * the region servers rather than in the mapper.
+ *
+ * @param onlyUnparsed
+ *          also drop rows which already have a text:raw column
+ * @return
+ */
+public static Scan createScan(boolean onlyUnparsed)
+{
+  Scan scan = new Scan();
+  scan.addColumn(DocSchema.srcCF.getBytes(), DocSchema.srcName.getBytes());
+  scan.addColumn(DocSchema.textCF.getBytes(), DocSchema.textOrig.getBytes());
+
+  SingleColumnValueFilter sourceFilter = new SingleColumnValueFilter(DocSchema.srcCF.getBytes(), DocSchema.srcName
+      .getBytes(), CompareOp.EQUAL, NYT_SOURCE.getBytes());
+  sourceFilter.setFilterIfMissing(true);
+  if (!onlyUnparsed) {
+    scan.setFilter(sourceFilter);
+    return scan;
+  }
+
+  // the filter only sees columns in the scan, so text:raw has to be requested; rows which have it are dropped
+  // whole, so it is never actually returned
+  scan.addColumn(DocSchema.textCF.getBytes(), DocSchema.textRaw.getBytes());
+  SingleColumnValueFilter unparsedFilter = new SingleColumnValueFilter(DocSchema.textCF.getBytes(), DocSchema.textRaw
+      .getBytes(), CompareOp.EQUAL, new byte[0]);
+  unparsedFilter.setFilterIfMissing(false);
+  FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL);
+  filters.addFilter(sourceFilter);
+  filters.addFilter(unparsedFilter);
+  scan.setFilter(filters);
+  return scan;
+}
+
 // private static final DateFormat formatId = new SimpleDateFormat("yyyy-MM-dd_HH_mm_ss.SSS");
 
 /**
@@ -54,6 +115,9 @@ public static final String NYT_PARSER_SOURCE = "NYT_Parser_Source";
  *          <ol>
  *          <li>HDFS path for list of input files (also in HDFS)
  *          <li>source name
+ *          <li>optional -parser=stax to parse without building a DOM
+ *          <li>optional -onlyUnparsed to skip documents which already have a text:raw column
+ *          <li>optional -bulkLoad=&lt;HDFS directory&gt; to write HFiles there and bulk load them into the table
  *          </ol>
  */
 public static void main(String[] args)
@@ -81,6 +145,18 @@ public int run(String[] args)
   // important to switch spec exec off.
   // We don't want to have something duplicated.
   conf.set("mapred.map.tasks.speculative.execution", "false");
+  String bulkLoadDir = null;
+  for (String arg : args) {
+    if (arg.startsWith(PARSER_ARG)) {
+      conf.set(PARSER_CONF, arg.substring(PARSER_ARG.length()));
+    }
+    else if (arg.equals(ONLY_UNPARSED_ARG)) {
+      conf.setBoolean(ONLY_UNPARSED_CONF, true);
+    }
+    else if (arg.startsWith(JobConfig.BULK_LOAD_ARG)) {
+      bulkLoadDir = arg.substring(JobConfig.BULK_LOAD_ARG.length());
+    }
+  }
 
   try {
 
@@ -88,21 +164,22 @@ public int run(String[] args)
     LOG.info("Before map/reduce startup");
     job = new Job(conf, "Parse NYT");
     job.setJarByClass(ParseNYT.class);
-    Scan scan = new Scan();
-    scan.addColumn(DocSchema.srcCF.getBytes(), DocSchema.srcName.getBytes());
-    scan.addFamily(DocSchema.textCF.getBytes());
-    scan
-.setFilter(new SingleColumnValueFilter(DocSchema.srcCF.getBytes(), DocSchema.srcName.getBytes(),
-        CompareOp.EQUAL, "NYT"
-        .getBytes()));
+    Scan scan = createScan(conf.getBoolean(ONLY_UNPARSED_CONF, false));
 
     TableMapReduceUtil.initTableMapperJob(tableName, scan, NYTParserMapper.class, ImmutableBytesWritable.class,
         Put.class, job);
-    TableMapReduceUtil.initTableReducerJob(tableName, IdentityTableReducer.class, job);
-    job.setNumReduceTasks(0);
+    if (bulkLoadDir != null) {
+      BulkLoad.configure(job, tableName, new Path(bulkLoadDir));
+    }
+    else {
+      TableMapReduceUtil.initTableReducerJob(tableName, IdentityTableReducer.class, job);
+      job.setNumReduceTasks(0);
+    }
 
     LOG.info("Started " + tableName);
-    job.waitForCompletion(true);
+    if (job.waitForCompletion(true)) {
+      BulkLoad.load(job.getConfiguration(), tableName);
+    }
     LOG.info("After map/reduce completion");
 
   }
@@ -119,8 +196,12 @@ public static class NYTParserMapper
 
 NYTCorpusDocumentParser nytParser;
 
+private NYTDocumentColumns columns;
+
 private DocSchema docTable;
 
+private TaskHeartbeat heartbeat;
+
 /**
  * put the original text into the doc table
  */
@@ -135,8 +216,13 @@ public void setup(Context context)
     super.setup(context);
 
     docTable = new DocSchema(tableName);
+    docTable.configureWrites(context);
 
-    nytParser = new NYTCorpusDocumentParser();
+    nytParser = createParser(context.getConfiguration());
+
+    columns = new NYTDocumentColumns();
+
+    heartbeat = TaskHeartbeat.acquire(context);
 
     context.getCounter("Parse NYT", "setup").increment(1L);
 
@@ -157,6 +243,12 @@ public void setup(Context context)
 protected void cleanup(Context context1)
     throws IOException, InterruptedException
 {
+  if (heartbeat != null) {
+    heartbeat.release();
+  }
+  if (columns != null) {
+    columns.flushCounters(context1);
+  }
   if (docTable != null) {
     docTable.flushCommits();
     docTable.close();
@@ -169,15 +261,12 @@ public void map(ImmutableBytesWritable mapKey, Result row, Context context)
 {
 
   String src = DocSchema.getColumn(row, DocSchema.srcCF, DocSchema.srcName);
-  if (src == null || !src.equals("NYT")) {
+  if (src == null || !src.equals(NYT_SOURCE)) {
     context.getCounter("Parse NYT", "skip -- not NYT: " + src).increment(1L);
     return;
   }
-  ReportProgressThread progress = null;
   try {
-
-    // start keep alive
-    progress = ReportProgressThread.start(context, 1000);
+    heartbeat.startRecord(Bytes.toString(row.getRow()));
     context.getCounter("Parse NYT", "map").increment(1L);
 
     String orig = DocSchema.getColumn(row, DocSchema.textCF, DocSchema.textOrig);
@@ -187,8 +276,12 @@ public void map(ImmutableBytesWritable mapKey, Result row, Context context)
     }
 
     NYTCorpusDocument doc = nytParser.parseNYTCorpusDocumentFromString(orig, false);
+    if (doc == null) {
+      context.getCounter("Parse NYT", "skip -- parse failed").increment(1L);
+      return;
+    }
     Put put = new Put(row.getRow());
-    boolean addColumn = addColumns(put, doc, context);
+    boolean addColumn = columns.addColumns(put, doc);
 
     // System.out.println("processing file: " + f.getAbsolutePath());
       if (addColumn) {
@@ -206,136 +299,10 @@ public void map(ImmutableBytesWritable mapKey, Result row, Context context)
     e.printStackTrace();
   }
   finally {
-    if (progress != null) {
-      progress.interrupt();
-    }
+    heartbeat.endRecord();
   }
 }
 
-@SuppressWarnings({ "rawtypes", "unchecked" })
-private boolean addColumns(Put put, NYTCorpusDocument doc, Context context)
-{
-  boolean addedColumn = false;
-  int guid = doc.getGuid();
-  if (guid > 0) {
-    DocSchema.add(put, DocSchema.metaCF, "guid", String.valueOf(guid));
-    context.getCounter("add", "guid").increment(1L);
-    addedColumn = true;
-  }
-
-  String body = doc.getBody();
-  if (body != null && body.length() > 0) {
-    DocSchema.add(put, DocSchema.textCF, DocSchema.textRaw, body);
-    context.getCounter("add", "--Body--").increment(1L);
-  }
-  else {
-    context.getCounter("skip (null)", "--Body--").increment(1L);
-  }
-
-  for (String key : functionMap.keySet()) {
-    Set<String> vals = functionMap.get(key);
-    Set<String> fullList = Sets.newHashSet();
-    for (String val : vals) {
-      try {
-        Method m = doc.getClass().getMethod(val, (Class[]) null);
-        Object listObj = m.invoke(doc, (Object[]) null);
-        if (listObj != null) {
-          if (listObj instanceof Collection) {
-            context.getCounter("add collection", val).increment(1L);
-            fullList.addAll((Collection)listObj);
-          }
-          else {
-            context.getCounter("not a collection", val).increment(1L);
-          }
-        }
-        else {
-          context.getCounter("null list obj", val).increment(1L);
-        }
-      }
-      catch (Exception e) {
-        e.printStackTrace();
-        throw new RuntimeException(e);
-      }
-    }
-    if (fullList.size() > 0) {
-      DocSchema.add(put, DocSchema.metaCF, key, toString(fullList));
-      context.getCounter("add collection list", key).increment(1L);
-      addedColumn = true;
-    }
-  }
-
-  for (String key : singleItemfunctionList) {
-    String name = key.substring("get".length());
-    try {
-      Method m = doc.getClass().getMethod(key, (Class[]) null);
-      Object val = m.invoke(doc, (Object[]) null);
-      if (val != null) {
-        String valStr = val.toString();
-        if (!valStr.trim().equals("")) {
-          DocSchema.add(put, DocSchema.metaCF, name, valStr);
-          context.getCounter("add", name).increment(1L);
-          addedColumn = true;
-        }
-        else {
-          context.getCounter("empty val", name).increment(1L);
-        }
-      }
-      else {
-        context.getCounter("null val", name).increment(1L);
-      }
-    }
-    catch (Exception e) {
-      e.printStackTrace();
-      throw new RuntimeException(e);
-    }
-  }
-  return addedColumn;
-}
-
-private String toString(Set<String> fullList)
-{
-  StringBuilder b = new StringBuilder();
-  for (String s : fullList) {
-    b.append(s.replaceAll("\\s+", " "));
-    b.append("\n");
-  }
-  return b.toString();
-}
-
-private static List<String> singleItemfunctionList = Lists.newArrayList("getAlternateURL", "getArticleAbstract",
-    "getAuthorBiography", "getBanner", "getByline", "getColumnName", "getColumnNumber", "getCorrectionDate",
-    "getCorrectionText", "getCredit", "getDateline", "getDayOfWeek", "getFeaturePage", "getGeneralOnlineDescriptors",
-    "getHeadline", "getKicker", "getLeadParagraph", "getNewsDesk", "getNormalizedByline", "getOnlineHeadline",
-    "getOnlineLeadParagraph", "getOnlineSection", "getPage", "getPublicationDate", "getPublicationDayOfMonth",
-    "getPublicationMonth", "getPublicationYear", "getSection", "getSeriesName", "getSlug", "getUrl", "getWordCount");
-
-private static Map<String, Set<String>> functionMap = Maps.newHashMap();
-static {
-  MapUtil.addToMapSet(functionMap, "NYT_Organizations", "getOrganizations");
-  MapUtil.addToMapSet(functionMap, "NYT_Organizations", "getOnlineOrganizations");
-
-  MapUtil.addToMapSet(functionMap, "NYT_People", "getOnlinePeople");
-  MapUtil.addToMapSet(functionMap, "NYT_People", "getPeople");
-
-  MapUtil.addToMapSet(functionMap, "NYT_Locations", "getLocations");
-  MapUtil.addToMapSet(functionMap, "NYT_Locations", "getOnlineLocations");
-
-  MapUtil.addToMapSet(functionMap, "NYT_Names", "getNames");
-
-  MapUtil.addToMapSet(functionMap, "titles", "getTitles");
-  MapUtil.addToMapSet(functionMap, "titles", "getOnlineTitles");
-
-  MapUtil.addToMapSet(functionMap, "typesOfMaterial", "getTypesOfMaterial");
-
-  MapUtil.addToMapSet(functionMap, "TaxonomicClassifiers", "getTaxonomicClassifiers");
-  MapUtil.addToMapSet(functionMap, "Descriptors", "getDescriptors");
-  MapUtil.addToMapSet(functionMap, "Descriptors", "getOnlineDescriptors");
-  MapUtil.addToMapSet(functionMap, "BiographicalCategories", "getBiographicalCategories");
-}
-
-
-
-
 }
 
 }
@@ -21,6 +21,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -34,6 +35,10 @@ import java.util.List;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.tools.ant.filters.StringInputStream;
 import org.w3c.dom.Document;
@@ -65,6 +70,25 @@ public class NYTCorpusDocumentParser {
 	/** NITF Constant */
 private DateFormat format = new SimpleDateFormat("yyyyMMdd'T'HHmmss");
 
+	/**
+	 * StAX factories are expensive to look up and create, so each thread keeps one. DTDs are not loaded, which is
+	 * what stripping the doctype declaration achieves for the DOM path.
+	 */
+	private static final ThreadLocal<XMLInputFactory> staxFactory = new ThreadLocal<XMLInputFactory>() {
+		@Override
+		protected XMLInputFactory initialValue() {
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+			factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+			factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+			// one event per text node, as in the DOM
+			factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+			return factory;
+		}
+	};
+
+	private boolean useStax = false;
+
 	/** NITF Constant */
 	private static final String TAGLINE_TAG = "tagline";
 
@@ -297,6 +321,7 @@ public NYTCorpusDocument parseNYTCorpusDocumentFromString(String str, boolean va
 {
 
   if (str == null) return null;
+  if (useStax && !validating) return parseNYTCorpusDocumentFromStax(str);
   Document document = null;
   if (validating) {
     document = loadValidatingStr(str);
@@ -307,6 +332,21 @@ public NYTCorpusDocument parseNYTCorpusDocumentFromString(String str, boolean va
   return parseNYTCorpusDocumentFromDOMDocument(document);
 }
 
+/**
+ * Use the StAX parser, rather than building a DOM, for non-validating string parses
+ *
+ * @param useStax
+ */
+public void setUseStax(boolean useStax)
+{
+  this.useStax = useStax;
+}
+
+public boolean isUseStax()
+{
+  return useStax;
+}
+
   public NYTCorpusDocument parseNYTCorpusDocumentFromDOMDocument(File file, Document document)
 {
   NYTCorpusDocument ldcDocument = new NYTCorpusDocument();
@@ -506,8 +546,15 @@ public NYTCorpusDocument parseNYTCorpusDocumentFromDOMDocument(Document document
 	}
 
 	private void handlePubdata(Node node, NYTCorpusDocument ldcDocument) {
-		String publicationDateString = getAttributeValue(node,
-				DATE_PUBLICATION_ATTRIBUTE);
+		handlePubdata(getAttributeValue(node, DATE_PUBLICATION_ATTRIBUTE),
+				getAttributeValue(node, EX_REF_ATTRIBUTE),
+				getAttributeValue(node, ITEM_LENGTH_ATTRIBUTE),
+				getAttributeValue(node, NAME_ATTRIBUTE), ldcDocument);
+	}
+
+	private void handlePubdata(String publicationDateString, String urlString,
+			String wordCountString, String creatorString,
+			NYTCorpusDocument ldcDocument) {
 		if (publicationDateString != null) {
 			try {
 				Date date = format.parse(publicationDateString);
@@ -521,7 +568,6 @@ public NYTCorpusDocument parseNYTCorpusDocumentFromDOMDocument(Document document
 
 		}
 
-		String urlString = getAttributeValue(node, EX_REF_ATTRIBUTE);
 		if (urlString != null) {
 			try {
 				URL url = new URL(urlString);
@@ -533,7 +579,6 @@ public NYTCorpusDocument parseNYTCorpusDocumentFromDOMDocument(Document document
 			}
 		}
 
-		String wordCountString = getAttributeValue(node, ITEM_LENGTH_ATTRIBUTE);
 		if (wordCountString != null) {
 			try {
 				Integer wordCount = Integer.parseInt(wordCountString);
@@ -546,7 +591,6 @@ public NYTCorpusDocument parseNYTCorpusDocumentFromDOMDocument(Document document
 			}
 		}
 
-		String creatorString = getAttributeValue(node, NAME_ATTRIBUTE);
 		if (creatorString != null) {
 			ldcDocument.setCredit(creatorString);
 		}
@@ -560,63 +604,72 @@ public NYTCorpusDocument parseNYTCorpusDocumentFromDOMDocument(Document document
 			Node child = children.item(i);
 			String name = child.getNodeName();
 			String value = getAllText(child).trim();
-			String classAttribute = getAttributeValue(child, CLASS_ATTRIBUTE);
-
-			if (name.equals(CLASSIFIER_TAG)) {
-				String typeAttribute = getAttributeValue(child, TYPE_ATTRIBUTE);
-				if (classAttribute.equals(INDEXING_SERVICE_ATTRIBUTE)) {
-					if (typeAttribute.equals(DESCRIPTOR_ATTRIBUTE)) {
-						ldcDocument.getDescriptors().add(value);
-					} else if (typeAttribute
-							.equals(BIOGRAPHICAL_CATEGORIES_ATTRIBUTE)) {
-						ldcDocument.getBiographicalCategories().add(value);
-					} else if (typeAttribute.equals(NAMES_ATTRIBUTE)) {
-						ldcDocument.getNames().add(value);
-					}
-				} else if (classAttribute.equals(ONLINE_PRODUCER_ATTRIBUTE)) {
-					if (typeAttribute.equals(DESCRIPTOR_ATTRIBUTE)) {
-						ldcDocument.getOnlineDescriptors().add(value);
-					} else if (typeAttribute
-							.equals(GENERAL_DESCRIPTOR_ATTRIBUTE)) {
-						ldcDocument.getGeneralOnlineDescriptors().add(value);
-					} else if (typeAttribute
-							.equals(TAXONOMIC_CLASSIFIER_ATTRIBUTE)) {
-						ldcDocument.getTaxonomicClassifiers().add(value);
-					} else if (typeAttribute
-							.equals(TYPES_OF_MATERIAL_ATTRIBUTE)) {
-						ldcDocument.getTypesOfMaterial().add(value);
-					}
-				}
-			} else if (name.equals(LOCATION_TAG)) {
-				if (classAttribute.equals(INDEXING_SERVICE_ATTRIBUTE)) {
-					ldcDocument.getLocations().add(value);
-				} else if (classAttribute.equals(ONLINE_PRODUCER_ATTRIBUTE)) {
-					ldcDocument.getOnlineLocations().add(value);
-				}
-			} else if (name.equals(OBJECT_TITLE_TAG)) {
-				if (classAttribute.equals(INDEXING_SERVICE_ATTRIBUTE)) {
-					ldcDocument.getTitles().add(value);
-				} else if (classAttribute.equals(ONLINE_PRODUCER_ATTRIBUTE)) {
-					ldcDocument.getOnlineTitles().add(value);
-				}
-			} else if (name.equals(ORGANIZATION_TAG)) {
-				if (classAttribute.equals(INDEXING_SERVICE_ATTRIBUTE)) {
-					ldcDocument.getOrganizations().add(value);
-				} else if (classAttribute.equals(ONLINE_PRODUCER_ATTRIBUTE)) {
-					ldcDocument.getOnlineOrganizations().add(value);
+			handleIdentifiedContent(name,
+					getAttributeValue(child, CLASS_ATTRIBUTE),
+					getAttributeValue(child, TYPE_ATTRIBUTE), value, ldcDocument);
+		}
+	}
+
+	private void handleIdentifiedContent(String name, String classAttribute,
+			String typeAttribute, String value, NYTCorpusDocument ldcDocument) {
+		if (classAttribute == null) return;
+		if (name.equals(CLASSIFIER_TAG)) {
+			if (typeAttribute == null) return;
+			if (classAttribute.equals(INDEXING_SERVICE_ATTRIBUTE)) {
+				if (typeAttribute.equals(DESCRIPTOR_ATTRIBUTE)) {
+					ldcDocument.getDescriptors().add(value);
+				} else if (typeAttribute
+						.equals(BIOGRAPHICAL_CATEGORIES_ATTRIBUTE)) {
+					ldcDocument.getBiographicalCategories().add(value);
+				} else if (typeAttribute.equals(NAMES_ATTRIBUTE)) {
+					ldcDocument.getNames().add(value);
 				}
-			} else if (name.equals(PERSON_TAG)) {
-				if (classAttribute.equals(INDEXING_SERVICE_ATTRIBUTE)) {
-					ldcDocument.getPeople().add(value);
-				} else if (classAttribute.equals(ONLINE_PRODUCER_ATTRIBUTE)) {
-					ldcDocument.getOnlinePeople().add(value);
+			} else if (classAttribute.equals(ONLINE_PRODUCER_ATTRIBUTE)) {
+				if (typeAttribute.equals(DESCRIPTOR_ATTRIBUTE)) {
+					ldcDocument.getOnlineDescriptors().add(value);
+				} else if (typeAttribute
+						.equals(GENERAL_DESCRIPTOR_ATTRIBUTE)) {
+					ldcDocument.getGeneralOnlineDescriptors().add(value);
+				} else if (typeAttribute
+						.equals(TAXONOMIC_CLASSIFIER_ATTRIBUTE)) {
+					ldcDocument.getTaxonomicClassifiers().add(value);
+				} else if (typeAttribute
+						.equals(TYPES_OF_MATERIAL_ATTRIBUTE)) {
+					ldcDocument.getTypesOfMaterial().add(value);
 				}
 			}
+		} else if (name.equals(LOCATION_TAG)) {
+			if (classAttribute.equals(INDEXING_SERVICE_ATTRIBUTE)) {
+				ldcDocument.getLocations().add(value);
+			} else if (classAttribute.equals(ONLINE_PRODUCER_ATTRIBUTE)) {
+				ldcDocument.getOnlineLocations().add(value);
+			}
+		} else if (name.equals(OBJECT_TITLE_TAG)) {
+			if (classAttribute.equals(INDEXING_SERVICE_ATTRIBUTE)) {
+				ldcDocument.getTitles().add(value);
+			} else if (classAttribute.equals(ONLINE_PRODUCER_ATTRIBUTE)) {
+				ldcDocument.getOnlineTitles().add(value);
+			}
+		} else if (name.equals(ORGANIZATION_TAG)) {
+			if (classAttribute.equals(INDEXING_SERVICE_ATTRIBUTE)) {
+				ldcDocument.getOrganizations().add(value);
+			} else if (classAttribute.equals(ONLINE_PRODUCER_ATTRIBUTE)) {
+				ldcDocument.getOnlineOrganizations().add(value);
+			}
+		} else if (name.equals(PERSON_TAG)) {
+			if (classAttribute.equals(INDEXING_SERVICE_ATTRIBUTE)) {
+				ldcDocument.getPeople().add(value);
+			} else if (classAttribute.equals(ONLINE_PRODUCER_ATTRIBUTE)) {
+				ldcDocument.getOnlinePeople().add(value);
+			}
 		}
 	}
 
 	private void handleDocumentIdNode(NYTCorpusDocument ldcDocument, Node child) {
-		String docIdString = getAttributeValue(child, ID_STRING_ATTRIBUTE);
+		handleDocumentId(ldcDocument, getAttributeValue(child, ID_STRING_ATTRIBUTE));
+	}
+
+	private void handleDocumentId(NYTCorpusDocument ldcDocument, String docIdString) {
 		if (docIdString != null) {
 			try {
 				ldcDocument.setGuid(Integer.parseInt(docIdString));
@@ -638,6 +691,11 @@ public NYTCorpusDocument parseNYTCorpusDocumentFromDOMDocument(Document document
 		String name = attributes.getNamedItem(NAME_ATTRIBUTE).getNodeValue();
 		String content = attributes.getNamedItem(CONTENT_ATTRIBUTE)
 				.getNodeValue();
+		handleMeta(name, content, ldcDocument);
+	}
+
+	private void handleMeta(String name, String content, NYTCorpusDocument ldcDocument) {
+		if (name == null || content == null) return;
 		try {
 			if (name.equals(DSK_ATTRIBUTE)) {
 				ldcDocument.setNewsDesk(content);
@@ -931,7 +989,10 @@ private Document getDOMObjectStr(String file, boolean validating)
 				sb.append(getAllText(child).trim() + "\n");
 			}
 		}
+		return blockText(sb);
+	}
 
+	private String blockText(StringBuffer sb) {
 		if (sb.length() > 0) {
 			sb.setLength(sb.length() - 1);
 			String returnVal = sb.toString();
@@ -940,6 +1001,256 @@ private Document getDOMObjectStr(String file, boolean validating)
 		return null;
 	}
 
+	/**
+	 * Parse a document in one forward pass over a StAX stream, without building a DOM. Fills the same fields as
+	 * {@link #parseNYTCorpusDocumentFromDOMDocument(Document)}, with the same text normalization.
+	 *
+	 * @param str
+	 *            A string containing an NITF document.
+	 * @return The parsed document, or null if an error occurs.
+	 */
+	public NYTCorpusDocument parseNYTCorpusDocumentFromStax(String str) {
+		XMLStreamReader reader = null;
+		try {
+			reader = staxFactory.get().createXMLStreamReader(new StringReader(str));
+			NYTCorpusDocument ldcDocument = new NYTCorpusDocument();
+			while (reader.hasNext()) {
+				if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+					if (reader.getLocalName().equals(NITF_TAG)) {
+						staxNITF(reader, ldcDocument);
+					} else {
+						skipElement(reader);
+					}
+				}
+			}
+			return ldcDocument;
+		} catch (XMLStreamException e) {
+			e.printStackTrace();
+			System.out.println("Exception processing string");
+			return null;
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (XMLStreamException e) {
+					// nothing to release for a string source
+				}
+			}
+		}
+	}
+
+	/*
+	 * Each stax method is called with the reader on the start of its element and returns with the reader on the
+	 * end of it.
+	 */
+
+	private void staxNITF(XMLStreamReader reader, NYTCorpusDocument ldcDocument) throws XMLStreamException {
+		while (nextChild(reader)) {
+			String name = reader.getLocalName();
+			if (name.equals(HEAD_TAG)) {
+				staxHead(reader, ldcDocument);
+			} else if (name.equals(BODY_TAG)) {
+				staxBody(reader, ldcDocument);
+			} else {
+				skipElement(reader);
+			}
+		}
+	}
+
+	private void staxHead(XMLStreamReader reader, NYTCorpusDocument ldcDocument) throws XMLStreamException {
+		while (nextChild(reader)) {
+			String name = reader.getLocalName();
+			if (name.equals(META_TAG)) {
+				handleMeta(reader.getAttributeValue(null, NAME_ATTRIBUTE),
+						reader.getAttributeValue(null, CONTENT_ATTRIBUTE), ldcDocument);
+				skipElement(reader);
+			} else if (name.equals(DOCDATA_TAG)) {
+				staxDocdata(reader, ldcDocument);
+			} else if (name.equals(PUBDATA_TAG)) {
+				handlePubdata(reader.getAttributeValue(null, DATE_PUBLICATION_ATTRIBUTE),
+						reader.getAttributeValue(null, EX_REF_ATTRIBUTE),
+						reader.getAttributeValue(null, ITEM_LENGTH_ATTRIBUTE),
+						reader.getAttributeValue(null, NAME_ATTRIBUTE), ldcDocument);
+				skipElement(reader);
+			} else {
+				skipElement(reader);
+			}
+		}
+	}
+
+	private void staxDocdata(XMLStreamReader reader, NYTCorpusDocument ldcDocument) throws XMLStreamException {
+		while (nextChild(reader)) {
+			String name = reader.getLocalName();
+			if (name.equals(DOC_ID_TAG)) {
+				handleDocumentId(ldcDocument, reader.getAttributeValue(null, ID_STRING_ATTRIBUTE));
+				skipElement(reader);
+			} else if (name.equals(SERIES_TAG)) {
+				ldcDocument.setKicker(reader.getAttributeValue(null, SERIES_NAME_TAG));
+				skipElement(reader);
+			} else if (name.equals(IDENTIFIED_CONTENT_TAG)) {
+				while (nextChild(reader)) {
+					String childName = reader.getLocalName();
+					String classAttribute = reader.getAttributeValue(null, CLASS_ATTRIBUTE);
+					String typeAttribute = reader.getAttributeValue(null, TYPE_ATTRIBUTE);
+					handleIdentifiedContent(childName, classAttribute, typeAttribute,
+							allText(reader).trim(), ldcDocument);
+				}
+			} else {
+				skipElement(reader);
+			}
+		}
+	}
+
+	private void staxBody(XMLStreamReader reader, NYTCorpusDocument ldcDocument) throws XMLStreamException {
+		while (nextChild(reader)) {
+			String name = reader.getLocalName();
+			if (name.equals(BODY_HEAD_TAG)) {
+				staxBodyHead(reader, ldcDocument);
+			} else if (name.equals(BODY_CONTENT_TAG)) {
+				staxBodyContent(reader, ldcDocument);
+			} else if (name.equals(BODY_END_TAG)) {
+				staxBodyEnd(reader, ldcDocument);
+			} else {
+				skipElement(reader);
+			}
+		}
+	}
+
+	private void staxBodyHead(XMLStreamReader reader, NYTCorpusDocument ldcDocument) throws XMLStreamException {
+		while (nextChild(reader)) {
+			String name = reader.getLocalName();
+			if (name.equals(DATELINE_TAG)) {
+				ldcDocument.setDateline(allText(reader).trim());
+			} else if (name.equals(ABSTRACT_TAG)) {
+				while (nextChild(reader)) {
+					if (reader.getLocalName().equals(P_TAG)) {
+						ldcDocument.setArticleAbstract(allText(reader).trim());
+					} else {
+						skipElement(reader);
+					}
+				}
+			} else if (name.equals(BYLINE_TAG)) {
+				String classAttribute = reader.getAttributeValue(null, CLASS_ATTRIBUTE);
+				String text = allText(reader).trim();
+				if (classAttribute != null) {
+					if (classAttribute.equals(NORMALIZED_BYLINE_ATTRIBUTE)) {
+						ldcDocument.setNormalizedByline(text);
+					} else if (classAttribute.equals(PRINT_BYLINE_ATTRIBUTE)) {
+						ldcDocument.setByline(text);
+					}
+				}
+			} else if (name.equals(HEDLINE_TAG)) {
+				while (nextChild(reader)) {
+					String childName = reader.getLocalName();
+					String classAttribute = reader.getAttributeValue(null, CLASS_ATTRIBUTE);
+					String text = allText(reader).trim();
+					if (childName.equals(HL1_TAG)) {
+						ldcDocument.setHeadline(text);
+					} else if (childName.equals(HL2_TAG) && classAttribute != null
+							&& classAttribute.equals(ONLINE_HEADLINE_ATTRIBUTE)) {
+						ldcDocument.setOnlineHeadline(text);
+					}
+				}
+			} else {
+				skipElement(reader);
+			}
+		}
+	}
+
+	private void staxBodyContent(XMLStreamReader reader, NYTCorpusDocument ldcDocument) throws XMLStreamException {
+		while (nextChild(reader)) {
+			String classAttribute = reader.getAttributeValue(null, CLASS_ATTRIBUTE);
+			if (!reader.getLocalName().equals(BLOCK_TAG) || classAttribute == null) {
+				skipElement(reader);
+			} else if (classAttribute.equals(ONLINE_LEAD_PARAGRAPH_ATTRIBUTE)) {
+				ldcDocument.setOnlineLeadParagraph(staxBlock(reader));
+			} else if (classAttribute.equals(LEAD_PARAGRAPH_ATTRIBUTE)) {
+				ldcDocument.setLeadParagraph(staxBlock(reader));
+			} else if (classAttribute.equals(FULL_TEXT_ATTRIBUTE)) {
+				ldcDocument.setBody(staxBlock(reader));
+			} else if (classAttribute.equals(CORRECTION_TEXT)) {
+				ldcDocument.setCorrectionText(staxBlock(reader));
+			} else {
+				skipElement(reader);
+			}
+		}
+	}
+
+	private void staxBodyEnd(XMLStreamReader reader, NYTCorpusDocument ldcDocument) throws XMLStreamException {
+		while (nextChild(reader)) {
+			String classAttribute = reader.getAttributeValue(null, CLASS_ATTRIBUTE);
+			if (reader.getLocalName().equals(TAGLINE_TAG) && classAttribute != null
+					&& classAttribute.equals(AUTHOR_INFO_ATTRIBUTE)) {
+				ldcDocument.setAuthorBiography(allText(reader));
+			} else {
+				skipElement(reader);
+			}
+		}
+	}
+
+	private String staxBlock(XMLStreamReader reader) throws XMLStreamException {
+		StringBuffer sb = new StringBuffer();
+		while (nextChild(reader)) {
+			if (reader.getLocalName().equals(P_TAG)) {
+				sb.append(allText(reader).trim()).append('\n');
+			} else {
+				skipElement(reader);
+			}
+		}
+		return blockText(sb);
+	}
+
+	/**
+	 * Advance to the start of the next child element
+	 *
+	 * @return false once the end of the current element is reached
+	 */
+	private static boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+		while (true) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) return true;
+			if (event == XMLStreamConstants.END_ELEMENT) return false;
+		}
+	}
+
+	private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				++depth;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				--depth;
+			}
+		}
+	}
+
+	/**
+	 * The text of the current element, normalized the same way as {@link #getAllText(Node)}: each text node is
+	 * trimmed and followed by a space
+	 */
+	private static String allText(XMLStreamReader reader) throws XMLStreamException {
+		StringBuilder sb = new StringBuilder();
+		int depth = 1;
+		while (depth > 0) {
+			switch (reader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				++depth;
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				--depth;
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.SPACE:
+				sb.append(reader.getText().trim()).append(' ');
+				break;
+			default:
+				break;
+			}
+		}
+		return sb.toString().trim();
+	}
+
 	private String getAttributeValue(Node node, String attributeName) {
 		NamedNodeMap attributes = node.getAttributes();
 		if (attributes != null) {
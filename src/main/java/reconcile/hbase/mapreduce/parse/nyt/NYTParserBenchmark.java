@@ -0,0 +1,133 @@
+package reconcile.hbase.mapreduce.parse.nyt;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import gov.llnl.text.util.FileUtils;
+
+/**
+ * Compare the throughput and allocation of the DOM and StAX paths of {@link NYTCorpusDocumentParser} on sample NITF
+ * files, and check that both produce the same documents.
+ * <p>
+ * Usage: NYTParserBenchmark &lt;NITF file or directory&gt; [iterations]
+ */
+public class NYTParserBenchmark {
+
+public static void main(String[] args)
+{
+  if (args.length < 1) {
+    System.out.println("usage: NYTParserBenchmark <NITF file or directory> [iterations]");
+    return;
+  }
+  try {
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    List<String> docs = load(new File(args[0]));
+    System.out.println("Loaded (" + docs.size() + ") documents");
+    if (docs.isEmpty()) return;
+
+    System.out.println("Documents which differ between DOM and StAX: " + compare(docs));
+
+    // warm up both paths before measuring
+    run(docs, false, 1);
+    run(docs, true, 1);
+    report("DOM ", docs, false, iterations);
+    report("StAX", docs, true, iterations);
+  }
+  catch (IOException e) {
+    e.printStackTrace();
+  }
+}
+
+private static List<String> load(File file)
+    throws IOException
+{
+  List<String> docs = new ArrayList<String>();
+  if (file.isDirectory()) {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File child : files) {
+        docs.addAll(load(child));
+      }
+    }
+  }
+  else if (file.getName().endsWith(".xml")) {
+    docs.add(FileUtils.readFile(file));
+  }
+  return docs;
+}
+
+private static int compare(List<String> docs)
+{
+  NYTCorpusDocumentParser dom = new NYTCorpusDocumentParser();
+  NYTCorpusDocumentParser stax = new NYTCorpusDocumentParser();
+  stax.setUseStax(true);
+  int differ = 0;
+  for (String doc : docs) {
+    NYTCorpusDocument expected = dom.parseNYTCorpusDocumentFromString(doc, false);
+    NYTCorpusDocument actual = stax.parseNYTCorpusDocumentFromString(doc, false);
+    if (!String.valueOf(expected).equals(String.valueOf(actual))) {
+      differ++;
+    }
+  }
+  return differ;
+}
+
+private static long run(List<String> docs, boolean useStax, int iterations)
+{
+  NYTCorpusDocumentParser parser = new NYTCorpusDocumentParser();
+  parser.setUseStax(useStax);
+  long parsed = 0;
+  for (int i = 0; i < iterations; i++) {
+    for (String doc : docs) {
+      if (parser.parseNYTCorpusDocumentFromString(doc, false) != null) {
+        parsed++;
+      }
+    }
+  }
+  return parsed;
+}
+
+private static void report(String label, List<String> docs, boolean useStax, int iterations)
+{
+  long chars = 0;
+  for (String doc : docs) {
+    chars += doc.length();
+  }
+  long allocatedBefore = allocatedBytes();
+  long start = System.nanoTime();
+  long parsed = run(docs, useStax, iterations);
+  double seconds = (System.nanoTime() - start) / 1e9;
+  long allocatedAfter = allocatedBytes();
+  long allocated = allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore;
+
+  long total = (long) docs.size() * iterations;
+  System.out.println(label + ": parsed(" + parsed + "/" + total + ") docs/s("
+      + String.format("%.1f", total / seconds) + ") MB/s("
+      + String.format("%.2f", chars * iterations / seconds / (1024 * 1024)) + ") allocated KB/doc("
+      + (allocated < 0 ? "n/a" : String.format("%.1f", allocated / 1024.0 / total)) + ")");
+}
+
+/**
+ * @return bytes allocated by this thread so far, or -1 if the JVM does not report it
+ */
+private static long allocatedBytes()
+{
+  ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+  try {
+    // com.sun.management.ThreadMXBean, not available on every JVM
+    Class<?> sunBean = Class.forName("com.sun.management.ThreadMXBean");
+    if (!sunBean.isInstance(bean)) return -1;
+    Method method = sunBean.getMethod("getThreadAllocatedBytes", long.class);
+    return (Long) method.invoke(bean, Thread.currentThread().getId());
+  }
+  catch (Exception e) {
+    return -1;
+  }
+}
+
+}
@@ -40,6 +40,7 @@ import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.mapreduce.IdentityTableReducer;
 import org.apache.hadoop.hbase.mapreduce.TableMapReduceUtil;
 import org.apache.hadoop.hbase.mapreduce.TableMapper;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
@@ -50,7 +51,7 @@ import com.google.common.collect.Sets;
 
 import gov.llnl.text.util.MapUtil;
 
-import reconcile.hbase.mapreduce.annotation.ReportProgressThread;
+import reconcile.hbase.mapreduce.TaskHeartbeat;
 import reconcile.hbase.mapreduce.parse.nyt.NYTCorpusDocument;
 import reconcile.hbase.mapreduce.parse.nyt.NYTCorpusDocumentParser;
 import reconcile.hbase.table.DocSchema;
@@ -139,6 +140,8 @@ NYTCorpusDocumentParser nytParser;
 
 private DocSchema docTable;
 
+private TaskHeartbeat heartbeat;
+
 /**
  * put the original text into the doc table
  */
@@ -156,6 +159,8 @@ public void setup(Context context)
 
     nytParser = new NYTCorpusDocumentParser();
 
+    heartbeat = TaskHeartbeat.acquire(context);
+
     context.getCounter("Parse NYT", "setup").increment(1L);
 
   }
@@ -175,6 +180,9 @@ public void setup(Context context)
 protected void cleanup(Context context1)
     throws IOException, InterruptedException
 {
+  if (heartbeat != null) {
+    heartbeat.release();
+  }
   if (docTable != null) {
     docTable.flushCommits();
     docTable.close();
@@ -191,11 +199,8 @@ public void map(ImmutableBytesWritable mapKey, Result row, Context context)
     context.getCounter("Parse NYT", "skip -- not NYT: " + src).increment(1L);
     return;
   }
-  ReportProgressThread progress = null;
   try {
-
-    // start keep alive
-    progress = ReportProgressThread.start(context, 1000);
+    heartbeat.startRecord(Bytes.toString(row.getRow()));
     context.getCounter("Parse NYT", "map").increment(1L);
 
     String orig = DocSchema.getColumn(row, textCF, textOrig);
@@ -224,9 +229,7 @@ public void map(ImmutableBytesWritable mapKey, Result row, Context context)
     e.printStackTrace();
   }
   finally {
-    if (progress != null) {
-      progress.interrupt();
-    }
+    heartbeat.endRecord();
   }
 }
 
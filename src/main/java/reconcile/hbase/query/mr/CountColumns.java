@@ -30,6 +30,9 @@ import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
+import reconcile.hbase.mapreduce.JobConfig;
+import reconcile.hbase.mapreduce.ScanProfile;
+
 
 public class CountColumns
     extends Configured
@@ -73,8 +76,10 @@ public static void main(String[] args)
 public int run(String[] args)
     throws Exception
 {
+  JobConfig scanConfig = new JobConfig(args);
+  args = JobConfig.withoutScanArgs(args);
   if (args.length != 2) {
-    System.out.println("usage: CountRows <table name> <column name>");
+    System.out.println("usage: CountRows <table name> <column name> [" + JobConfig.scanUsage() + "]");
     return 1;
   }
   Configuration conf = HBaseConfiguration.create();
@@ -94,6 +99,8 @@ public int run(String[] args)
     Scan scan = new Scan();
     scan.addFamily(columnFamily.getBytes());
 
+    scanConfig.configureScan(LOG, scan, table, ScanProfile.AUTO);
+
     TableMapReduceUtil.initTableMapperJob(table, scan, CountRowMapper.class, ImmutableBytesWritable.class,
         Put.class, job);
     TableMapReduceUtil.initTableReducerJob(table, IdentityTableReducer.class, job);
@@ -31,6 +31,8 @@ import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
+import reconcile.hbase.mapreduce.JobConfig;
+import reconcile.hbase.mapreduce.ScanProfile;
 import reconcile.hbase.table.DocSchema;
 
 public class CountQualifierValues
@@ -76,8 +78,11 @@ public static void main(String[] args)
 public int run(String[] args)
     throws Exception
 {
+  JobConfig scanConfig = new JobConfig(args);
+  args = JobConfig.withoutScanArgs(args);
   if (args.length != 3) {
-    System.out.println("usage: CountQualifierValues <table name> <column name> <qualifier name>");
+    System.out.println("usage: CountQualifierValues <table name> <column name> <qualifier name>"
+        + " [" + JobConfig.scanUsage() + "]");
 
     return 1;
   }
@@ -98,6 +103,7 @@ public int run(String[] args)
 
     Scan scan = new Scan();
     scan.addColumn(columnFamily.getBytes(), columnQualifer.getBytes());
+    scanConfig.configureScan(LOG, scan, table, ScanProfile.AUTO);
     TableMapReduceUtil.initTableMapperJob(table, scan, CountRowMapper.class, ImmutableBytesWritable.class,
         Put.class, job);
     TableMapReduceUtil.initTableReducerJob(table, IdentityTableReducer.class, job);
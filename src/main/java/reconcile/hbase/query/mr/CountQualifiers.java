@@ -30,6 +30,9 @@ import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
+import reconcile.hbase.mapreduce.JobConfig;
+import reconcile.hbase.mapreduce.ScanProfile;
+
 
 public class CountQualifiers
     extends Configured
@@ -74,8 +77,11 @@ public static void main(String[] args)
 public int run(String[] args)
     throws Exception
 {
+  JobConfig scanConfig = new JobConfig(args);
+  args = JobConfig.withoutScanArgs(args);
   if (args.length != 3) {
-    System.out.println("usage: CountRows <table name> <column name> <column qualifier>");
+    System.out.println("usage: CountRows <table name> <column name> <column qualifier>"
+        + " [" + JobConfig.scanUsage() + "]");
     return 1;
   }
   Configuration conf = HBaseConfiguration.create();
@@ -97,6 +103,8 @@ public int run(String[] args)
     Scan scan = new Scan();
     scan.addColumn(columnFamily.getBytes(), columnQualifer.getBytes());
 
+    scanConfig.configureScan(LOG, scan, table, ScanProfile.AUTO);
+
     TableMapReduceUtil.initTableMapperJob(table, scan, CountRowMapper.class, ImmutableBytesWritable.class,
         Put.class, job);
     TableMapReduceUtil.initTableReducerJob(table, IdentityTableReducer.class, job);
@@ -30,6 +30,9 @@ import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
+import reconcile.hbase.mapreduce.JobConfig;
+import reconcile.hbase.mapreduce.ScanProfile;
+
 
 public class CountRows
     extends Configured
@@ -62,8 +65,10 @@ public static void main(String[] args)
 public int run(String[] args)
     throws Exception
 {
+  JobConfig scanConfig = new JobConfig(args);
+  args = JobConfig.withoutScanArgs(args);
   if (args.length != 1) {
-    System.out.println("usage: CountRows <table name>");
+    System.out.println("usage: CountRows <table name> [" + JobConfig.scanUsage() + "]");
     return 1;
   }
   Configuration conf = HBaseConfiguration.create();
@@ -80,6 +85,8 @@ public int run(String[] args)
 
     Scan scan = new Scan();
 
+    scanConfig.configureScan(LOG, scan, tableName, ScanProfile.AUTO);
+
     TableMapReduceUtil.initTableMapperJob(tableName, scan, CountRowMapper.class, ImmutableBytesWritable.class,
         Put.class, job);
     TableMapReduceUtil.initTableReducerJob(tableName, IdentityTableReducer.class, job);
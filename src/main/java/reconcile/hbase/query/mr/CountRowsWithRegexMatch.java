@@ -33,6 +33,9 @@ import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
+import reconcile.hbase.mapreduce.JobConfig;
+import reconcile.hbase.mapreduce.ScanProfile;
+
 
 public class CountRowsWithRegexMatch
     extends Configured
@@ -71,8 +74,11 @@ public static void main(String[] args)
 public int run(String[] args)
     throws Exception
 {
+  JobConfig scanConfig = new JobConfig(args);
+  args = JobConfig.withoutScanArgs(args);
   if (args.length != 4) {
-    System.out.println("usage: CountRows <table name> <column name> <qual name> <pattern>");
+    System.out.println("usage: CountRows <table name> <column name> <qual name> <pattern>"
+        + " [" + JobConfig.scanUsage() + "]");
     return 1;
   }
   Configuration conf = HBaseConfiguration.create();
@@ -99,6 +105,8 @@ public int run(String[] args)
     scan.setFilter(new SingleColumnValueFilter(colName.getBytes(), qualName.getBytes(), CompareOp.EQUAL,
         new RegexStringComparator(pattern)));
 
+    scanConfig.configureScan(LOG, scan, tableName, ScanProfile.AUTO);
+
     TableMapReduceUtil.initTableMapperJob(tableName, scan, CountRowMapper.class, ImmutableBytesWritable.class,
         Put.class, job);
     TableMapReduceUtil.initTableReducerJob(tableName, IdentityTableReducer.class, job);
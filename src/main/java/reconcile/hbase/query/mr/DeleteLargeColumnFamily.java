@@ -35,6 +35,9 @@ import org.apache.hadoop.util.ToolRunner;
 
 import com.google.common.base.Charsets;
 
+import reconcile.hbase.mapreduce.JobConfig;
+import reconcile.hbase.mapreduce.ScanProfile;
+
 public class DeleteLargeColumnFamily
     extends Configured
     implements Tool {
@@ -67,8 +70,10 @@ public static void main(String[] args)
 public int run(String[] args)
     throws Exception
 {
+  JobConfig scanConfig = new JobConfig(args);
+  args = JobConfig.withoutScanArgs(args);
   if (args.length != 2) {
-    System.out.println("usage: SizeColumnFamily <table name> <column family>");
+    System.out.println("usage: SizeColumnFamily <table name> <column family> [" + JobConfig.scanUsage() + "]");
     return 1;
   }
   Configuration conf = HBaseConfiguration.create();
@@ -88,6 +93,8 @@ public int run(String[] args)
     Scan scan = new Scan();
     scan.addFamily(columnFamily.getBytes());
 
+    scanConfig.configureScan(LOG, scan, tableName, ScanProfile.AUTO);
+
     TableMapReduceUtil.initTableMapperJob(tableName, scan, CountRowMapper.class, ImmutableBytesWritable.class,
         Put.class, job);
     TableMapReduceUtil.initTableReducerJob(tableName, IdentityTableReducer.class, job);
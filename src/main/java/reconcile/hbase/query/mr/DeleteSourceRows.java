@@ -32,6 +32,8 @@ import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
+import reconcile.hbase.mapreduce.JobConfig;
+import reconcile.hbase.mapreduce.ScanProfile;
 import reconcile.hbase.table.DocSchema;
 
 public class DeleteSourceRows
@@ -68,8 +70,10 @@ public static void main(String[] args)
 public int run(String[] args)
     throws Exception
 {
+  JobConfig scanConfig = new JobConfig(args);
+  args = JobConfig.withoutScanArgs(args);
   if (args.length != 2) {
-    System.out.println("usage: SizeColumnFamily <table name> <sourceName>");
+    System.out.println("usage: SizeColumnFamily <table name> <sourceName> [" + JobConfig.scanUsage() + "]");
     return 1;
   }
   Configuration conf = HBaseConfiguration.create();
@@ -89,6 +93,8 @@ public int run(String[] args)
     Scan scan = new Scan();
     scan.addFamily(DocSchema.srcCF.getBytes());
 
+    scanConfig.configureScan(LOG, scan, tableName, ScanProfile.AUTO);
+
     TableMapReduceUtil.initTableMapperJob(tableName, scan, DeleteRowMapper.class, ImmutableBytesWritable.class,
         Put.class, job);
     TableMapReduceUtil.initTableReducerJob(tableName, IdentityTableReducer.class, job);
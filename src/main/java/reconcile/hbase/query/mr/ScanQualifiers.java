@@ -37,6 +37,9 @@ import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
+import reconcile.hbase.mapreduce.JobConfig;
+import reconcile.hbase.mapreduce.ScanProfile;
+
 
 public class ScanQualifiers
     extends Configured
@@ -77,8 +80,11 @@ private ArrayList<String> columnFamilies = new ArrayList<String>();
 public int run(String[] args)
     throws Exception
 {
+  JobConfig scanConfig = new JobConfig(args);
+  args = JobConfig.withoutScanArgs(args);
   if (args.length < 2) {
-    System.out.println("usage: ScanQualifiers <table name> <column name>...<column name 2> ");
+    System.out.println("usage: ScanQualifiers <table name> <column name>...<column name 2>"
+        + " [" + JobConfig.scanUsage() + "]");
 
     return 1;
   }
@@ -102,6 +108,7 @@ public int run(String[] args)
     for (String columnFamily : columnFamilies) {
     	scan.addFamily(columnFamily.getBytes());
     }
+    scanConfig.configureScan(LOG, scan, table, ScanProfile.AUTO);
     TableMapReduceUtil.initTableMapperJob(table, scan, CountRowMapper.class, ImmutableBytesWritable.class,
         Put.class, job);
     TableMapReduceUtil.initTableReducerJob(table, IdentityTableReducer.class, job);
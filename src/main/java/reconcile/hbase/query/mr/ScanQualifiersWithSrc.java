@@ -33,6 +33,8 @@ import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
+import reconcile.hbase.mapreduce.JobConfig;
+import reconcile.hbase.mapreduce.ScanProfile;
 import reconcile.hbase.table.DocSchema;
 
 public class ScanQualifiersWithSrc
@@ -78,8 +80,10 @@ public static void main(String[] args)
 public int run(String[] args)
     throws Exception
 {
+  JobConfig scanConfig = new JobConfig(args);
+  args = JobConfig.withoutScanArgs(args);
   if (args.length != 3) {
-    System.out.println("usage: ScanQualifiers <table name> <column name> <source>");
+    System.out.println("usage: ScanQualifiers <table name> <column name> <source> [" + JobConfig.scanUsage() + "]");
 
     return 1;
   }
@@ -100,6 +104,7 @@ public int run(String[] args)
     Scan scan = new Scan();
     scan.addFamily(DocSchema.srcCF.getBytes());
     scan.addFamily(columnFamily.getBytes());
+    scanConfig.configureScan(LOG, scan, table, ScanProfile.AUTO);
     TableMapReduceUtil.initTableMapperJob(table, scan, CountRowMapper.class, ImmutableBytesWritable.class,
         Put.class, job);
     TableMapReduceUtil.initTableReducerJob(table, IdentityTableReducer.class, job);
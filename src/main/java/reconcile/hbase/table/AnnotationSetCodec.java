@@ -0,0 +1,179 @@
+package reconcile.hbase.table;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import reconcile.data.Annotation;
+import reconcile.data.AnnotationSet;
+
+/**
+ * Compact binary encoding of an {@link AnnotationSet} for the annotations column family.
+ * <p>
+ * Layout (all integers are hadoop variable length ints, see {@link WritableUtils#writeVInt}):
+ * <ol>
+ * <li>magic header {@link #MAGIC} followed by a one byte format version</li>
+ * <li>string dictionary: count, then each entry (annotation types and attribute keys)</li>
+ * <li>annotation count</li>
+ * <li>per annotation: id delta, start offset delta, length (end - start), type index, attribute count, then for each
+ * attribute: key index and value</li>
+ * </ol>
+ * Start offsets and ids are delta coded against the previous annotation, which keeps most of them to a single byte
+ * since annotation sets iterate in offset order.
+ * <p>
+ * The legacy text format written by {@link reconcile.data.AnnotationWriterBytespan} always starts with a printable
+ * character, so a value starting with the magic header is unambiguously binary. Use {@link #isEncoded(byte[])} to pick
+ * the decoder.
+ */
+public class AnnotationSetCodec {
+
+/**
+ * Marker written at the start of every binary encoded annotation set. The leading zero byte can never start a
+ * bytespan text record.
+ */
+public static final byte[] MAGIC = { 0x00, 'R', 'A', 'S' };
+
+public static final byte VERSION = 1;
+
+/**
+ * Return true if the given column value was written by {@link #encode(AnnotationSet)}
+ *
+ * @param bytes
+ * @return
+ */
+public static boolean isEncoded(byte[] bytes)
+{
+  if (bytes == null || bytes.length <= MAGIC.length) return false;
+  for (int i = 0; i < MAGIC.length; i++) {
+    if (bytes[i] != MAGIC[i]) return false;
+  }
+  return true;
+}
+
+/**
+ * Encode the annotation set into the binary column format
+ *
+ * @param set
+ * @return
+ */
+public static byte[] encode(AnnotationSet set)
+{
+  try {
+    // build the dictionary of types and attribute keys first, so the decoder can size it up front
+    Map<String, Integer> dictionary = Maps.newLinkedHashMap();
+    for (Annotation a : set) {
+      index(dictionary, a.getType());
+      Map<String, String> features = a.getFeatures();
+      if (features != null) {
+        for (String key : features.keySet()) {
+          index(dictionary, key);
+        }
+      }
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(set.size() * 8 + 64);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.write(MAGIC);
+    out.writeByte(VERSION);
+
+    WritableUtils.writeVInt(out, dictionary.size());
+    for (String entry : dictionary.keySet()) {
+      Text.writeString(out, entry);
+    }
+
+    WritableUtils.writeVInt(out, set.size());
+    int prevId = 0;
+    int prevStart = 0;
+    for (Annotation a : set) {
+      WritableUtils.writeVInt(out, a.getId() - prevId);
+      WritableUtils.writeVInt(out, a.getStartOffset() - prevStart);
+      WritableUtils.writeVInt(out, a.getEndOffset() - a.getStartOffset());
+      WritableUtils.writeVInt(out, dictionary.get(a.getType()));
+      prevId = a.getId();
+      prevStart = a.getStartOffset();
+
+      Map<String, String> features = a.getFeatures();
+      if (features == null) {
+        WritableUtils.writeVInt(out, 0);
+        continue;
+      }
+      WritableUtils.writeVInt(out, features.size());
+      for (Map.Entry<String, String> feature : features.entrySet()) {
+        WritableUtils.writeVInt(out, dictionary.get(feature.getKey()));
+        Text.writeString(out, feature.getValue() == null ? "" : feature.getValue());
+      }
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+  catch (IOException e) {
+    // writing to memory only
+    throw new RuntimeException(e);
+  }
+}
+
+/**
+ * Decode a column value written by {@link #encode(AnnotationSet)}
+ *
+ * @param bytes
+ * @param annotationSetName
+ * @return
+ * @throws IOException
+ *           if the value is not in the binary format, or was written by an unknown version
+ */
+public static AnnotationSet decode(byte[] bytes, String annotationSetName)
+    throws IOException
+{
+  if (!isEncoded(bytes)) throw new IOException("annotation set (" + annotationSetName + ") is not binary encoded");
+
+  DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, MAGIC.length, bytes.length
+      - MAGIC.length));
+  byte version = in.readByte();
+  if (version != VERSION)
+    throw new IOException("unknown annotation set encoding version (" + version + ") for (" + annotationSetName + ")");
+
+  int dictSize = WritableUtils.readVInt(in);
+  List<String> dictionary = Lists.newArrayListWithCapacity(dictSize);
+  for (int i = 0; i < dictSize; i++) {
+    dictionary.add(Text.readString(in));
+  }
+
+  AnnotationSet set = new AnnotationSet(annotationSetName);
+  int count = WritableUtils.readVInt(in);
+  int id = 0;
+  int start = 0;
+  for (int i = 0; i < count; i++) {
+    id += WritableUtils.readVInt(in);
+    start += WritableUtils.readVInt(in);
+    int end = start + WritableUtils.readVInt(in);
+    String type = dictionary.get(WritableUtils.readVInt(in));
+
+    int numFeatures = WritableUtils.readVInt(in);
+    Map<String, String> features = Maps.newTreeMap();
+    for (int f = 0; f < numFeatures; f++) {
+      String key = dictionary.get(WritableUtils.readVInt(in));
+      features.put(key, Text.readString(in));
+    }
+    set.add(new Annotation(id, start, end, type, features));
+  }
+  return set;
+}
+
+private static void index(Map<String, Integer> dictionary, String entry)
+{
+  if (!dictionary.containsKey(entry)) {
+    dictionary.put(entry, dictionary.size());
+  }
+}
+
+}
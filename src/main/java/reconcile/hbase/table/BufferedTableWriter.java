@@ -0,0 +1,323 @@
+package reconcile.hbase.table;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+/**
+ * Writes puts to an HTable from a background thread, so producers do not stall while the client write buffer is
+ * flushed to the region servers.
+ * <p>
+ * The table is used with autoflush off and the given write buffer size. Producers hand puts to {@link #put(Put)},
+ * which only blocks when the bytes queued or buffered but not yet committed exceed the in-flight limit. The flusher
+ * thread commits whenever the write buffer fills up, a flush is requested, or {@link #FLUSH_INTERVAL_MILLIS} has
+ * passed. Any error from the flusher is rethrown to the producer on the next call.
+ * <p>
+ * The HTable handed to the writer must not be used by any other thread until the writer is closed; closing the
+ * writer does not close the table.
+ */
+public class BufferedTableWriter {
+
+static final Log LOG = LogFactory.getLog(BufferedTableWriter.class);
+
+public static final String COUNTER_GROUP = "DocSchema buffered writes";
+
+/**
+ * Buffered puts are committed at least this often, even if the write buffer is not full
+ */
+public static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+private final HTable table;
+
+private final long writeBufferSize;
+
+private final long maxInFlightBytes;
+
+private final LinkedList<Put> queue = new LinkedList<Put>();
+
+/**
+ * Bytes handed to the writer which have not been committed yet
+ */
+private long inFlightBytes = 0;
+
+private boolean closed = false;
+
+private boolean flushRequested = false;
+
+private IOException error = null;
+
+private final Thread flusher;
+
+// statistics
+private long putCount = 0;
+
+private long bytesWritten = 0;
+
+private long flushCount = 0;
+
+private long flushMillis = 0;
+
+private long maxFlushMillis = 0;
+
+private long blockedMillis = 0;
+
+/**
+ * @param table
+ *          table to write to
+ * @param writeBufferSize
+ *          client write buffer size in bytes
+ * @param maxInFlightBytes
+ *          producers block once this many bytes are waiting to be committed
+ * @throws IOException
+ */
+public BufferedTableWriter(HTable table, long writeBufferSize, long maxInFlightBytes)
+    throws IOException {
+  this.table = table;
+  this.writeBufferSize = writeBufferSize;
+  this.maxInFlightBytes = Math.max(maxInFlightBytes, writeBufferSize);
+  table.setAutoFlush(false);
+  table.setWriteBufferSize(writeBufferSize);
+
+  flusher = new Thread(new Runnable() {
+
+    @Override
+    public void run()
+    {
+      flushLoop();
+    }
+  }, "BufferedTableWriter(" + new String(table.getTableName()) + ")");
+  flusher.setDaemon(true);
+  flusher.start();
+}
+
+/**
+ * Queue the put for writing, blocking while too many bytes are in flight
+ *
+ * @param put
+ * @throws IOException
+ *           if a previous write failed or the writer was closed
+ */
+public void put(Put put)
+    throws IOException
+{
+  long size = put.heapSize();
+  synchronized (this) {
+    checkState();
+    long start = System.currentTimeMillis();
+    // always let a put through if nothing is in flight, so a single put larger than the limit cannot deadlock
+    while (inFlightBytes > 0 && inFlightBytes + size > maxInFlightBytes) {
+      waitUninterruptibly();
+      checkState();
+    }
+    blockedMillis += System.currentTimeMillis() - start;
+
+    queue.add(put);
+    putCount++;
+    inFlightBytes += size;
+    notifyAll();
+  }
+}
+
+public void put(List<Put> puts)
+    throws IOException
+{
+  for (Put put : puts) {
+    put(put);
+  }
+}
+
+/**
+ * Block until everything handed to the writer so far has been committed to the table
+ *
+ * @throws IOException
+ */
+public synchronized void flush()
+    throws IOException
+{
+  checkState();
+  flushRequested = true;
+  notifyAll();
+  while (inFlightBytes > 0 && error == null) {
+    waitUninterruptibly();
+  }
+  if (error != null) throw error;
+}
+
+/**
+ * @return the table written to
+ */
+public HTable getTable()
+{
+  return table;
+}
+
+/**
+ * Flush outstanding puts and stop the flusher thread
+ *
+ * @throws IOException
+ */
+public void close()
+    throws IOException
+{
+  synchronized (this) {
+    if (closed) return;
+  }
+  try {
+    flush();
+  }
+  finally {
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+    }
+    try {
+      flusher.join();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
+
+private void checkState()
+    throws IOException
+{
+  if (error != null) throw error;
+  if (closed) throw new IOException("writer is closed");
+}
+
+private void waitUninterruptibly()
+{
+  try {
+    wait(1000);
+  }
+  catch (InterruptedException e) {
+    Thread.currentThread().interrupt();
+  }
+}
+
+private void flushLoop()
+{
+  List<Put> batch = new ArrayList<Put>();
+  long buffered = 0;
+  long lastCommit = System.currentTimeMillis();
+  while (true) {
+    boolean commit;
+    synchronized (this) {
+      while (queue.isEmpty() && !closed && !flushRequested
+          && (buffered == 0 || System.currentTimeMillis() - lastCommit < FLUSH_INTERVAL_MILLIS)) {
+        waitUninterruptibly();
+      }
+      if (queue.isEmpty() && buffered == 0 && closed) return;
+
+      while (!queue.isEmpty()) {
+        Put put = queue.removeFirst();
+        batch.add(put);
+        buffered += put.heapSize();
+      }
+      commit = buffered >= writeBufferSize || flushRequested || closed
+          || System.currentTimeMillis() - lastCommit >= FLUSH_INTERVAL_MILLIS;
+    }
+
+    try {
+      if (!batch.isEmpty()) {
+        table.put(batch);
+        batch.clear();
+      }
+      if (commit) {
+        long start = System.currentTimeMillis();
+        table.flushCommits();
+        long elapsed = System.currentTimeMillis() - start;
+        synchronized (this) {
+          flushCount++;
+          flushMillis += elapsed;
+          maxFlushMillis = Math.max(maxFlushMillis, elapsed);
+          bytesWritten += buffered;
+          inFlightBytes -= buffered;
+          if (queue.isEmpty()) {
+            flushRequested = false;
+          }
+          notifyAll();
+        }
+        buffered = 0;
+        lastCommit = System.currentTimeMillis();
+      }
+    }
+    catch (IOException e) {
+      LOG.error("buffered write to table (" + new String(table.getTableName()) + ") failed", e);
+      synchronized (this) {
+        error = e;
+        notifyAll();
+      }
+      return;
+    }
+  }
+}
+
+public synchronized long getPutCount()
+{
+  return putCount;
+}
+
+public synchronized long getBytesWritten()
+{
+  return bytesWritten;
+}
+
+public synchronized long getFlushCount()
+{
+  return flushCount;
+}
+
+public synchronized long getFlushMillis()
+{
+  return flushMillis;
+}
+
+public synchronized long getMaxFlushMillis()
+{
+  return maxFlushMillis;
+}
+
+/**
+ * @return total time producers spent blocked waiting for in-flight bytes to drain
+ */
+public synchronized long getBlockedMillis()
+{
+  return blockedMillis;
+}
+
+/**
+ * Add the write statistics to the job counters
+ *
+ * @param context
+ */
+public void reportCounters(TaskInputOutputContext<?, ?, ?, ?> context)
+{
+  context.getCounter(COUNTER_GROUP, "puts").increment(getPutCount());
+  context.getCounter(COUNTER_GROUP, "bytes written").increment(getBytesWritten());
+  context.getCounter(COUNTER_GROUP, "flushes").increment(getFlushCount());
+  context.getCounter(COUNTER_GROUP, "flush millis").increment(getFlushMillis());
+  context.getCounter(COUNTER_GROUP, "max flush millis").increment(getMaxFlushMillis());
+  context.getCounter(COUNTER_GROUP, "producer blocked millis").increment(getBlockedMillis());
+}
+
+/**
+ * @return a one line summary of the write statistics, for the standalone loaders
+ */
+public synchronized String getStatistics()
+{
+  double seconds = Math.max(flushMillis, 1) / 1000.0;
+  return "puts(" + putCount + ") bytes(" + bytesWritten + ") flushes(" + flushCount + ") flush millis(" + flushMillis
+      + ") max flush millis(" + maxFlushMillis + ") blocked millis(" + blockedMillis + ") MB/s flushing("
+      + String.format("%.2f", bytesWritten / seconds / (1024 * 1024)) + ")";
+}
+
+}
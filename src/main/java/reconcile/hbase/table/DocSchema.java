@@ -1,22 +1,14 @@
 package reconcile.hbase.table;
 
-import static org.apache.hadoop.hbase.HColumnDescriptor.DEFAULT_BLOCKCACHE;
-import static org.apache.hadoop.hbase.HColumnDescriptor.DEFAULT_BLOOMFILTER;
-import static org.apache.hadoop.hbase.HColumnDescriptor.DEFAULT_IN_MEMORY;
-import static org.apache.hadoop.hbase.HColumnDescriptor.DEFAULT_TTL;
-import static org.apache.hadoop.hbase.HColumnDescriptor.DEFAULT_VERSIONS;
-
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
 import java.util.Calendar;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.hbase.HBaseConfiguration;
-import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.KeyValue;
@@ -24,14 +16,15 @@ import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.client.HConnection;
-import org.apache.hadoop.hbase.client.HConnectionManager;
 import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 import org.apache.solr.schema.DateField;
 import org.apache.tools.ant.filters.StringInputStream;
 
@@ -39,7 +32,6 @@ import com.google.common.base.Charsets;
 
 import reconcile.data.AnnotationReaderBytespan;
 import reconcile.data.AnnotationSet;
-import reconcile.data.AnnotationWriterBytespan;
 import reconcile.data.Document;
 import reconcile.general.Constants;
 
@@ -167,18 +159,48 @@ public static void addDocumet(Put mut, Document doc)
       mut.add(metaCF.getBytes(), key.getBytes(), val.getBytes());
     }
   }
-  AnnotationWriterBytespan writer = new AnnotationWriterBytespan();
   for (String key : doc.getAnnotationSetNames()) {
     AnnotationSet set = doc.getAnnotationSet(key);
-    StringWriter sw = new StringWriter();
-    PrintWriter out = new PrintWriter(sw);
-    writer.write(set, out);
-    out.flush();
-    mut.add(annotationsCF.getBytes(), key.getBytes(), sw.toString().getBytes());
+    mut.add(annotationsCF.getBytes(), key.getBytes(), toBytes(set));
   }
 
 }
 
+/**
+ * Serialize an annotation set for storage in the annotations column family. Sets are written with the binary
+ * {@link AnnotationSetCodec}; {@link #getAnnotationSet(Result, String)} still reads the legacy bytespan text format.
+ *
+ * @param set
+ * @return
+ */
+public static byte[] toBytes(AnnotationSet set)
+{
+  return AnnotationSetCodec.encode(set);
+}
+
+/**
+ * Deserialize an annotation set stored in the annotations column family, in either the binary or the legacy bytespan
+ * text format
+ *
+ * @param bytes
+ * @param annotationSetName
+ * @return the annotation set, or null if there is no data
+ */
+public static AnnotationSet toAnnotationSet(byte[] bytes, String annotationSetName)
+{
+  if (bytes == null || bytes.length == 0) return null;
+  try {
+    if (AnnotationSetCodec.isEncoded(bytes)) return AnnotationSetCodec.decode(bytes, annotationSetName);
+
+    String parseStr = new String(bytes, HConstants.UTF8_ENCODING);
+    return reader.read(new StringInputStream(parseStr), annotationSetName);
+  }
+  catch (IOException e) {
+    e.printStackTrace();
+    throw new RuntimeException(e);
+  }
+}
+
 protected String myTableName;
 
 public String getTableName()
@@ -186,6 +208,11 @@ public String getTableName()
   return myTableName;
 }
 
+/**
+ * Physical layout used if this instance creates the table
+ */
+protected TableProfile myProfile;
+
 /**
  * Create the table in hbase
  *
@@ -195,14 +222,13 @@ public String getTableName()
 protected final void createTable()
     throws IOException
 {
-  Configuration conf = HBaseConfiguration.create();
-  HConnection connector = HConnectionManager.getConnection(conf);
-  createTable(connector);
+  createTable(SharedTablePool.getConnection());
 
 }
 
 /**
- * Create the table in hbase, given a connection
+ * Create the table in hbase, given a connection. Column family settings and pre-split regions come from the
+ * {@link TableProfile}
  *
  * @return
  * @throws IOException
@@ -211,21 +237,27 @@ protected void createTable(HConnection connector)
     throws IOException
 {
 
-  Configuration conf = HBaseConfiguration.create();
+  Configuration conf = SharedTablePool.getConfiguration();
   HBaseAdmin admin = new HBaseAdmin(conf);
   if (admin.tableExists(myTableName.getBytes())) return;
 
+  if (myProfile == null) {
+    myProfile = new TableProfile(conf);
+  }
   HTableDescriptor docDesc = new HTableDescriptor(myTableName.getBytes());
-  docDesc.addFamily(new HColumnDescriptor(srcCF.getBytes(), DEFAULT_VERSIONS, "GZ", DEFAULT_IN_MEMORY,
-      DEFAULT_BLOCKCACHE, DEFAULT_TTL, DEFAULT_BLOOMFILTER));
-  docDesc.addFamily(new HColumnDescriptor(metaCF.getBytes(), DEFAULT_VERSIONS, "GZ", DEFAULT_IN_MEMORY,
-      DEFAULT_BLOCKCACHE, DEFAULT_TTL, DEFAULT_BLOOMFILTER));
-  docDesc.addFamily(new HColumnDescriptor(textCF.getBytes(), DEFAULT_VERSIONS, "GZ", DEFAULT_IN_MEMORY,
-      DEFAULT_BLOCKCACHE, DEFAULT_TTL, DEFAULT_BLOOMFILTER));
-  docDesc.addFamily(new HColumnDescriptor(annotationsCF.getBytes(), DEFAULT_VERSIONS, "GZ", DEFAULT_IN_MEMORY,
-      DEFAULT_BLOCKCACHE, DEFAULT_TTL, DEFAULT_BLOOMFILTER));
-
-  admin.createTable(docDesc);
+  docDesc.addFamily(myProfile.getFamilyDescriptor(srcCF));
+  docDesc.addFamily(myProfile.getFamilyDescriptor(metaCF));
+  docDesc.addFamily(myProfile.getFamilyDescriptor(textCF));
+  docDesc.addFamily(myProfile.getFamilyDescriptor(annotationsCF));
+
+  byte[][] splitKeys = myProfile.getSplitKeys();
+  if (splitKeys == null) {
+    admin.createTable(docDesc);
+  }
+  else {
+    System.out.println("Pre-splitting table(" + myTableName + ") into (" + (splitKeys.length + 1) + ") regions");
+    admin.createTable(docDesc, splitKeys);
+  }
 
 
 }
@@ -233,22 +265,44 @@ protected void createTable(HConnection connector)
 
 public static final String COUNT_REGIONS_ARG="-getRegionCount";
 
+/**
+ * Command-line option to pre-split a new table into the given number of regions over the hex row key space
+ */
+public static final String PRE_SPLIT_ARG = "-preSplit=";
+
+/**
+ * Command-line option to name the table profile (default, ingest, or a hadoop XML file) used to create a new table
+ */
+public static final String PROFILE_ARG = "-profile=";
+
 public static void main(String[] args)
 {
 	String tableName = args[0];
 
 	try {
+	  	String profileName = null;
+	  	Integer numRegions = null;
 	  	for (String arg : args) {
 	  		if (arg.equals(COUNT_REGIONS_ARG)) {
 	  			DocSchema doc = new DocSchema(tableName);
-	  			int numRegions = doc.getNumberOfRegions();
-	  			System.out.println("There are ("+numRegions+") regions in table("+tableName+")");
+	  			int regions = doc.getNumberOfRegions();
+	  			System.out.println("There are ("+regions+") regions in table("+tableName+")");
 	  			return;
 	  		}
+	  		else if (arg.startsWith(PROFILE_ARG)) {
+	  			profileName = arg.substring(PROFILE_ARG.length());
+	  		}
+	  		else if (arg.startsWith(PRE_SPLIT_ARG)) {
+	  			numRegions = Integer.parseInt(arg.substring(PRE_SPLIT_ARG.length()));
+	  		}
 	  	}
 
+	  	TableProfile profile = TableProfile.load(profileName);
+	  	if (numRegions != null) {
+	  		profile.setNumRegions(numRegions.intValue());
+	  	}
 	  	System.out.println("Create table named: " + tableName);
-	  	new DocSchema(tableName, true);
+	  	new DocSchema(tableName, profile);
   }
   catch (IOException e) {
     e.printStackTrace();
@@ -335,34 +389,13 @@ public static String getColumn(Result row, String family, String qualifier)
 
 public static AnnotationSet getAnnotationSet(Result row, String annotationSetName)
 {
-  try {
-    AnnotationSet annotationSet = null;
-    byte[] bytes = row.getValue(annotationsCF.getBytes(), annotationSetName.getBytes());
-    if (bytes == null || bytes.length == 0) return null;
-    String parseStr = new String(bytes, HConstants.UTF8_ENCODING);
-    annotationSet = reader.read(new StringInputStream(parseStr), annotationSetName);
-    return annotationSet;
-  }
-  catch (UnsupportedEncodingException e) {
-    e.printStackTrace();
-    throw new RuntimeException(e);
-  }
+  byte[] bytes = row.getValue(annotationsCF.getBytes(), annotationSetName.getBytes());
+  return toAnnotationSet(bytes, annotationSetName);
 }
 
 public static AnnotationSet getAnnotationSet(KeyValue kv)
 {
-  try {
-    AnnotationSet annotationSet = null;
-    byte[] bytes = kv.getValue();
-    if (bytes == null || bytes.length == 0) return null;
-    String parseStr = new String(bytes, HConstants.UTF8_ENCODING);
-    annotationSet = reader.read(new StringInputStream(parseStr), new String(kv.getQualifier(), Charsets.UTF_8));
-    return annotationSet;
-  }
-  catch (UnsupportedEncodingException e) {
-    e.printStackTrace();
-    throw new RuntimeException(e);
-  }
+  return toAnnotationSet(kv.getValue(), new String(kv.getQualifier(), Charsets.UTF_8));
 }
 
 private static final DateField dateField = new DateField();
@@ -410,6 +443,50 @@ public static void add(Put put, String col, String qual, Double value)
 
 protected HTable mTable;
 
+/**
+ * Set when puts go through a background writer instead of straight to mTable. HTable is not thread safe, so the calls
+ * which use mTable directly synchronize on it, letting mappers run map from several threads share one DocSchema.
+ */
+protected BufferedTableWriter mWriter;
+
+/**
+ * Set when puts are written to the task's output, e.g. as HFiles for a bulk load, instead of to the table
+ */
+protected TaskInputOutputContext<?, ?, ImmutableBytesWritable, Put> mOutput;
+
+/**
+ * Set while puts are held back for the caller to take with {@link #takeDeferredPuts()}, e.g. by a chain of mappers
+ * which merges the puts of every mapper for a row into one
+ */
+protected List<Put> mDeferred;
+
+/**
+ * Configuration key turning on buffered, asynchronous puts for DocSchema instances set up with
+ * {@link #configureWrites(Configuration)}
+ */
+public static final String BUFFERED_WRITES_CONF = "reconcile.hbase.table.DocSchema.bufferedWrites";
+
+/**
+ * Configuration key for the client write buffer size in bytes used by buffered writes
+ */
+public static final String WRITE_BUFFER_SIZE_CONF = "reconcile.hbase.table.DocSchema.writeBufferSize";
+
+/**
+ * Configuration key for the number of uncommitted bytes at which producers block in buffered write mode
+ */
+public static final String MAX_IN_FLIGHT_BYTES_CONF = "reconcile.hbase.table.DocSchema.maxInFlightBytes";
+
+/**
+ * Configuration key turning on writes to the task's output for DocSchema instances set up with
+ * {@link #configureWrites(TaskInputOutputContext)}; the job must be set up to handle (row, put) pairs, as a bulk load
+ * job is
+ */
+public static final String OUTPUT_WRITES_CONF = "reconcile.hbase.table.DocSchema.outputWrites";
+
+public static final long DEFAULT_WRITE_BUFFER_SIZE = 8 * 1024 * 1024;
+
+public static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 64 * 1024 * 1024;
+
 public DocSchema(String tableName)
 	throws IOException
 {
@@ -422,6 +499,20 @@ public DocSchema(String tableName, boolean attemptCreateTable)
 	init(tableName, attemptCreateTable);
 }
 
+/**
+ * Create the table, if it does not exist, with the given profile
+ *
+ * @param tableName
+ * @param profile
+ * @throws IOException
+ */
+public DocSchema(String tableName, TableProfile profile)
+	throws IOException
+{
+	myProfile = profile;
+	init(tableName, true);
+}
+
 private void init(String tableName, boolean attemptCreateTable)
 	throws IOException
 {
@@ -434,8 +525,7 @@ private void init(String tableName, boolean attemptCreateTable)
     createTable();
   }
 
-	Configuration config = HBaseConfiguration.create();
-	mTable = new HTable(config, myTableName.getBytes());
+	mTable = SharedTablePool.getTable(myTableName);
 
 	if (mTable == null) throw new NullPointerException("HTable is null for table name("+myTableName+")");
 }
@@ -446,44 +536,223 @@ public HTable getTable()
   return mTable;
 }
 
+/**
+ * Send all further puts through a background writer with autoflush off. Producers only block when more than
+ * <code>maxInFlightBytes</code> are waiting to be committed; {@link #flushCommits()} waits for everything written so
+ * far.
+ *
+ * @param writeBufferSize
+ * @param maxInFlightBytes
+ * @throws IOException
+ */
+public void enableBufferedWrites(long writeBufferSize, long maxInFlightBytes)
+    throws IOException
+{
+  if (mWriter != null) return;
+  // the writer gets its own HTable, since HTable is not safe to share between threads
+  HTable writeTable = SharedTablePool.getTable(myTableName);
+  mWriter = new BufferedTableWriter(writeTable, writeBufferSize, maxInFlightBytes);
+}
+
+/**
+ * Enable buffered writes if {@link #BUFFERED_WRITES_CONF} is set in the given configuration
+ *
+ * @param conf
+ * @throws IOException
+ */
+public void configureWrites(Configuration conf)
+    throws IOException
+{
+  if (conf.getBoolean(BUFFERED_WRITES_CONF, false)) {
+    enableBufferedWrites(conf.getLong(WRITE_BUFFER_SIZE_CONF, DEFAULT_WRITE_BUFFER_SIZE), conf.getLong(
+        MAX_IN_FLIGHT_BYTES_CONF, DEFAULT_MAX_IN_FLIGHT_BYTES));
+  }
+}
+
+/**
+ * Write puts to the task's output if {@link #OUTPUT_WRITES_CONF} is set in its configuration, otherwise as
+ * {@link #configureWrites(Configuration)}
+ *
+ * @param context
+ * @throws IOException
+ */
+public void configureWrites(TaskInputOutputContext<?, ?, ?, ?> context)
+    throws IOException
+{
+  if (context.getConfiguration().getBoolean(OUTPUT_WRITES_CONF, false)) {
+    writeToOutput(context);
+  }
+  else {
+    configureWrites(context.getConfiguration());
+  }
+}
+
+/**
+ * Send all further puts to the given task output, keyed by row, instead of to the table. Deletes still go straight
+ * to the table.
+ *
+ * @param context
+ */
+@SuppressWarnings("unchecked")
+public void writeToOutput(TaskInputOutputContext<?, ?, ?, ?> context)
+{
+  mOutput = (TaskInputOutputContext<?, ?, ImmutableBytesWritable, Put>) context;
+}
+
+/**
+ * Hold back all further puts, until turned off, for the caller to take with {@link #takeDeferredPuts()} and write
+ * itself. Deletes are not deferred, so they are applied ahead of puts made before them.
+ *
+ * @param defer
+ */
+public void deferPuts(boolean defer)
+{
+  mDeferred = defer ? new ArrayList<Put>() : null;
+}
+
+/**
+ * @return the puts held back since the last call, see {@link #deferPuts(boolean)}
+ */
+public List<Put> takeDeferredPuts()
+{
+  if (mDeferred == null) return new ArrayList<Put>();
+  synchronized (mDeferred) {
+    List<Put> deferred = new ArrayList<Put>(mDeferred);
+    mDeferred.clear();
+    return deferred;
+  }
+}
+
+/**
+ * @return the background writer, or null if buffered writes are not enabled
+ */
+public BufferedTableWriter getWriter()
+{
+  return mWriter;
+}
+
 public void flushCommits()
     throws IOException
 {
+  if (mWriter != null) {
+    mWriter.flush();
+  }
   if (mTable != null) {
-    mTable.flushCommits();
+    synchronized (mTable) {
+      mTable.flushCommits();
+    }
   }
 }
 public void close()
     throws IOException
 {
+  mOutput = null;
+  mDeferred = null;
+  if (mWriter != null) {
+    mWriter.close();
+    SharedTablePool.release(mWriter.getTable());
+    mWriter = null;
+  }
   if (mTable != null) {
-    mTable.flushCommits();
-    mTable.close();
+    SharedTablePool.release(mTable);
+    mTable = null;
   }
 }
 
 public void put(Put p)
     throws IOException
 {
-  mTable.put(p);
+  if (mDeferred != null) {
+    synchronized (mDeferred) {
+      mDeferred.add(p);
+    }
+    return;
+  }
+  if (mOutput != null) {
+    writeOutput(p);
+    return;
+  }
+  if (mWriter != null) {
+    mWriter.put(p);
+    return;
+  }
+  synchronized (mTable) {
+    mTable.put(p);
+  }
 }
 
 public void put(List<Put> putList)
     throws IOException
 {
-  mTable.put(putList);
+  if (mDeferred != null) {
+    synchronized (mDeferred) {
+      mDeferred.addAll(putList);
+    }
+    return;
+  }
+  if (mOutput != null) {
+    for (Put p : putList) {
+      writeOutput(p);
+    }
+    return;
+  }
+  if (mWriter != null) {
+    mWriter.put(putList);
+    return;
+  }
+  synchronized (mTable) {
+    mTable.put(putList);
+  }
+}
+
+private void writeOutput(Put p)
+    throws IOException
+{
+  // the task output is not thread safe, and mappers may run map from several threads
+  synchronized (mOutput) {
+    try {
+      mOutput.write(new ImmutableBytesWritable(p.getRow()), p);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted writing (" + Bytes.toStringBinary(p.getRow()) + ")");
+    }
+  }
 }
 
 public Result get(Get get)
     throws IOException
 {
-  return mTable.get(get);
+  synchronized (mTable) {
+    return mTable.get(get);
+  }
+}
+
+/**
+ * Fetch several rows with one round trip per region server
+ *
+ * @param gets
+ * @return one result per get, in the same order; rows that do not exist have an empty result
+ * @throws IOException
+ */
+public Result[] get(List<Get> gets)
+    throws IOException
+{
+  synchronized (mTable) {
+    return mTable.get(gets);
+  }
 }
 
 public void delete(Delete delete)
     throws IOException
 {
-  mTable.delete(delete);
+  if (mWriter != null) {
+    // keep deletes ordered after the puts handed out before them
+    mWriter.flush();
+  }
+  synchronized (mTable) {
+    mTable.delete(delete);
+  }
 }
 
 public ResultScanner getScanner(Scan scan)
@@ -0,0 +1,148 @@
+package reconcile.hbase.table;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.client.HConnection;
+import org.apache.hadoop.hbase.client.HConnectionManager;
+import org.apache.hadoop.hbase.client.HTable;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Process wide source of HTable instances.
+ * <p>
+ * All tables are created from a single Configuration, so they share one HConnection (and its region location cache)
+ * instead of each {@link DocSchema} parsing the configuration and locating regions again. Tables handed back with
+ * {@link #release(HTable)} are kept for reuse, up to {@link #MAX_POOLED_CONF} idle instances per table name. The first
+ * time a table name is requested the location of every region is looked up, so the first gets and puts of a task do
+ * not each pay for a META lookup.
+ */
+public class SharedTablePool {
+
+static final Log LOG = LogFactory.getLog(SharedTablePool.class);
+
+/**
+ * Configuration key for the maximum number of idle HTable instances kept per table name
+ */
+public static final String MAX_POOLED_CONF = "reconcile.hbase.table.SharedTablePool.maxPooled";
+
+/**
+ * Configuration key to turn off warming the region location cache when a table is first used
+ */
+public static final String WARM_REGIONS_CONF = "reconcile.hbase.table.SharedTablePool.warmRegions";
+
+public static final int DEFAULT_MAX_POOLED = 10;
+
+private static Configuration conf = null;
+
+private static final Map<String, LinkedList<HTable>> idleTables = Maps.newHashMap();
+
+/**
+ * @return the configuration all pooled tables are created from
+ */
+public static synchronized Configuration getConfiguration()
+{
+  if (conf == null) {
+    conf = HBaseConfiguration.create();
+  }
+  return conf;
+}
+
+/**
+ * @return the connection shared by all pooled tables
+ * @throws IOException
+ */
+public static HConnection getConnection()
+    throws IOException
+{
+  return HConnectionManager.getConnection(getConfiguration());
+}
+
+/**
+ * Borrow a table. Hand it back with {@link #release(HTable)} rather than closing it.
+ *
+ * @param tableName
+ * @return
+ * @throws IOException
+ */
+public static HTable getTable(String tableName)
+    throws IOException
+{
+  boolean firstUse;
+  synchronized (SharedTablePool.class) {
+    LinkedList<HTable> idle = idleTables.get(tableName);
+    if (idle != null && !idle.isEmpty()) return idle.removeFirst();
+    firstUse = idle == null;
+    if (firstUse) {
+      idleTables.put(tableName, new LinkedList<HTable>());
+    }
+  }
+
+  HTable table = new HTable(getConfiguration(), tableName.getBytes());
+  if (firstUse && getConfiguration().getBoolean(WARM_REGIONS_CONF, true)) {
+    warmRegionCache(table);
+  }
+  return table;
+}
+
+/**
+ * Return a table to the pool. Pending writes are flushed and client side write settings are reset, so the next
+ * borrower gets a table in the default state.
+ *
+ * @param table
+ * @throws IOException
+ */
+public static void release(HTable table)
+    throws IOException
+{
+  if (table == null) return;
+  table.flushCommits();
+  table.setAutoFlush(true);
+  table.setWriteBufferSize(getConfiguration().getLong("hbase.client.write.buffer", 2097152));
+
+  String tableName = new String(table.getTableName());
+  int maxPooled = getConfiguration().getInt(MAX_POOLED_CONF, DEFAULT_MAX_POOLED);
+  synchronized (SharedTablePool.class) {
+    LinkedList<HTable> idle = idleTables.get(tableName);
+    if (idle == null) {
+      idle = new LinkedList<HTable>();
+      idleTables.put(tableName, idle);
+    }
+    if (idle.size() < maxPooled) {
+      idle.add(table);
+      return;
+    }
+  }
+  table.close();
+}
+
+/**
+ * Look up the location of every region of the table, filling the connection's region cache
+ *
+ * @param table
+ */
+private static void warmRegionCache(HTable table)
+{
+  try {
+    long start = System.currentTimeMillis();
+    HConnection connection = getConnection();
+    byte[][] startKeys = table.getStartKeys();
+    for (byte[] startKey : startKeys) {
+      connection.getRegionLocation(table.getTableName(), startKey, false);
+    }
+    LOG.info("Cached (" + startKeys.length + ") region locations for table(" + new String(table.getTableName())
+        + ") in (" + (System.currentTimeMillis() - start) + ")ms");
+  }
+  catch (IOException e) {
+    // only an optimization, the regions will be located on demand
+    LOG.warn("Unable to warm region cache for table(" + new String(table.getTableName()) + "): " + e.getMessage());
+  }
+}
+
+}
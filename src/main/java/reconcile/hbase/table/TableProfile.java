@@ -0,0 +1,169 @@
+package reconcile.hbase.table;
+
+import static org.apache.hadoop.hbase.HColumnDescriptor.DEFAULT_BLOCKCACHE;
+import static org.apache.hadoop.hbase.HColumnDescriptor.DEFAULT_BLOCKSIZE;
+import static org.apache.hadoop.hbase.HColumnDescriptor.DEFAULT_BLOOMFILTER;
+import static org.apache.hadoop.hbase.HColumnDescriptor.DEFAULT_IN_MEMORY;
+import static org.apache.hadoop.hbase.HColumnDescriptor.DEFAULT_TTL;
+import static org.apache.hadoop.hbase.HColumnDescriptor.DEFAULT_VERSIONS;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+
+/**
+ * Physical settings used when creating a table: number of pre-split regions and per column family compression, block
+ * size, bloom filter and in-memory flags. Settings are read from a hadoop configuration, so a profile is simply a
+ * hadoop XML file with any of the following properties:
+ * <ul>
+ * <li>reconcile.hbase.table.TableProfile.numRegions - number of regions to pre-split the hex key space into</li>
+ * <li>reconcile.hbase.table.TableProfile.&lt;family&gt;.compression - NONE, GZ or LZO</li>
+ * <li>reconcile.hbase.table.TableProfile.&lt;family&gt;.blockSize - HFile block size in bytes</li>
+ * <li>reconcile.hbase.table.TableProfile.&lt;family&gt;.bloomFilter - NONE, ROW or ROWCOL</li>
+ * <li>reconcile.hbase.table.TableProfile.&lt;family&gt;.inMemory - true / false</li>
+ * </ul>
+ * The built in {@link #INGEST_PROFILE} uses row bloom filters for the small src and meta families, and keeps src in
+ * memory since almost every job filters on src:name.
+ */
+public class TableProfile {
+
+static final String BASE = "reconcile.hbase.table.TableProfile";
+
+public static final String NUM_REGIONS_CONF = BASE + ".numRegions";
+
+public static final String COMPRESSION = "compression";
+
+public static final String BLOCK_SIZE = "blockSize";
+
+public static final String BLOOM_FILTER = "bloomFilter";
+
+public static final String IN_MEMORY = "inMemory";
+
+/**
+ * Name of the built in profile for tables which are loaded with DocLoader/CorpusLoader/ImportNYT
+ */
+public static final String INGEST_PROFILE = "ingest";
+
+/**
+ * Name of the profile which matches the settings tables have always been created with
+ */
+public static final String DEFAULT_PROFILE = "default";
+
+public static final String DEFAULT_COMPRESSION = "GZ";
+
+/**
+ * The number of leading hex characters of the row key used to compute split points
+ */
+private static final int SPLIT_KEY_LENGTH = 8;
+
+/**
+ * Load a profile.
+ *
+ * @param profile
+ *          null or {@link #DEFAULT_PROFILE}, {@link #INGEST_PROFILE}, or the path of a hadoop XML file
+ * @return
+ * @throws IOException
+ *           if the profile is a file that does not exist
+ */
+public static TableProfile load(String profile)
+    throws IOException
+{
+  Configuration conf = HBaseConfiguration.create();
+  if (profile == null || profile.equals(DEFAULT_PROFILE)) return new TableProfile(conf);
+
+  if (profile.equals(INGEST_PROFILE)) {
+    setIfUnset(conf, key(DocSchema.srcCF, BLOOM_FILTER), "ROW");
+    setIfUnset(conf, key(DocSchema.srcCF, IN_MEMORY), "true");
+    setIfUnset(conf, key(DocSchema.metaCF, BLOOM_FILTER), "ROW");
+    return new TableProfile(conf);
+  }
+
+  File file = new File(profile);
+  if (!file.exists()) throw new IOException("table profile (" + profile + ") does not exist");
+  conf.addResource(new Path(file.getAbsolutePath()));
+  return new TableProfile(conf);
+}
+
+private static void setIfUnset(Configuration conf, String key, String value)
+{
+  if (conf.get(key) == null) {
+    conf.set(key, value);
+  }
+}
+
+public static String key(String family, String setting)
+{
+  return BASE + "." + family + "." + setting;
+}
+
+private Configuration conf;
+
+public TableProfile(Configuration conf) {
+  this.conf = conf;
+}
+
+/**
+ * @return the number of regions a new table should be split into
+ */
+public int getNumRegions()
+{
+  return Math.max(conf.getInt(NUM_REGIONS_CONF, 1), 1);
+}
+
+public void setNumRegions(int numRegions)
+{
+  conf.setInt(NUM_REGIONS_CONF, numRegions);
+}
+
+/**
+ * Create the column family descriptor for the given family from the profile settings
+ *
+ * @param family
+ * @return
+ */
+public HColumnDescriptor getFamilyDescriptor(String family)
+{
+  String compression = conf.get(key(family, COMPRESSION), DEFAULT_COMPRESSION);
+  String bloomFilter = conf.get(key(family, BLOOM_FILTER), DEFAULT_BLOOMFILTER);
+  boolean inMemory = conf.getBoolean(key(family, IN_MEMORY), DEFAULT_IN_MEMORY);
+
+  HColumnDescriptor desc = new HColumnDescriptor(family.getBytes(), DEFAULT_VERSIONS, compression.toUpperCase(),
+      inMemory, DEFAULT_BLOCKCACHE, DEFAULT_TTL, bloomFilter.toUpperCase());
+  desc.setBlocksize(conf.getInt(key(family, BLOCK_SIZE), DEFAULT_BLOCKSIZE));
+  return desc;
+}
+
+/**
+ * @return the split keys for the configured number of regions, or null if the table should not be pre-split
+ */
+public byte[][] getSplitKeys()
+{
+  int numRegions = getNumRegions();
+  if (numRegions <= 1) return null;
+  return getHexSplitKeys(numRegions);
+}
+
+/**
+ * Compute split keys which divide the key space of hex encoded digests (e.g. <code>DigestUtils.shaHex</code>) into
+ * <code>numRegions</code> evenly sized regions
+ *
+ * @param numRegions
+ * @return numRegions - 1 split keys
+ */
+public static byte[][] getHexSplitKeys(int numRegions)
+{
+  if (numRegions <= 1) return new byte[0][];
+  long range = 1L << (SPLIT_KEY_LENGTH * 4);
+  byte[][] splits = new byte[numRegions - 1][];
+  for (int i = 1; i < numRegions; i++) {
+    long boundary = range * i / numRegions;
+    splits[i - 1] = String.format("%0" + SPLIT_KEY_LENGTH + "x", boundary).getBytes();
+  }
+  return splits;
+}
+
+}
@@ -0,0 +1,109 @@
+package reconcile.hbase.filter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.filter.Filter.ReturnCode;
+import org.apache.hadoop.hbase.util.Bytes;
+
+public class OversizedRowFilterTest extends TestCase
+{
+	static byte[] ROW = Bytes.toBytes("row1");
+	static byte[] FAMILY = Bytes.toBytes("annotations");
+	static byte[] SRC = Bytes.toBytes("src");
+
+	private static KeyValue kv(byte[] family, String qualifier, int valueBytes)
+	{
+		return new KeyValue(ROW, family, Bytes.toBytes(qualifier), new byte[valueBytes]);
+	}
+
+	/**
+	 * Drive the filter over one row the way a region scanner does, returning the KeyValues left for the client
+	 */
+	private static List<KeyValue> filter(OversizedRowFilter filter, KeyValue... kvs)
+	{
+		filter.reset();
+		Assert.assertFalse(filter.filterRowKey(ROW, 0, ROW.length));
+		List<KeyValue> results = new ArrayList<KeyValue>();
+		for (KeyValue kv : kvs) {
+			if (filter.filterKeyValue(kv) == ReturnCode.INCLUDE) {
+				results.add(kv);
+			}
+		}
+		Assert.assertTrue(filter.hasFilterRow());
+		filter.filterRow(results);
+		Assert.assertFalse(filter.filterRow());
+		return results;
+	}
+
+	public void testSmallRowPasses()
+	{
+		OversizedRowFilter filter = new OversizedRowFilter(10000, 1000);
+		List<KeyValue> results = filter(filter, kv(FAMILY, "token", 100), kv(SRC, "name", 10));
+		Assert.assertEquals(2, results.size());
+		Assert.assertFalse(OversizedRowFilter.isOversized(new Result(results)));
+	}
+
+	public void testRowLimit()
+	{
+		OversizedRowFilter filter = new OversizedRowFilter(1000, 0);
+		KeyValue first = kv(FAMILY, "parse", 600);
+		KeyValue second = kv(FAMILY, "token", 600);
+		List<KeyValue> results = filter(filter, first, second, kv(SRC, "name", 10));
+
+		Assert.assertEquals(1, results.size());
+		Result result = new Result(results);
+		Assert.assertTrue(OversizedRowFilter.isOversized(result));
+		Assert.assertTrue(Bytes.equals(ROW, result.getRow()));
+		Assert.assertEquals(first.getLength() + second.getLength(), OversizedRowFilter.getBytesSeen(result));
+	}
+
+	public void testColumnLimit()
+	{
+		OversizedRowFilter filter = new OversizedRowFilter(0, 500);
+		List<KeyValue> results = filter(filter, kv(FAMILY, "parse", 100), kv(FAMILY, "token", 501));
+		Assert.assertTrue(OversizedRowFilter.isOversized(new Result(results)));
+
+		filter = new OversizedRowFilter(0, 500);
+		results = filter(filter, kv(FAMILY, "parse", 100), kv(FAMILY, "token", 500));
+		Assert.assertEquals(2, results.size());
+	}
+
+	public void testLaterColumnsSkippedNotSought()
+	{
+		// later filters, e.g. on src:name, must still be offered the rest of the row
+		OversizedRowFilter filter = new OversizedRowFilter(100, 0);
+		filter.reset();
+		filter.filterRowKey(ROW, 0, ROW.length);
+		Assert.assertEquals(ReturnCode.SKIP, filter.filterKeyValue(kv(FAMILY, "parse", 200)));
+		Assert.assertEquals(ReturnCode.SKIP, filter.filterKeyValue(kv(SRC, "name", 10)));
+	}
+
+	public void testResetBetweenRows()
+	{
+		OversizedRowFilter filter = new OversizedRowFilter(1000, 0);
+		Assert.assertEquals(1, filter(filter, kv(FAMILY, "parse", 2000)).size());
+		List<KeyValue> results = filter(filter, kv(FAMILY, "parse", 100));
+		Assert.assertEquals(1, results.size());
+		Assert.assertFalse(OversizedRowFilter.isOversized(new Result(results)));
+	}
+
+	public void testWritable() throws Exception
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new OversizedRowFilter(123, 45).write(new DataOutputStream(bytes));
+		OversizedRowFilter filter = new OversizedRowFilter();
+		filter.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		Assert.assertEquals(123, filter.getMaxRowBytes());
+		Assert.assertEquals(45, filter.getMaxColumnBytes());
+	}
+}
@@ -0,0 +1,218 @@
+package reconcile.hbase.mapreduce;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.collect.ImmutableSet;
+
+import reconcile.hbase.mapreduce.ChainAnnotation.ChainMapper;
+import reconcile.hbase.mapreduce.ChainableAnnotationJob.AnnotateMapper;
+
+public class ChainAnnotationTest extends TestCase
+{
+	static final String RAW = "text:raw";
+	static final String TOKEN = "annotations:token";
+	static final String SENTENCE = "annotations:sentence";
+	static final String PARSE = "annotations:parse";
+
+	static class Stub extends AnnotateMapper
+	{
+		final Set<String> inputs;
+		final Set<String> outputs;
+
+		Stub(Set<String> inputs, Set<String> outputs)
+		{
+			this.inputs = inputs;
+			this.outputs = outputs;
+		}
+
+		@Override
+		public Set<String> getInputColumns()
+		{
+			return inputs;
+		}
+
+		@Override
+		public Set<String> getOutputColumns()
+		{
+			return outputs;
+		}
+	}
+
+	static class VersionedStub extends Stub
+	{
+		VersionedStub(Set<String> inputs, Set<String> outputs)
+		{
+			super(inputs, outputs);
+		}
+
+		@Override
+		public String getVersion()
+		{
+			return "2";
+		}
+	}
+
+	private static Stub stub(String input, String output)
+	{
+		return new Stub(ImmutableSet.of(input), ImmutableSet.of(output));
+	}
+
+	private static List<List<AnnotateMapper>> stages(AnnotateMapper... mappers)
+	{
+		List<AnnotateMapper> chain = new ArrayList<AnnotateMapper>();
+		for (AnnotateMapper mapper : mappers) {
+			chain.add(mapper);
+		}
+		return new ArrayList<List<AnnotateMapper>>(ChainMapper.buildStages(chain));
+	}
+
+	public void testIndependentMappersShareStage()
+	{
+		Stub tokens = stub(RAW, TOKEN);
+		Stub sentences = stub(RAW, SENTENCE);
+		List<List<AnnotateMapper>> stages = stages(tokens, sentences);
+		Assert.assertEquals(1, stages.size());
+		Assert.assertEquals(2, stages.get(0).size());
+		Assert.assertSame(tokens, stages.get(0).get(0));
+		Assert.assertSame(sentences, stages.get(0).get(1));
+	}
+
+	public void testReaderRunsAfterWriter()
+	{
+		Stub tokens = stub(RAW, TOKEN);
+		Stub sentences = stub(RAW, SENTENCE);
+		Stub parses = stub(TOKEN, PARSE);
+		List<List<AnnotateMapper>> stages = stages(tokens, parses, sentences);
+		Assert.assertEquals(2, stages.size());
+		Assert.assertEquals(2, stages.get(0).size());
+		Assert.assertSame(sentences, stages.get(0).get(1));
+		Assert.assertSame(parses, stages.get(1).get(0));
+	}
+
+	public void testWritersOfOneColumnKeepChainOrder()
+	{
+		Stub first = stub(RAW, TOKEN);
+		Stub second = stub(SENTENCE, TOKEN);
+		List<List<AnnotateMapper>> stages = stages(first, second);
+		Assert.assertEquals(2, stages.size());
+		Assert.assertSame(first, stages.get(0).get(0));
+		Assert.assertSame(second, stages.get(1).get(0));
+
+		// writing a column an earlier mapper reads
+		stages = stages(stub(TOKEN, SENTENCE), stub(RAW, TOKEN));
+		Assert.assertEquals(2, stages.size());
+	}
+
+	public void testUndeclaredMappersAreBarriers()
+	{
+		Stub tokens = stub(RAW, TOKEN);
+		Stub undeclared = new Stub(null, null);
+		Stub sentences = stub(RAW, SENTENCE);
+		List<List<AnnotateMapper>> stages = stages(tokens, undeclared, sentences);
+		Assert.assertEquals(3, stages.size());
+		Assert.assertSame(undeclared, stages.get(1).get(0));
+		Assert.assertSame(sentences, stages.get(2).get(0));
+
+		// only inputs declared
+		Stub partly = new Stub(ImmutableSet.of(RAW), null);
+		stages = stages(tokens, partly);
+		Assert.assertEquals(2, stages.size());
+	}
+
+	public void testFamilyOverlapsQualifier()
+	{
+		Assert.assertTrue(ChainAnnotation.overlaps(ImmutableSet.of("annotations:"), ImmutableSet.of(TOKEN)));
+		Assert.assertTrue(ChainAnnotation.overlaps(ImmutableSet.of(TOKEN), ImmutableSet.of("annotations")));
+		Assert.assertTrue(ChainAnnotation.overlaps(ImmutableSet.of(RAW, TOKEN), ImmutableSet.of(TOKEN)));
+		Assert.assertFalse(ChainAnnotation.overlaps(ImmutableSet.of(TOKEN), ImmutableSet.of(PARSE)));
+		Assert.assertFalse(ChainAnnotation.overlaps(ImmutableSet.of("text:"), ImmutableSet.of(TOKEN)));
+		Assert.assertFalse(ChainAnnotation.overlaps(ImmutableSet.<String> of(), ImmutableSet.of(TOKEN)));
+
+		// a mapper reading the whole family waits for any writer in it
+		List<List<AnnotateMapper>> stages = stages(stub(RAW, TOKEN), stub("annotations:", PARSE));
+		Assert.assertEquals(2, stages.size());
+	}
+
+	private static boolean scans(Scan scan, String column)
+	{
+		String[] fq = ChainAnnotation.splitColumn(column);
+		if (!scan.hasFamilies()) return true;
+		if (!scan.getFamilyMap().containsKey(Bytes.toBytes(fq[0]))) return false;
+		Set<byte[]> qualifiers = scan.getFamilyMap().get(Bytes.toBytes(fq[0]));
+		return qualifiers == null || (fq[1].length() > 0 && qualifiers.contains(Bytes.toBytes(fq[1])));
+	}
+
+	public void testIncrementalScansChainedInputs()
+	{
+		// tokens may be skipped as up to date, so parses must read the tokens from the table
+		Stub tokens = new VersionedStub(ImmutableSet.of(RAW), ImmutableSet.of(TOKEN));
+		Stub parses = new VersionedStub(ImmutableSet.of(TOKEN), ImmutableSet.of(PARSE));
+		List<AnnotateMapper> chain = new ArrayList<AnnotateMapper>();
+		chain.add(tokens);
+		chain.add(parses);
+
+		Scan scan = new Scan();
+		JobConfig.addColumns(scan, ChainAnnotation.getInputColumns(chain));
+		Assert.assertTrue(scans(scan, RAW));
+		Assert.assertFalse(scans(scan, TOKEN));
+		Assert.assertEquals(ImmutableSet.of(TOKEN), ChainAnnotation.getChainedInputColumns(chain));
+
+		ChainAnnotation.initIncrementalScan(scan, chain, true);
+		Assert.assertTrue(scans(scan, RAW));
+		Assert.assertTrue(scans(scan, TOKEN));
+		Assert.assertFalse(scans(scan, PARSE));
+		Assert.assertTrue(scans(scan, "meta:"+ChainAnnotation.versionColumn(tokens)));
+
+		// an unversioned mapper writing a whole family, whose outputs are not otherwise scanned
+		chain.set(0, new Stub(ImmutableSet.of(RAW), ImmutableSet.of("annotations:")));
+		scan = new Scan();
+		JobConfig.addColumns(scan, ChainAnnotation.getInputColumns(chain));
+		Assert.assertFalse(scans(scan, TOKEN));
+		ChainAnnotation.initIncrementalScan(scan, chain, true);
+		Assert.assertTrue(scans(scan, TOKEN));
+		Assert.assertFalse(scans(scan, PARSE));
+	}
+
+	private static KeyValue kv(String column, String value)
+	{
+		String[] fq = ChainAnnotation.splitColumn(column);
+		return new KeyValue(Bytes.toBytes("row"), Bytes.toBytes(fq[0]), Bytes.toBytes(fq[1]), Bytes.toBytes(value));
+	}
+
+	public void testMergeReplacesEarlierValues()
+	{
+		Result row = new Result(new KeyValue[] { kv(TOKEN, "old"), kv(RAW, "text") });
+		List<KeyValue> added = new ArrayList<KeyValue>();
+		added.add(kv(TOKEN, "first"));
+		added.add(kv(PARSE, "parse"));
+		added.add(kv(TOKEN, "new"));
+
+		Result merged = ChainMapper.merge(row, added);
+		Assert.assertEquals(3, merged.size());
+		Assert.assertEquals("new", Bytes.toString(merged.getValue(Bytes.toBytes("annotations"), Bytes.toBytes("token"))));
+		Assert.assertEquals("parse", Bytes.toString(merged.getValue(Bytes.toBytes("annotations"), Bytes.toBytes("parse"))));
+		Assert.assertEquals("text", Bytes.toString(merged.getValue(Bytes.toBytes("text"), Bytes.toBytes("raw"))));
+
+		// sorted, so later lookups by column work
+		KeyValue[] kvs = merged.raw();
+		for (int i=1; i<kvs.length; ++i) {
+			Assert.assertTrue(KeyValue.COMPARATOR.compare(kvs[i-1], kvs[i]) < 0);
+		}
+	}
+
+	public void testMergeNothingAdded()
+	{
+		Result row = new Result(new KeyValue[] { kv(RAW, "text") });
+		Assert.assertSame(row, ChainMapper.merge(row, new ArrayList<KeyValue>()));
+	}
+}
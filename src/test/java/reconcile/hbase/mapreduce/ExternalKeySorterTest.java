@@ -0,0 +1,71 @@
+package reconcile.hbase.mapreduce;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class ExternalKeySorterTest extends TestCase
+{
+	private File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+
+	private static List<String> drain(ExternalKeySorter.SortedKeys keys)
+		throws IOException
+	{
+		List<String> result = new ArrayList<String>();
+		String key = null;
+		while ((key=keys.next())!=null) {
+			result.add(key);
+		}
+		keys.close();
+		return result;
+	}
+
+	private static BufferedReader reader(String text)
+	{
+		return new BufferedReader(new StringReader(text));
+	}
+
+	public void testSortSpillsAndDedups()
+		throws IOException
+	{
+		ExternalKeySorter sorter = new ExternalKeySorter(3, tmpDir);
+		sorter.addAll(reader("d\nb\n# comment\n\na\nc\nb\n e \na\n"));
+		Assert.assertTrue(sorter.getNumRuns() >= 2);
+
+		List<String> keys = drain(sorter.sortedKeys());
+		Assert.assertEquals("[a, b, c, d, e]", keys.toString());
+		Assert.assertEquals(0, sorter.getNumRuns());
+	}
+
+	public void testMergePresorted()
+		throws IOException
+	{
+		List<BufferedReader> inputs = new ArrayList<BufferedReader>();
+		inputs.add(reader("a\nc\ne\n"));
+		inputs.add(reader("b\nc\nf\n"));
+		inputs.add(reader(""));
+
+		Assert.assertEquals("[a, b, c, e, f]", drain(ExternalKeySorter.merge(inputs)).toString());
+	}
+
+	public void testMergeUnsorted()
+		throws IOException
+	{
+		List<BufferedReader> inputs = new ArrayList<BufferedReader>();
+		inputs.add(reader("a\nc\nb\n"));
+
+		try {
+			drain(ExternalKeySorter.merge(inputs));
+			fail("unsorted input was merged");
+		}
+		catch (IOException e) {
+			Assert.assertTrue(e.getMessage().contains("not sorted"));
+		}
+	}
+}
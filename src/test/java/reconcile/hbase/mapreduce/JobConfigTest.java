@@ -81,6 +81,14 @@ public class JobConfigTest extends TestCase
 		Assert.assertEquals(FOO, jobConfig.getTableName());
 	}
 	
+	public void testWriteBufferArg()
+	{
+		String[] args = { JobConfig.WRITE_BUFFER_ARG+"1048576" };
+		JobConfig jobConfig = new JobConfig(args);
+		Assert.assertEquals(Long.valueOf(1048576), jobConfig.getWriteBufferSize());
+		Assert.assertNull(new JobConfig(new String[0]).getWriteBufferSize());
+	}
+
 	private static final String PRE1="-prefix1=";
 	private static final String PRE2="-prefix2=";
 	private static final String PRE3="-prefix3=";
@@ -110,4 +118,54 @@ public void testGetArg()
   assertTrue(p2.contains("good"));
 
 }
+
+	public void testScanProfileForName()
+	{
+		Assert.assertEquals(ScanProfile.IO, ScanProfile.forName("io"));
+		Assert.assertEquals(ScanProfile.CPU, ScanProfile.forName("CPU"));
+		Assert.assertEquals(ScanProfile.HUGE_ROWS, ScanProfile.forName("huge-rows"));
+		Assert.assertEquals(ScanProfile.AUTO, ScanProfile.forName("auto"));
+		try {
+			ScanProfile.forName("fast");
+			fail("unknown profile accepted");
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testAutoCaching()
+	{
+		// nothing sampled
+		Assert.assertEquals(ScanProfile.IO.getCaching(), ScanProfile.autoCaching(0));
+		Assert.assertEquals(2048, ScanProfile.autoCaching(1024));
+		Assert.assertEquals(1, ScanProfile.autoCaching(ScanProfile.AUTO_TARGET_BYTES));
+		Assert.assertEquals(1, ScanProfile.autoCaching(ScanProfile.AUTO_TARGET_BYTES * 10));
+		Assert.assertEquals(ScanProfile.MAX_CACHING, ScanProfile.autoCaching(1));
+	}
+
+	public void testUnknownScanProfileArg()
+	{
+		try {
+			new JobConfig(new String[] { JobConfig.SCAN_PROFILE_ARG+"fast" });
+			fail("unknown profile accepted");
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testWithoutScanArgs()
+	{
+		String[] args = { JobConfig.SOURCE_ARG+FOO, JobConfig.SCAN_PROFILE_ARG+"io", "positional",
+				JobConfig.CACHING_ARG+"100", JobConfig.BATCH_ARG+"10", JobConfig.CACHE_BLOCKS_ARG+"true",
+				JobConfig.TABLE_ARG+BAR };
+		String[] rest = JobConfig.withoutScanArgs(args);
+		Assert.assertEquals(3, rest.length);
+		Assert.assertEquals(JobConfig.SOURCE_ARG+FOO, rest[0]);
+		Assert.assertEquals("positional", rest[1]);
+		Assert.assertEquals(JobConfig.TABLE_ARG+BAR, rest[2]);
+
+		Assert.assertEquals(0, JobConfig.withoutScanArgs(new String[0]).length);
+	}
 }
@@ -136,6 +136,39 @@ public class KeyListInputFormatTest extends TestCase
 	    }
 	}
 
+	public void testCapSplits()
+	{
+		List<KeyListInputFormat.SplitRange> ranges = new ArrayList<KeyListInputFormat.SplitRange>();
+		ranges.add(new KeyListInputFormat.SplitRange(0, 10, 10, 100, "a"));
+		ranges.add(new KeyListInputFormat.SplitRange(10, 12, 2, 5, "b"));
+		ranges.add(new KeyListInputFormat.SplitRange(12, 14, 2, 5, "c"));
+		ranges.add(new KeyListInputFormat.SplitRange(14, 20, 6, 20, "c"));
+		Assert.assertSame(ranges, KeyListInputFormat.capSplits(ranges, 4));
+
+		// the same host pair merges first, though the b/c pair is lighter
+		List<KeyListInputFormat.SplitRange> capped = KeyListInputFormat.capSplits(ranges, 3);
+		Assert.assertEquals(3, capped.size());
+		Assert.assertEquals(12, capped.get(2).start);
+		Assert.assertEquals(20, capped.get(2).end);
+		Assert.assertEquals(8, capped.get(2).keys);
+		Assert.assertEquals(25, capped.get(2).weight);
+		Assert.assertEquals("c", capped.get(2).host);
+
+		// then the lightest pair, on the host of its heavier part
+		capped = KeyListInputFormat.capSplits(ranges, 2);
+		Assert.assertEquals(2, capped.size());
+		Assert.assertEquals(10, capped.get(1).start);
+		Assert.assertEquals(30, capped.get(1).weight);
+		Assert.assertEquals("c", capped.get(1).host);
+
+		capped = KeyListInputFormat.capSplits(ranges, 0);
+		Assert.assertEquals(1, capped.size());
+		Assert.assertEquals(0, capped.get(0).start);
+		Assert.assertEquals(20, capped.get(0).end);
+		Assert.assertEquals(20, capped.get(0).keys);
+		Assert.assertEquals("a", capped.get(0).host);
+	}
+
 	private void addInputPath(Path path) throws IOException
 	{
 		FileInputFormat.addInputPath(job, path);
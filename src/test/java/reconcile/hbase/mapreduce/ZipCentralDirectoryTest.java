@@ -0,0 +1,144 @@
+package reconcile.hbase.mapreduce;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+public class ZipCentralDirectoryTest extends TestCase
+{
+	private File zipFile;
+	private String bigText;
+
+	@Override
+	public void setUp()
+		throws IOException
+	{
+		StringBuffer buffer = new StringBuffer();
+		for (int i=0; i<10000; ++i) {
+			buffer.append("line ").append(i).append('\n');
+		}
+		bigText = buffer.toString();
+
+		zipFile = File.createTempFile("ZipCentralDirectoryTest", ".zip");
+		ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zipFile));
+		try {
+			zos.putNextEntry(new ZipEntry("dir/"));
+			zos.closeEntry();
+			zos.putNextEntry(new ZipEntry("dir/small.txt"));
+			zos.write("small".getBytes("UTF-8"));
+			zos.closeEntry();
+			zos.putNextEntry(new ZipEntry("big.txt"));
+			zos.write(bigText.getBytes("UTF-8"));
+			zos.closeEntry();
+			zos.setComment("archive comment");
+		}
+		finally {
+			zos.close();
+		}
+	}
+
+	@Override
+	public void tearDown()
+	{
+		zipFile.delete();
+	}
+
+	private static String readEntry(FSDataInputStream is, ZipCentralDirectory.Entry entry)
+		throws IOException
+	{
+		InputStream data = ZipCentralDirectory.openEntry(is, entry.getLocalHeaderOffset(), entry.getCompressedSize(),
+				entry.getMethod());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			IOUtils.copy(data, out);
+		}
+		finally {
+			data.close();
+		}
+		return out.toString("UTF-8");
+	}
+
+	public void testEntries()
+		throws IOException
+	{
+		FileSystem fs = FileSystem.getLocal(new Configuration());
+		FSDataInputStream is = fs.open(new Path(zipFile.getAbsolutePath()));
+		try {
+			Assert.assertEquals(3, ZipCentralDirectory.readEnd(is, zipFile.length()).getNumEntries());
+
+			List<ZipCentralDirectory.Entry> entries = ZipCentralDirectory.read(is, zipFile.length());
+			Assert.assertEquals(3, entries.size());
+			Assert.assertTrue(entries.get(0).isDirectory());
+
+			// read out of archive order to check the entries are located by offset
+			ZipCentralDirectory.Entry big = entries.get(2);
+			Assert.assertEquals("big.txt", big.getName());
+			Assert.assertEquals(bigText.length(), big.getSize());
+			Assert.assertEquals(ZipEntry.DEFLATED, big.getMethod());
+			Assert.assertEquals(bigText, readEntry(is, big));
+
+			ZipCentralDirectory.Entry small = entries.get(1);
+			Assert.assertEquals("dir/small.txt", small.getName());
+			Assert.assertEquals("small", readEntry(is, small));
+		}
+		finally {
+			is.close();
+		}
+	}
+
+	public void testNotZip()
+		throws IOException
+	{
+		File file = File.createTempFile("ZipCentralDirectoryTest", ".txt");
+		FileOutputStream os = new FileOutputStream(file);
+		os.write("not a zip archive, just some text".getBytes("UTF-8"));
+		os.close();
+
+		FileSystem fs = FileSystem.getLocal(new Configuration());
+		FSDataInputStream is = fs.open(new Path(file.getAbsolutePath()));
+		try {
+			ZipCentralDirectory.read(is, file.length());
+			fail("read a central directory from a text file");
+		}
+		catch (IOException e) {
+			// expected
+		}
+		finally {
+			is.close();
+			file.delete();
+		}
+	}
+
+	public void testUtf8Boundary() throws Exception
+	{
+		byte[] ascii = "abcd".getBytes("UTF-8");
+		Assert.assertEquals(4, ZipInputFormat.utf8Boundary(ascii, 4));
+
+		// an ASCII character followed by one of 2, 3 and 4 bytes
+		for (String text : new String[] { "a\u00e9", "a\u20ac", "a\ud83d\ude00" }) {
+			byte[] bytes = text.getBytes("UTF-8");
+			Assert.assertEquals(bytes.length, ZipInputFormat.utf8Boundary(bytes, bytes.length));
+			for (int n=2; n<bytes.length; ++n) {
+				Assert.assertEquals(1, ZipInputFormat.utf8Boundary(bytes, n));
+			}
+		}
+
+		// a buffer holding only part of one character is passed whole rather than never returned
+		byte[] euro = "\u20ac".getBytes("UTF-8");
+		Assert.assertEquals(2, ZipInputFormat.utf8Boundary(euro, 2));
+	}
+}
@@ -0,0 +1,97 @@
+package reconcile.hbase.mapreduce.parse.nyt;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class NYTCorpusDocumentParserTest extends TestCase
+{
+	public static final String SAMPLE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+		+ "<!DOCTYPE nitf SYSTEM \"http://www.nitf.org/IPTC/NITF/3.3/specification/dtd/nitf-3-3.dtd\">\n"
+		+ "<nitf change.date=\"June 10, 2005\" change.time=\"19:30\" version=\"-//IPTC//DTD NITF 3.3//EN\">\n"
+		+ "  <head>\n"
+		+ "    <title>Sample Article</title>\n"
+		+ "    <meta content=\"15\" name=\"publication_day_of_month\"/>\n"
+		+ "    <meta content=\"3\" name=\"publication_month\"/>\n"
+		+ "    <meta content=\"2001\" name=\"publication_year\"/>\n"
+		+ "    <meta content=\"Thursday\" name=\"publication_day_of_week\"/>\n"
+		+ "    <meta content=\"Metropolitan Desk\" name=\"dsk\"/>\n"
+		+ "    <meta content=\"7\" name=\"print_page_number\"/>\n"
+		+ "    <meta content=\"B\" name=\"print_section\"/>\n"
+		+ "    <meta content=\" 4 \" name=\"print_column\"/>\n"
+		+ "    <meta content=\"New York and Region\" name=\"online_sections\"/>\n"
+		+ "    <docdata>\n"
+		+ "      <doc-id id-string=\"1234567\"/>\n"
+		+ "      <doc.copyright holder=\"The New York Times\" year=\"2001\"/>\n"
+		+ "      <series series.name=\"METRO BRIEFING\"/>\n"
+		+ "      <identified-content>\n"
+		+ "        <classifier class=\"indexing_service\" type=\"descriptor\">Transit Systems</classifier>\n"
+		+ "        <classifier class=\"online_producer\" type=\"types_of_material\">News</classifier>\n"
+		+ "        <classifier class=\"online_producer\" type=\"taxonomic_classifier\">Top/News/New York and Region</classifier>\n"
+		+ "        <location class=\"indexing_service\">NEW YORK CITY</location>\n"
+		+ "        <org class=\"indexing_service\">METROPOLITAN TRANSPORTATION AUTHORITY</org>\n"
+		+ "        <person class=\"indexing_service\">Doe, Jane</person>\n"
+		+ "        <person class=\"online_producer\">Jane Doe</person>\n"
+		+ "        <object.title class=\"indexing_service\">Subway Map (Map)</object.title>\n"
+		+ "      </identified-content>\n"
+		+ "    </docdata>\n"
+		+ "    <pubdata date.publication=\"20010315T000000\" ex-ref=\"http://query.nytimes.com/gst/fullpage.html?res=1\" item-length=\"120\" name=\"The New York Times\" unit-of-measure=\"word\"/>\n"
+		+ "  </head>\n"
+		+ "  <body>\n"
+		+ "    <body.head>\n"
+		+ "      <hedline>\n"
+		+ "        <hl1>Subway Fares  Rise</hl1>\n"
+		+ "        <hl2 class=\"online_headline\">Subway Fares Rise &amp; Riders Object</hl2>\n"
+		+ "      </hedline>\n"
+		+ "      <byline class=\"print_byline\">By JANE DOE</byline>\n"
+		+ "      <byline class=\"normalized_byline\">Doe, Jane</byline>\n"
+		+ "      <dateline>NEW YORK, March 14</dateline>\n"
+		+ "      <abstract>\n"
+		+ "        <p>Fares rise; <em>riders</em> object.</p>\n"
+		+ "      </abstract>\n"
+		+ "    </body.head>\n"
+		+ "    <body.content>\n"
+		+ "      <block class=\"lead_paragraph\">\n"
+		+ "        <p>LEAD: The fare will rise.</p>\n"
+		+ "      </block>\n"
+		+ "      <block class=\"full_text\">\n"
+		+ "        <p>The fare will rise.</p>\n"
+		+ "        <p>Riders said they  would <b>object</b>\n"
+		+ "           loudly.</p>\n"
+		+ "        <!-- a comment -->\n"
+		+ "      </block>\n"
+		+ "    </body.content>\n"
+		+ "    <body.end>\n"
+		+ "      <tagline class=\"author_info\">Jane Doe reports on transit.</tagline>\n"
+		+ "    </body.end>\n"
+		+ "  </body>\n"
+		+ "</nitf>\n";
+
+	public void testStaxMatchesDom()
+	{
+		NYTCorpusDocumentParser dom = new NYTCorpusDocumentParser();
+		NYTCorpusDocumentParser stax = new NYTCorpusDocumentParser();
+		stax.setUseStax(true);
+
+		NYTCorpusDocument expected = dom.parseNYTCorpusDocumentFromString(SAMPLE, false);
+		NYTCorpusDocument actual = stax.parseNYTCorpusDocumentFromString(SAMPLE, false);
+
+		Assert.assertEquals(expected.toString(), actual.toString());
+		// toString normalizes white space, so check the text fields exactly
+		Assert.assertEquals(expected.getBody(), actual.getBody());
+		Assert.assertEquals(expected.getHeadline(), actual.getHeadline());
+		Assert.assertEquals(expected.getArticleAbstract(), actual.getArticleAbstract());
+
+		Assert.assertEquals(1234567, actual.getGuid());
+		Assert.assertEquals("Subway Fares Rise & Riders Object", actual.getOnlineHeadline());
+		Assert.assertEquals(Integer.valueOf(4), actual.getColumnNumber());
+		Assert.assertEquals("METRO BRIEFING", actual.getKicker());
+		Assert.assertEquals(1, actual.getOnlinePeople().size());
+	}
+
+	public void testStaxMalformed()
+	{
+		NYTCorpusDocumentParser stax = new NYTCorpusDocumentParser();
+		stax.setUseStax(true);
+		Assert.assertNull(stax.parseNYTCorpusDocumentFromString("<nitf><head></nitf>", false));
+	}
+}
@@ -0,0 +1,65 @@
+package reconcile.hbase.table;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import reconcile.data.Annotation;
+import reconcile.data.AnnotationSet;
+import reconcile.hbase.mapreduce.annotation.AnnotationUtils;
+
+public class AnnotationSetCodecTest extends TestCase
+{
+	private AnnotationSet createSet()
+	{
+		AnnotationSet set = new AnnotationSet(DocSchema.annotationsToken);
+		Map<String, String> features = Maps.newTreeMap();
+		features.put("pos", "NN");
+		set.add(new Annotation(0, 0, 4, "token", features));
+		set.add(new Annotation(1, 5, 7, "token", Maps.<String, String> newTreeMap()));
+		features = Maps.newTreeMap();
+		features.put("pos", "VBZ");
+		features.put("lemma", "be");
+		set.add(new Annotation(2, 8, 10, "verb", features));
+		return set;
+	}
+
+	public void testRoundTrip() throws Exception
+	{
+		AnnotationSet set = createSet();
+		byte[] bytes = DocSchema.toBytes(set);
+		Assert.assertTrue(AnnotationSetCodec.isEncoded(bytes));
+
+		AnnotationSet decoded = DocSchema.toAnnotationSet(bytes, DocSchema.annotationsToken);
+		Assert.assertEquals(set.size(), decoded.size());
+		Iterator<Annotation> expected = set.iterator();
+		for (Annotation a : decoded) {
+			Annotation e = expected.next();
+			Assert.assertEquals(e.getId(), a.getId());
+			Assert.assertEquals(e.getStartOffset(), a.getStartOffset());
+			Assert.assertEquals(e.getEndOffset(), a.getEndOffset());
+			Assert.assertEquals(e.getType(), a.getType());
+			Assert.assertEquals(e.getFeatures(), a.getFeatures());
+		}
+	}
+
+	public void testLegacyText() throws Exception
+	{
+		AnnotationSet set = createSet();
+		byte[] text = AnnotationUtils.getAnnotationStr(set).getBytes();
+		Assert.assertFalse(AnnotationSetCodec.isEncoded(text));
+
+		AnnotationSet decoded = DocSchema.toAnnotationSet(text, DocSchema.annotationsToken);
+		Assert.assertEquals(set.size(), decoded.size());
+	}
+
+	public void testEmpty()
+	{
+		Assert.assertNull(DocSchema.toAnnotationSet(null, DocSchema.annotationsToken));
+		Assert.assertNull(DocSchema.toAnnotationSet(new byte[0], DocSchema.annotationsToken));
+	}
+}
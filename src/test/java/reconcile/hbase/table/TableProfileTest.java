@@ -0,0 +1,32 @@
+package reconcile.hbase.table;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class TableProfileTest extends TestCase
+{
+	public void testNoSplits()
+	{
+		Assert.assertEquals(0, TableProfile.getHexSplitKeys(1).length);
+	}
+
+	public void testHexSplits()
+	{
+		byte[][] splits = TableProfile.getHexSplitKeys(4);
+		Assert.assertEquals(3, splits.length);
+		Assert.assertEquals("40000000", Bytes.toString(splits[0]));
+		Assert.assertEquals("80000000", Bytes.toString(splits[1]));
+		Assert.assertEquals("c0000000", Bytes.toString(splits[2]));
+	}
+
+	public void testSplitsAreSorted()
+	{
+		byte[][] splits = TableProfile.getHexSplitKeys(100);
+		Assert.assertEquals(99, splits.length);
+		for (int i = 1; i < splits.length; i++) {
+			Assert.assertTrue(Bytes.compareTo(splits[i - 1], splits[i]) < 0);
+		}
+	}
+}